@@ -0,0 +1,71 @@
+package tfg.avellaneda.ira.carga;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Latencias y errores de una operación de la prueba de carga. La latencia se
+ * mide desde el momento en que la petición tocaba salir según la tasa de
+ * llegadas, no desde que sale de verdad: si el generador o el cliente se
+ * retrasan, el retraso cuenta (sin omisión coordinada).
+ */
+final class Estadisticas {
+
+    private final String nombre;
+    private final Histogram latencias = new ConcurrentHistogram(3);
+    private final AtomicLong errores = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    Estadisticas(String nombre) {
+        this.nombre = nombre;
+    }
+
+    String nombre() {
+        return nombre;
+    }
+
+    void correcta(long micros) {
+        latencias.recordValue(micros);
+    }
+
+    // Respuesta con código de error: la latencia también cuenta
+    void error(long micros) {
+        latencias.recordValue(micros);
+        errores.incrementAndGet();
+    }
+
+    // Sin respuesta (timeout o conexión rechazada)
+    void fallo() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Resumen para el informe: peticiones, tasa conseguida, errores y
+     * percentiles en milisegundos.
+     */
+    Map<String, Object> resumen(double segundos) {
+        long respondidas = latencias.getTotalCount();
+        Map<String, Object> resumen = new LinkedHashMap<>();
+        resumen.put("peticiones", respondidas + timeouts.get());
+        resumen.put("porSegundo", redondear((respondidas + timeouts.get()) / segundos));
+        resumen.put("errores", errores.get());
+        resumen.put("sinRespuesta", timeouts.get());
+        resumen.put("p50", ms(latencias.getValueAtPercentile(50)));
+        resumen.put("p95", ms(latencias.getValueAtPercentile(95)));
+        resumen.put("p99", ms(latencias.getValueAtPercentile(99)));
+        resumen.put("max", ms(latencias.getMaxValue()));
+        return resumen;
+    }
+
+    private static double ms(long micros) {
+        return redondear(micros / 1000.0);
+    }
+
+    private static double redondear(double valor) {
+        return Math.round(valor * 10) / 10.0;
+    }
+}
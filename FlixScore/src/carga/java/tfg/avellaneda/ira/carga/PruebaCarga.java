@@ -0,0 +1,351 @@
+package tfg.avellaneda.ira.carga;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import tfg.avellaneda.ira.IraApplication;
+
+/**
+ * Prueba de carga de extremo a extremo: arranca la aplicación contra el
+ * emulador de Firestore y un TMDb simulado (TmdbSimulado), crea usuarios y
+ * críticas de partida y lanza una mezcla de peticiones (búsqueda por nombre,
+ * película por ID, alta de crítica y lectura de usuario) a una tasa fija.
+ *
+ * Las llegadas siguen un proceso de Poisson con semilla fija y no esperan a
+ * las respuestas (modelo abierto): si el servicio se satura, las latencias
+ * crecen en vez de bajar la carga. Al final imprime peticiones, errores y
+ * p50/p95/p99 por operación y los guarda en target/carga/ para comparar
+ * ejecuciones.
+ *
+ * Necesita el emulador de Firestore arrancado:
+ *
+ * gcloud emulators firestore start --host-port=localhost:8081
+ * export FIRESTORE_EMULATOR_HOST=localhost:8081
+ * mvn -Pcarga verify [-Dcarga.tasa=200 -Dcarga.duracion=2m ...]
+ *
+ * Las opciones (carga.*) y sus valores por defecto están en el perfil carga
+ * del pom. Si se lanza la clase a mano, sus argumentos (ej.
+ * --tmdb.planificador.peticiones-por-segundo=100) se pasan a la aplicación.
+ */
+public class PruebaCarga {
+
+    private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * Opciones de la prueba, leídas de las propiedades del sistema carga.*.
+     */
+    private record Opciones(double tasa, Duration duracion, Duration calentamiento, Map<String, Integer> mezcla,
+            Duration latenciaTmdb, Duration variacionTmdb, double erroresTmdb, int usuarios, int peliculas,
+            int conexiones, Duration timeout, Path salida) {
+
+        static Opciones leer() {
+            return new Opciones(
+                    Double.parseDouble(System.getProperty("carga.tasa", "100")),
+                    duracion("carga.duracion", "60s"),
+                    duracion("carga.calentamiento", "15s"),
+                    mezcla(System.getProperty("carga.mezcla", "buscar:30,porId:30,critica:15,usuario:25")),
+                    duracion("carga.tmdb.latencia", "120ms"),
+                    duracion("carga.tmdb.variacion", "40ms"),
+                    Double.parseDouble(System.getProperty("carga.tmdb.errores", "0")),
+                    Integer.parseInt(System.getProperty("carga.usuarios", "200")),
+                    Integer.parseInt(System.getProperty("carga.peliculas", "5000")),
+                    Integer.parseInt(System.getProperty("carga.conexiones", "1000")),
+                    duracion("carga.timeout", "10s"),
+                    Path.of(System.getProperty("carga.salida", "target/carga")));
+        }
+
+        private static Duration duracion(String propiedad, String porDefecto) {
+            return DurationStyle.detectAndParse(System.getProperty(propiedad, porDefecto));
+        }
+
+        // "buscar:30,porId:30,..." -> pesos por operación
+        private static Map<String, Integer> mezcla(String texto) {
+            Map<String, Integer> pesos = new LinkedHashMap<>();
+            for (String parte : texto.split(",")) {
+                String[] operacion = parte.trim().split(":");
+                if (!OPERACIONES.contains(operacion[0])) {
+                    throw new IllegalArgumentException("Operación desconocida en carga.mezcla: " + operacion[0]
+                            + " (válidas: " + OPERACIONES + ")");
+                }
+                pesos.put(operacion[0], Integer.parseInt(operacion[1]));
+            }
+            return pesos;
+        }
+    }
+
+    private static final List<String> OPERACIONES = List.of("buscar", "porId", "critica", "usuario");
+
+    // Términos de búsqueda; los primeros se buscan mucho más (caché caliente)
+    private static final int NUM_TERMINOS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        if (System.getenv("FIRESTORE_EMULATOR_HOST") == null) {
+            System.err.println("Falta FIRESTORE_EMULATOR_HOST: la prueba de carga solo se ejecuta contra el "
+                    + "emulador de Firestore (gcloud emulators firestore start).");
+            System.exit(2);
+        }
+        if (System.getenv("TMDB_API_KEY") == null) {
+            System.err.println("Falta TMDB_API_KEY (cualquier valor; el perfil carga del pom ya la define).");
+            System.exit(2);
+        }
+        Opciones opciones = Opciones.leer();
+
+        try (TmdbSimulado tmdb = new TmdbSimulado(opciones.latenciaTmdb(), opciones.variacionTmdb(),
+                opciones.erroresTmdb(), opciones.peliculas())) {
+            // Las instantáneas en disco van a la salida de la prueba, no a los datos/ del desarrollador
+            Path datos = opciones.salida().resolve("datos");
+            List<String> argumentos = new ArrayList<>(List.of(
+                    "--server.port=0",
+                    "--tmdb.url-base=http://127.0.0.1:" + tmdb.puerto() + "/3",
+                    "--tmdb.conexiones.http2=false",
+                    "--flixscore.sugerencias.fichero=" + datos.resolve("indice-titulos.json"),
+                    "--flixscore.tendencias.fichero=" + datos.resolve("tendencias.bin"),
+                    "--flixscore.rankings.fichero=" + datos.resolve("rankings.json")));
+            argumentos.addAll(List.of(args));
+            ConfigurableApplicationContext aplicacion = SpringApplication.run(IraApplication.class,
+                    argumentos.toArray(String[]::new));
+            try {
+                int puerto = Integer.parseInt(aplicacion.getEnvironment().getProperty("local.server.port"));
+                ConnectionProvider conexiones = ConnectionProvider.builder("carga")
+                        .maxConnections(opciones.conexiones())
+                        .pendingAcquireMaxCount(-1)
+                        .pendingAcquireTimeout(opciones.timeout())
+                        .build();
+                HttpClient cliente = HttpClient.create(conexiones)
+                        .baseUrl("http://127.0.0.1:" + puerto)
+                        .responseTimeout(opciones.timeout());
+
+                List<String> usuarios = sembrar(cliente, opciones);
+                Resultado resultado = lanzar(cliente, opciones, usuarios);
+                informar(opciones, resultado, tmdb);
+                conexiones.disposeLater().block(Duration.ofSeconds(5));
+            } finally {
+                aplicacion.close();
+            }
+        }
+        // Los hilos de Firestore y Netty no son daemon
+        System.exit(0);
+    }
+
+    /**
+     * Crea los usuarios de partida (y tres críticas de cada uno) a través de la
+     * propia API.
+     *
+     * @return IDs de los usuarios creados.
+     */
+    private static List<String> sembrar(HttpClient cliente, Opciones opciones) {
+        System.out.printf("Creando %d usuarios y %d críticas de partida...%n", opciones.usuarios(),
+                opciones.usuarios() * 3);
+        List<String> usuarios = Flux.range(0, opciones.usuarios())
+                .flatMap(i -> enviar(cliente, "/api/v1/usuarios", Map.of("nick", "carga" + i,
+                        "correo", "carga" + i + "@flixscore.test"))
+                        .map(cuerpo -> leer(cuerpo).path("documentID").asText()), 16)
+                .collectList()
+                .block();
+        SplittableRandom aleatorio = new SplittableRandom(1);
+        List<Map<String, Object>> criticas = new ArrayList<>();
+        for (String usuario : usuarios) {
+            for (int i = 0; i < 3; i++) {
+                criticas.add(critica(usuario, opciones, aleatorio));
+            }
+        }
+        Flux.fromIterable(criticas)
+                .flatMap(critica -> enviar(cliente, "/api/v1/criticas", critica), 16)
+                .blockLast();
+        return usuarios;
+    }
+
+    private record Resultado(Map<String, Estadisticas> operaciones, int maxEnVuelo, double segundos) {
+    }
+
+    private static Resultado lanzar(HttpClient cliente, Opciones opciones, List<String> usuarios) {
+        Map<String, Estadisticas> estadisticas = new LinkedHashMap<>();
+        opciones.mezcla().keySet().forEach(nombre -> estadisticas.put(nombre, new Estadisticas(nombre)));
+        int pesoTotal = opciones.mezcla().values().stream().mapToInt(Integer::intValue).sum();
+
+        System.out.printf("Lanzando %.0f peticiones/s durante %s (+%s de calentamiento)...%n", opciones.tasa(),
+                opciones.duracion(), opciones.calentamiento());
+        SplittableRandom aleatorio = new SplittableRandom(42);
+        double intervaloMedio = 1e9 / opciones.tasa();
+        long inicio = System.nanoTime();
+        long inicioMedida = inicio + opciones.calentamiento().toNanos();
+        long fin = inicioMedida + opciones.duracion().toNanos();
+        AtomicInteger enVuelo = new AtomicInteger();
+        int maxEnVuelo = 0;
+
+        long siguiente = inicio;
+        while (siguiente < fin) {
+            long espera = siguiente - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+            }
+            long programada = siguiente;
+            String operacion = elegir(opciones, pesoTotal, aleatorio);
+            // Durante el calentamiento no se mide
+            Estadisticas destino = programada >= inicioMedida ? estadisticas.get(operacion) : null;
+            maxEnVuelo = Math.max(maxEnVuelo, enVuelo.incrementAndGet());
+            peticion(cliente, operacion, opciones, usuarios, aleatorio)
+                    .doFinally(senal -> enVuelo.decrementAndGet())
+                    .subscribe(estado -> {
+                        if (destino != null) {
+                            long micros = (System.nanoTime() - programada) / 1000;
+                            if (estado >= 400) {
+                                destino.error(micros);
+                            } else {
+                                destino.correcta(micros);
+                            }
+                        }
+                    }, e -> {
+                        if (destino != null) {
+                            destino.fallo();
+                        }
+                    });
+            siguiente += (long) (-Math.log(1 - aleatorio.nextDouble()) * intervaloMedio);
+        }
+
+        // Las últimas peticiones también cuentan
+        long limite = System.nanoTime() + opciones.timeout().toNanos();
+        while (enVuelo.get() > 0 && System.nanoTime() < limite) {
+            LockSupport.parkNanos(Duration.ofMillis(10).toNanos());
+        }
+        return new Resultado(estadisticas, maxEnVuelo, opciones.duracion().toMillis() / 1000.0);
+    }
+
+    private static String elegir(Opciones opciones, int pesoTotal, SplittableRandom aleatorio) {
+        int valor = aleatorio.nextInt(pesoTotal);
+        for (Map.Entry<String, Integer> operacion : opciones.mezcla().entrySet()) {
+            valor -= operacion.getValue();
+            if (valor < 0) {
+                return operacion.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    // Código de estado HTTP de la petición
+    private static Mono<Integer> peticion(HttpClient cliente, String operacion, Opciones opciones,
+            List<String> usuarios, SplittableRandom aleatorio) {
+        return switch (operacion) {
+            case "buscar" -> obtener(cliente, "/tmdb/v1/peliculasPorNombre?nombre=termino"
+                    + sesgado(NUM_TERMINOS, aleatorio));
+            case "porId" -> obtener(cliente, "/tmdb/v1/peliculasPorId?id="
+                    + (1 + sesgado(opciones.peliculas(), aleatorio)));
+            case "critica" -> cliente.headers(cabeceras -> cabeceras.set(HttpHeaderNames.CONTENT_TYPE,
+                    "application/json"))
+                    .post()
+                    .uri("/api/v1/criticas")
+                    .send(ByteBufFlux.fromString(Mono.just(escribir(critica(
+                            usuarios.get(aleatorio.nextInt(usuarios.size())), opciones, aleatorio)))))
+                    .responseSingle((respuesta, cuerpo) -> cuerpo.then(Mono.just(respuesta.status().code())));
+            case "usuario" -> obtener(cliente, "/api/v1/usuarios/"
+                    + usuarios.get(aleatorio.nextInt(usuarios.size())));
+            default -> throw new IllegalArgumentException(operacion);
+        };
+    }
+
+    private static Mono<Integer> obtener(HttpClient cliente, String ruta) {
+        return cliente.get()
+                .uri(ruta)
+                .responseSingle((respuesta, cuerpo) -> cuerpo.then(Mono.just(respuesta.status().code())));
+    }
+
+    // POST con cuerpo JSON durante la preparación; falla si no responde 2xx
+    private static Mono<String> enviar(HttpClient cliente, String ruta, Object cuerpo) {
+        return cliente.headers(cabeceras -> cabeceras.set(HttpHeaderNames.CONTENT_TYPE, "application/json"))
+                .post()
+                .uri(ruta)
+                .send(ByteBufFlux.fromString(Mono.just(escribir(cuerpo))))
+                .responseSingle((respuesta, contenido) -> contenido.asString()
+                        .defaultIfEmpty("")
+                        .flatMap(texto -> respuesta.status().code() < 300
+                                ? Mono.just(texto)
+                                : Mono.error(new IllegalStateException(
+                                        ruta + " respondió " + respuesta.status() + ": " + texto))));
+    }
+
+    private static Map<String, Object> critica(String usuario, Opciones opciones, SplittableRandom aleatorio) {
+        return Map.of("usuarioUID", usuario,
+                "peliculaID", 1 + sesgado(opciones.peliculas(), aleatorio),
+                "puntuacion", 1 + aleatorio.nextInt(10),
+                "comentario", "Crítica de la prueba de carga",
+                "creadaEn", System.currentTimeMillis());
+    }
+
+    // Entero en [0, n) con los primeros valores mucho más probables
+    private static int sesgado(int n, SplittableRandom aleatorio) {
+        return (int) (n * Math.pow(aleatorio.nextDouble(), 3));
+    }
+
+    private static void informar(Opciones opciones, Resultado resultado, TmdbSimulado tmdb) throws IOException {
+        Map<String, Object> operaciones = new LinkedHashMap<>();
+        System.out.println();
+        System.out.printf("%-10s %10s %8s %8s %8s %10s %10s %10s %10s%n", "operación", "peticiones", "por s",
+                "errores", "sin resp", "p50 ms", "p95 ms", "p99 ms", "máx ms");
+        for (Estadisticas estadisticas : resultado.operaciones().values()) {
+            Map<String, Object> resumen = estadisticas.resumen(resultado.segundos());
+            operaciones.put(estadisticas.nombre(), resumen);
+            System.out.printf("%-10s %10d %8.1f %8d %8d %10.1f %10.1f %10.1f %10.1f%n", estadisticas.nombre(),
+                    resumen.get("peticiones"), resumen.get("porSegundo"), resumen.get("errores"),
+                    resumen.get("sinRespuesta"), resumen.get("p50"), resumen.get("p95"), resumen.get("p99"),
+                    resumen.get("max"));
+        }
+        System.out.printf("Máximo de peticiones en vuelo: %d; peticiones recibidas por TMDb simulado: %d%n",
+                resultado.maxEnVuelo(), tmdb.peticiones());
+
+        Map<String, Object> informe = new LinkedHashMap<>();
+        informe.put("fecha", LocalDateTime.now().toString());
+        informe.put("opciones", Map.of("tasa", opciones.tasa(), "duracion", opciones.duracion().toString(),
+                "mezcla", opciones.mezcla(), "latenciaTmdb", opciones.latenciaTmdb().toString(),
+                "variacionTmdb", opciones.variacionTmdb().toString(), "erroresTmdb", opciones.erroresTmdb(),
+                "usuarios", opciones.usuarios(), "peliculas", opciones.peliculas()));
+        informe.put("operaciones", operaciones);
+        informe.put("maxEnVuelo", resultado.maxEnVuelo());
+        informe.put("peticionesTmdb", tmdb.peticiones());
+        Files.createDirectories(opciones.salida());
+        Path fichero = opciones.salida().resolve("carga-"
+                + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        JSON.writeValue(fichero.toFile(), informe);
+        System.out.println("Informe guardado en " + fichero);
+    }
+
+    private static JsonNode leer(String json) {
+        try {
+            return JSON.readTree(json);
+        } catch (IOException e) {
+            throw new IllegalStateException("Respuesta no válida: " + json, e);
+        }
+    }
+
+    private static String escribir(Object valor) {
+        try {
+            return JSON.writeValueAsString(valor);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
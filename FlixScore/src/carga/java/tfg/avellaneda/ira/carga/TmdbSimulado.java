@@ -0,0 +1,179 @@
+package tfg.avellaneda.ira.carga;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * TMDb simulado para las pruebas de carga. Responde /3/search/movie,
+ * /3/movie/{id} y /3/configuration con películas inventadas (siempre las
+ * mismas para la misma búsqueda o ID) tras una latencia de base más una cola
+ * exponencial, y puede fallar una fracción de las peticiones con 500.
+ *
+ * Una de cada cuatro películas no tiene resumen en español, para que las
+ * búsquedas también pidan detalles como con el TMDb real.
+ */
+final class TmdbSimulado implements AutoCloseable {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final String[] IDIOMAS = { "de", "fr", "it", "pt", "ja", "ko", "en", "ru", "pl", "nl" };
+
+    private final Duration latencia;
+    private final Duration variacion;
+    private final double tasaErrores;
+    private final int numPeliculas;
+    private final AtomicLong peticiones = new AtomicLong();
+    private final DisposableServer servidor;
+
+    /**
+     * @param latencia     Latencia mínima de cada respuesta.
+     * @param variacion    Media de la parte exponencial que se suma a la latencia.
+     * @param tasaErrores  Fracción de peticiones que responden 500 (0 a 1).
+     * @param numPeliculas IDs de película que existen (1..numPeliculas).
+     */
+    TmdbSimulado(Duration latencia, Duration variacion, double tasaErrores, int numPeliculas) {
+        this.latencia = latencia;
+        this.variacion = variacion;
+        this.tasaErrores = tasaErrores;
+        this.numPeliculas = numPeliculas;
+        this.servidor = HttpServer.create()
+                .host("127.0.0.1")
+                .port(0)
+                .route(rutas -> rutas
+                        .get("/3/search/movie", (peticion, respuesta) -> responder(respuesta,
+                                () -> busqueda(parametro(peticion.uri(), "query"))))
+                        .get("/3/movie/{id}", (peticion, respuesta) -> responder(respuesta,
+                                () -> detalle(Integer.parseInt(peticion.param("id")))))
+                        .route(peticion -> peticion.uri().startsWith("/3/configuration"),
+                                (peticion, respuesta) -> respuesta.status(HttpResponseStatus.OK).send()))
+                .bindNow();
+    }
+
+    int puerto() {
+        return servidor.port();
+    }
+
+    long peticiones() {
+        return peticiones.get();
+    }
+
+    @Override
+    public void close() {
+        servidor.disposeNow();
+    }
+
+    private Mono<Void> responder(HttpServerResponse respuesta, CuerpoJson cuerpo) {
+        peticiones.incrementAndGet();
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        long espera = latencia.toNanos() - (long) (variacion.toNanos() * Math.log(1 - aleatorio.nextDouble()));
+        boolean error = aleatorio.nextDouble() < tasaErrores;
+        return Mono.delay(Duration.ofNanos(espera))
+                .then(Mono.defer(() -> {
+                    if (error) {
+                        return respuesta.status(HttpResponseStatus.INTERNAL_SERVER_ERROR).send().then();
+                    }
+                    byte[] json;
+                    try {
+                        json = cuerpo.generar();
+                    } catch (NoEncontrada e) {
+                        return respuesta.status(HttpResponseStatus.NOT_FOUND).send().then();
+                    } catch (JsonProcessingException e) {
+                        return Mono.error(e);
+                    }
+                    return respuesta.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                            .sendByteArray(Mono.just(json))
+                            .then();
+                }));
+    }
+
+    // 20 resultados por búsqueda, elegidos a partir del texto buscado
+    private byte[] busqueda(String texto) throws JsonProcessingException {
+        SplittableRandom aleatorio = new SplittableRandom(texto.hashCode());
+        List<Map<String, Object>> resultados = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            resultados.add(pelicula(1 + aleatorio.nextInt(numPeliculas), false));
+        }
+        return JSON.writeValueAsBytes(Map.of("page", 1, "results", resultados, "total_pages", 1,
+                "total_results", resultados.size()));
+    }
+
+    private byte[] detalle(int id) throws JsonProcessingException {
+        if (id < 1 || id > numPeliculas) {
+            throw new NoEncontrada();
+        }
+        return JSON.writeValueAsBytes(pelicula(id, true));
+    }
+
+    private static Map<String, Object> pelicula(int id, boolean detalle) {
+        SplittableRandom aleatorio = new SplittableRandom(id);
+        Map<String, Object> pelicula = new LinkedHashMap<>();
+        pelicula.put("id", id);
+        pelicula.put("title", "Película " + id);
+        pelicula.put("original_title", "Movie " + id);
+        pelicula.put("overview", id % 4 == 0 ? "" : "Resumen de la película " + id + ". ".repeat(20));
+        pelicula.put("release_date", String.format("%d-%02d-%02d", 1950 + aleatorio.nextInt(75),
+                1 + aleatorio.nextInt(12), 1 + aleatorio.nextInt(28)));
+        pelicula.put("popularity", aleatorio.nextDouble() * 100);
+        pelicula.put("vote_average", aleatorio.nextDouble() * 10);
+        pelicula.put("vote_count", aleatorio.nextInt(30_000));
+        pelicula.put("poster_path", "/poster" + id + ".jpg");
+        pelicula.put("backdrop_path", "/fondo" + id + ".jpg");
+        pelicula.put("original_language", "en");
+        pelicula.put("adult", false);
+        List<Integer> generos = List.of(28 + aleatorio.nextInt(3), 878, 12 + aleatorio.nextInt(4));
+        if (!detalle) {
+            pelicula.put("genre_ids", generos);
+            return pelicula;
+        }
+        pelicula.put("genres", generos.stream().map(genero -> Map.of("id", genero, "name", "Género " + genero))
+                .toList());
+        List<Map<String, Object>> traducciones = new ArrayList<>();
+        for (String idioma : IDIOMAS) {
+            traducciones.add(Map.of("iso_639_1", idioma, "iso_3166_1", idioma.equals("en") ? "US" : "XX",
+                    "data", Map.of("title", "Movie " + id, "overview", "Overview of movie " + id + ".")));
+        }
+        pelicula.put("translations", Map.of("translations", traducciones));
+        return pelicula;
+    }
+
+    private static String parametro(String uri, String nombre) {
+        int inicio = uri.indexOf('?');
+        if (inicio >= 0) {
+            for (String par : uri.substring(inicio + 1).split("&")) {
+                if (par.startsWith(nombre + "=")) {
+                    return URLDecoder.decode(par.substring(nombre.length() + 1), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return "";
+    }
+
+    @FunctionalInterface
+    private interface CuerpoJson {
+        byte[] generar() throws JsonProcessingException;
+    }
+
+    private static final class NoEncontrada extends RuntimeException {
+        NoEncontrada() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Serialización a JSON de las respuestas más frecuentes: listas de críticas
+ * (por película, por usuario, feed) y de películas (búsquedas, populares). El
+ * ObjectMapper se configura como el de Spring Boot.
+ *
+ * Tamaños: 20 es una página por defecto, 100 el máximo de una página y 1000
+ * una respuesta sin paginar.
+ *
+ * mvn -Pjmh verify -Djmh.incluir=SerializacionJson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SerializacionJsonBenchmark {
+
+    @Param({ "20", "100", "1000" })
+    private int tam;
+
+    private ObjectMapper mapper;
+    private List<ModeloCritica> criticas;
+    private List<MovieSalida> peliculas;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+        SplittableRandom aleatorio = new SplittableRandom(42);
+
+        criticas = new ArrayList<>(tam);
+        for (int i = 0; i < tam; i++) {
+            // Comentarios de longitud variable, como los que escriben los usuarios
+            String comentario = "Muy buena película, la fotografía y la banda sonora acompañan. "
+                    .repeat(1 + aleatorio.nextInt(4));
+            criticas.add(new ModeloCritica("uid" + aleatorio.nextInt(100_000), 100 + aleatorio.nextInt(900_000),
+                    1 + aleatorio.nextInt(10), comentario, 1_700_000_000_000L + aleatorio.nextInt(1_000_000_000),
+                    "critica" + i));
+        }
+
+        peliculas = new ArrayList<>(tam);
+        for (int i = 0; i < tam; i++) {
+            MovieSalida pelicula = new MovieSalida();
+            pelicula.setId(100 + aleatorio.nextInt(900_000));
+            pelicula.setTitulo("Título de la película " + i);
+            pelicula.setTituloOriginal("Original movie title " + i);
+            pelicula.setResumen("Un resumen de unas cuantas líneas, como los que devuelve TMDb para cada "
+                    + "película, con el argumento sin destripar el final. ".repeat(2));
+            pelicula.setFechaEstreno("2010-07-15");
+            pelicula.setPopularidad(aleatorio.nextDouble() * 100);
+            pelicula.setPuntucionMedia(aleatorio.nextDouble() * 10);
+            pelicula.setRecuentoVotos(aleatorio.nextInt(40_000));
+            pelicula.setRutaPoster("/ljsZTbVsrQSqZgWeep2B1QiDKuh.jpg");
+            pelicula.setRutaFondo("/8ZTVqvKDQ8emSGUEMjsS4yHAwrp.jpg");
+            pelicula.setIdiomaOriginal("en");
+            pelicula.setGenerosIds(List.of(28, 878, 12));
+            // La mitad con los datos de FlixScore (conFlixScore=true)
+            if (i % 2 == 0) {
+                pelicula.setPuntuacionFlixScore(aleatorio.nextDouble() * 10);
+                pelicula.setRecuentoCriticasFlixScore((long) aleatorio.nextInt(500));
+            }
+            peliculas.add(pelicula);
+        }
+    }
+
+    @Benchmark
+    public byte[] serializarCriticas() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(criticas);
+    }
+
+    @Benchmark
+    public byte[] serializarPeliculas() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(peliculas);
+    }
+}
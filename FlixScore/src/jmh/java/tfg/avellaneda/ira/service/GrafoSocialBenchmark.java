@@ -0,0 +1,84 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latencia de GrafoSocial.sugerir con un grafo sintético, sin y con
+ * comparación de favoritas. Al preparar se imprime lo que tarda en cargarse.
+ *
+ * mvn -Pjmh verify -Djmh.incluir=GrafoSocial
+ *
+ * Por defecto: 200.000 usuarios con 300 amigos y 50 favoritas cada uno, así
+ * que cada consulta recorre unos 90.000 amigos de amigos (cambiar con -p, ej.
+ * -p amigos=1000).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GrafoSocialBenchmark {
+
+    @Param("200000")
+    public int usuarios;
+
+    @Param("300")
+    public int amigos;
+
+    @Param("50")
+    public int favoritas;
+
+    private GrafoSocial grafo;
+    private SplittableRandom aleatorio;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        SplittableRandom generador = new SplittableRandom(42);
+        grafo = new GrafoSocial();
+        long inicio = System.nanoTime();
+        for (int u = 0; u < usuarios; u++) {
+            // Amigos sobre todo cercanos en numeración, para que haya amigos en común
+            List<String> suyos = new ArrayList<>(amigos);
+            for (int a = 0; a < amigos; a++) {
+                int amigo = generador.nextInt(4) == 0
+                        ? generador.nextInt(usuarios)
+                        : Math.floorMod(u + generador.nextInt(-2_000, 2_000), usuarios);
+                suyos.add("usuario" + amigo);
+            }
+            List<Integer> peliculas = new ArrayList<>(favoritas);
+            for (int f = 0; f < favoritas; f++) {
+                peliculas.add(generador.nextInt(5_000));
+            }
+            grafo.guardar("usuario" + u, suyos, peliculas);
+        }
+        System.out.printf("%nCarga: %d ms%n", (System.nanoTime() - inicio) / 1_000_000);
+        aleatorio = new SplittableRandom(7);
+    }
+
+    @Benchmark
+    public List<GrafoSocial.Sugerencia> sugerirSinFavoritas() {
+        return grafo.sugerir("usuario" + aleatorio.nextInt(usuarios), 20, 0, 200);
+    }
+
+    @Benchmark
+    public List<GrafoSocial.Sugerencia> sugerirConFavoritas() {
+        return grafo.sugerir("usuario" + aleatorio.nextInt(usuarios), 20, 0.5, 200);
+    }
+}
@@ -0,0 +1,147 @@
+package tfg.avellaneda.ira.service;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tfg.avellaneda.ira.model.MovieEntrada;
+import tfg.avellaneda.ira.model.MovieSalida;
+import tfg.avellaneda.ira.model.TmdbGenero;
+import tfg.avellaneda.ira.model.TmdbTraducciones;
+
+/**
+ * Mapeo de MovieEntrada a MovieSalida (BuscarPeliculasEnTMDb.construirSalida)
+ * y formato de la fecha de estreno (MovieSalida.setFechaEstreno), que se
+ * ejecutan una vez por película en cada búsqueda.
+ *
+ * mvn -Pjmh verify -Djmh.incluir=MapeoPeliculas
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapeoPeliculasBenchmark {
+
+    // Resultado de búsqueda con título y resumen en español: no hace falta el detalle
+    private MovieEntrada busqueda;
+
+    // Detalle sin resumen en español: se busca la traducción al inglés entre
+    // las ~40 que trae TMDb para una película conocida
+    private MovieEntrada detalle;
+    private TmdbTraducciones traducciones;
+
+    private PrintStream errOriginal;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        busqueda = pelicula(603, "Matrix", "Thomas Anderson lleva una doble vida...");
+        busqueda.setGenreIds(List.of(28, 878));
+
+        detalle = pelicula(27205, "Origen", null);
+        List<TmdbGenero> generos = new ArrayList<>();
+        for (int id : new int[] { 28, 878, 12 }) {
+            TmdbGenero genero = new TmdbGenero();
+            genero.setId(id);
+            genero.setName("Género " + id);
+            generos.add(genero);
+        }
+        detalle.setGenres(generos);
+
+        String[][] idiomas = { { "de", "DE" }, { "fr", "FR" }, { "it", "IT" }, { "pt", "BR" }, { "ja", "JP" },
+                { "ko", "KR" }, { "zh", "CN" }, { "ru", "RU" }, { "pl", "PL" }, { "nl", "NL" }, { "sv", "SE" },
+                { "tr", "TR" }, { "cs", "CZ" }, { "hu", "HU" }, { "el", "GR" }, { "he", "IL" }, { "uk", "UA" },
+                { "da", "DK" }, { "fi", "FI" }, { "no", "NO" }, { "en", "US" }, { "ro", "RO" }, { "th", "TH" },
+                { "vi", "VN" }, { "id", "ID" }, { "ar", "SA" }, { "bg", "BG" }, { "lt", "LT" }, { "sk", "SK" },
+                { "ca", "ES" }, { "pt", "PT" }, { "es", "MX" }, { "zh", "TW" }, { "hr", "HR" }, { "sr", "RS" },
+                { "ka", "GE" }, { "fa", "IR" }, { "lv", "LV" }, { "et", "EE" }, { "sl", "SI" } };
+        List<TmdbTraducciones.Traduccion> lista = new ArrayList<>();
+        for (String[] idioma : idiomas) {
+            TmdbTraducciones.Datos datos = new TmdbTraducciones.Datos();
+            datos.setTitle("Inception (" + idioma[0] + ")");
+            datos.setOverview("Dom Cobb is a skilled thief, the absolute best in the dangerous art of extraction...");
+            TmdbTraducciones.Traduccion traduccion = new TmdbTraducciones.Traduccion();
+            traduccion.setIdioma(idioma[0]);
+            traduccion.setPais(idioma[1]);
+            traduccion.setData(datos);
+            lista.add(traduccion);
+        }
+        traducciones = new TmdbTraducciones();
+        traducciones.setTranslations(lista);
+
+        // setFechaEstreno escribe en System.err cada fecha mala; se descarta para
+        // medir el coste del camino (excepción y mensaje) y no el de la consola
+        errOriginal = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void restaurar() {
+        System.setErr(errOriginal);
+    }
+
+    @Benchmark
+    public MovieSalida construirSalidaBusqueda() {
+        return BuscarPeliculasEnTMDb.construirSalida(busqueda, null);
+    }
+
+    @Benchmark
+    public MovieSalida construirSalidaConTraducciones() {
+        return BuscarPeliculasEnTMDb.construirSalida(detalle, traducciones);
+    }
+
+    @Benchmark
+    public MovieSalida fechaEstrenoValida() {
+        MovieSalida salida = new MovieSalida();
+        salida.setFechaEstreno("2010-07-15");
+        return salida;
+    }
+
+    // Formato inesperado: DateTimeParseException y mensaje de error
+    @Benchmark
+    public MovieSalida fechaEstrenoErronea() {
+        MovieSalida salida = new MovieSalida();
+        salida.setFechaEstreno("15/07/2010");
+        return salida;
+    }
+
+    // TMDb manda "" en las películas sin fecha
+    @Benchmark
+    public MovieSalida fechaEstrenoVacia() {
+        MovieSalida salida = new MovieSalida();
+        salida.setFechaEstreno("");
+        return salida;
+    }
+
+    private static MovieEntrada pelicula(int id, String titulo, String resumen) {
+        MovieEntrada pelicula = new MovieEntrada();
+        pelicula.setId(id);
+        pelicula.setTitle(titulo);
+        pelicula.setOriginalTitle(titulo);
+        pelicula.setOverview(resumen);
+        pelicula.setReleaseDate("2010-07-15");
+        pelicula.setPopularity(83.952);
+        pelicula.setVoteAverage(8.369);
+        pelicula.setVoteCount(36512);
+        pelicula.setPosterPath("/ljsZTbVsrQSqZgWeep2B1QiDKuh.jpg");
+        pelicula.setBackdropPath("/8ZTVqvKDQ8emSGUEMjsS4yHAwrp.jpg");
+        pelicula.setOriginalLanguage("en");
+        return pelicula;
+    }
+}
@@ -0,0 +1,126 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construcción de ModeloSimilitud y latencia de recomendar con datos
+ * sintéticos. Al preparar se imprime el tamaño del modelo; la memoria
+ * asignada al construirlo sale en el perfilador gc.
+ *
+ * mvn -Pjmh verify -Djmh.incluir=ModeloSimilitud
+ *
+ * Por defecto: 1M de puntuaciones de 50.000 usuarios sobre 20.000 películas
+ * (cambiar con -p, ej. -p puntuaciones=5000000). La popularidad de las
+ * películas y la actividad de los usuarios siguen una ley de potencias, y las
+ * puntuaciones salen de unos gustos latentes para que haya similitudes de
+ * verdad.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModeloSimilitudBenchmark {
+
+    private static final int FACTORES = 8;
+
+    @Param("1000000")
+    public int puntuaciones;
+
+    @Param("50000")
+    public int usuarios;
+
+    @Param("20000")
+    public int peliculas;
+
+    private final ModeloSimilitud.Parametros parametros = new ModeloSimilitud.Parametros(50, 2, 10f, 500);
+    private final int[] excluidas = new int[0];
+
+    private ModeloSimilitud.Puntuaciones entrada;
+    private ForkJoinPool pool;
+    private ModeloSimilitud modelo;
+    private SplittableRandom aleatorio;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        entrada = generar(puntuaciones, usuarios, peliculas, 42);
+        pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        modelo = ModeloSimilitud.construir(entrada, usuarios, parametros, pool);
+        aleatorio = new SplittableRandom(7);
+        System.out.printf("%nModelo: %,d películas, %,d usuarios, %,d puntuaciones, %,d vecinos, %.1f MB; "
+                + "%d hilos%n", modelo.numPeliculas(), modelo.numUsuarios(), modelo.numPuntuaciones(),
+                modelo.numVecinos(), modelo.tamanoBytes() / 1e6, pool.getParallelism());
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ModeloSimilitud construir() {
+        return ModeloSimilitud.construir(entrada, usuarios, parametros, pool);
+    }
+
+    // Usuario al azar, 20 recomendaciones
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<ModeloSimilitud.Recomendacion> recomendar() {
+        return modelo.recomendar(aleatorio.nextInt(usuarios), excluidas, 20);
+    }
+
+    private static ModeloSimilitud.Puntuaciones generar(int n, int numUsuarios, int numPeliculas, long semilla) {
+        SplittableRandom aleatorio = new SplittableRandom(semilla);
+        float[][] gustos = latentes(numUsuarios, aleatorio);
+        float[][] rasgos = latentes(numPeliculas, aleatorio);
+
+        ModeloSimilitud.Puntuaciones puntuaciones = new ModeloSimilitud.Puntuaciones();
+        for (int k = 0; k < n; k++) {
+            int usuario = potencia(numUsuarios, 0.5, aleatorio);
+            int pelicula = potencia(numPeliculas, 0.8, aleatorio);
+            double afinidad = 0;
+            for (int f = 0; f < FACTORES; f++) {
+                afinidad += gustos[usuario][f] * rasgos[pelicula][f];
+            }
+            int valor = (int) Math.round(Math.max(1, Math.min(10, 6 + 2 * afinidad + aleatorio.nextGaussian())));
+            // IDs dispersos como los de TMDb
+            puntuaciones.anadir(usuario, 100 + pelicula * 7, valor);
+        }
+        return puntuaciones;
+    }
+
+    private static float[][] latentes(int n, SplittableRandom aleatorio) {
+        float[][] vectores = new float[n][FACTORES];
+        for (float[] vector : vectores) {
+            for (int f = 0; f < FACTORES; f++) {
+                vector[f] = (float) (aleatorio.nextGaussian() / Math.sqrt(FACTORES));
+            }
+        }
+        return vectores;
+    }
+
+    // Índice en [0, n) con probabilidad decreciente según una ley de potencias
+    private static int potencia(int n, double exponente, SplittableRandom aleatorio) {
+        double u = aleatorio.nextDouble();
+        double x = Math.pow(1 - u * (1 - Math.pow(n + 1.0, 1 - exponente)), 1 / (1 - exponente)) - 1;
+        return (int) Math.min(n - 1, Math.max(0, x));
+    }
+}
@@ -2,8 +2,10 @@ package tfg.avellaneda.ira;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class IraApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,55 @@
+package tfg.avellaneda.ira.config;
+
+import java.util.Map;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.util.TiemposPeticion;
+
+/**
+ * Codificador JSON de Spring que además suma el tiempo de serialización a los
+ * TiemposPeticion de la petición (cabecera Server-Timing).
+ *
+ * Jackson serializa cada valor de forma síncrona entre que el valor llega y
+ * sale su DataBuffer, así que basta con apuntar la hora al recibir el valor y
+ * restarla al emitir el buffer. Los buffers que no salen de un valor (el "["
+ * o "]" de una lista) no cuentan.
+ */
+public class CodificadorJsonMedido extends Jackson2JsonEncoder {
+
+    public CodificadorJsonMedido(ObjectMapper mapper) {
+        super(mapper);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+            ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+        return Flux.deferContextual(contexto -> {
+            TiemposPeticion tiempos = TiemposPeticion.de(contexto);
+            if (tiempos == null) {
+                return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+            }
+            long[] recibido = new long[1];
+            // Hay que conservar el Mono: el codificador lo trata distinto que un Flux
+            Publisher<?> entrada = inputStream instanceof Mono<?> mono
+                    ? mono.doOnNext(valor -> recibido[0] = System.nanoTime())
+                    : Flux.from(inputStream).doOnNext(valor -> recibido[0] = System.nanoTime());
+            return super.encode(entrada, bufferFactory, elementType, mimeType, hints)
+                    .doOnNext(buffer -> {
+                        if (recibido[0] != 0) {
+                            tiempos.serializacion(System.nanoTime() - recibido[0]);
+                            recibido[0] = 0;
+                        }
+                    });
+        });
+    }
+}
@@ -0,0 +1,75 @@
+package tfg.avellaneda.ira.config;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.util.TiemposPeticion;
+
+/**
+ * Pone un TiemposPeticion en el contexto de Reactor de cada petición. Una
+ * muestra de las peticiones que pasan del umbral se escribe en el log con el
+ * desglose. Con flixscore.server-timing.cabecera (desactivada por defecto)
+ * también se escribe, justo antes de enviar las cabeceras, en la cabecera
+ * Server-Timing (se ve en la pestaña de red del navegador).
+ *
+ * En las respuestas en streaming (NDJSON, SSE, listas JSON de un Flux) las
+ * cabeceras salen con el primer elemento, así que la cabecera solo cubre lo
+ * ocurrido hasta entonces; la línea del log sí cubre la petición entera.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class FiltroServerTiming implements WebFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FiltroServerTiming.class);
+
+    private static final String CABECERA = "Server-Timing";
+
+    private final FlixScoreProperties.ServerTiming conf;
+
+    public FiltroServerTiming(FlixScoreProperties propiedades) {
+        this.conf = propiedades.getServerTiming();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        if (!conf.isActivo()) {
+            return chain.filter(exchange);
+        }
+        TiemposPeticion tiempos = new TiemposPeticion();
+        if (conf.isCabecera()) {
+            ServerHttpResponse respuesta = exchange.getResponse();
+            respuesta.beforeCommit(() -> {
+                respuesta.getHeaders().add(CABECERA, tiempos.cabecera());
+                return Mono.empty();
+            });
+        }
+        return chain.filter(exchange)
+                .doFinally(senal -> registrarSiLenta(exchange, tiempos))
+                .contextWrite(contexto -> contexto.put(TiemposPeticion.CLAVE, tiempos));
+    }
+
+    private void registrarSiLenta(ServerWebExchange exchange, TiemposPeticion tiempos) {
+        long transcurrido = tiempos.transcurrido();
+        if (transcurrido < conf.getUmbralLento().toNanos()
+                || ThreadLocalRandom.current().nextDouble() >= conf.getMuestreoLentas()) {
+            return;
+        }
+        logger.warn("Petición lenta: {} {} -> {} en {} ms [{}]",
+                exchange.getRequest().getMethod(),
+                exchange.getRequest().getPath().value(),
+                exchange.getResponse().getStatusCode(),
+                TimeUnit.NANOSECONDS.toMillis(transcurrido),
+                tiempos.cabecera());
+    }
+}
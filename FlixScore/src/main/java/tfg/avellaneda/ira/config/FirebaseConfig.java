@@ -1,12 +1,18 @@
 package tfg.avellaneda.ira.config;
 
-import javax.annotation.PostConstruct;
+import jakarta.annotation.PostConstruct;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
+import com.google.firebase.cloud.FirestoreClient;
 /**
  *  Clase de configuracion para inicializar Firebase
  * TODO: Crear variables .env para no hardcodear
@@ -15,13 +21,20 @@ import com.google.firebase.FirebaseOptions;
 @Configuration
 public class FirebaseConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(FirebaseConfig.class);
+
+    private static final String PROYECTO = "tfg-flixscore";
+
     @PostConstruct
     public void init() {
+        if (emulador() != null) {
+            return;
+        }
         try {
             if (FirebaseApp.getApps().isEmpty()) {
                 FirebaseOptions options = FirebaseOptions.builder()
                     .setCredentials(GoogleCredentials.getApplicationDefault())
-                    .setProjectId("tfg-flixscore")
+                    .setProjectId(PROYECTO)
                     .build();
                 FirebaseApp.initializeApp(options);
             }
@@ -29,4 +42,30 @@ public class FirebaseConfig {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Instancia única de Firestore para inyectar en los repositorios.
+     * Se crea después de init(), así que FirebaseApp ya está inicializado.
+     *
+     * Con la variable de entorno FIRESTORE_EMULATOR_HOST (host:puerto) se usa
+     * el emulador local de Firestore, sin credenciales (pruebas de carga).
+     */
+    @Bean
+    public Firestore firestore() {
+        String emulador = emulador();
+        if (emulador != null) {
+            logger.warn("Usando el emulador de Firestore en {}", emulador);
+            return FirestoreOptions.newBuilder()
+                    .setProjectId(PROYECTO)
+                    .setEmulatorHost(emulador)
+                    .build()
+                    .getService();
+        }
+        return FirestoreClient.getFirestore();
+    }
+
+    private static String emulador() {
+        String host = System.getenv("FIRESTORE_EMULATOR_HOST");
+        return host != null && !host.isBlank() ? host : null;
+    }
+}
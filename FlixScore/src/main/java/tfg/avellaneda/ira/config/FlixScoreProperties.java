@@ -0,0 +1,336 @@
+package tfg.avellaneda.ira.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+/**
+ * Propiedades de configuración propias de FlixScore (prefijo "flixscore" en
+ * application.yml): críticas, usuarios y demás datos que guardamos en
+ * Firestore. Todos los valores tienen un valor por defecto razonable.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "flixscore")
+public class FlixScoreProperties {
+
+    private Exportacion exportacion = new Exportacion();
+
+    private Paginacion paginacion = new Paginacion();
+
+    private Ingesta ingesta = new Ingesta();
+
+    private ModeloLectura modeloLectura = new ModeloLectura();
+
+    private ListasUsuario listasUsuario = new ListasUsuario();
+
+    private Feed feed = new Feed();
+
+    private BusquedaNicks busquedaNicks = new BusquedaNicks();
+
+    private Sugerencias sugerencias = new Sugerencias();
+
+    private Tendencias tendencias = new Tendencias();
+
+    private Rankings rankings = new Rankings();
+
+    private Recomendaciones recomendaciones = new Recomendaciones();
+
+    private SugerenciasAmigos sugerenciasAmigos = new SugerenciasAmigos();
+
+    private ServerTiming serverTiming = new ServerTiming();
+
+    /**
+     * Exportación en streaming de las colecciones (NDJSON / SSE).
+     */
+    @Data
+    public static class Exportacion {
+
+        // Documentos que se leen de Firestore en cada página; es lo máximo que
+        // la exportación tiene en memoria a la vez
+        private int tamPagina = 500;
+    }
+
+    /**
+     * Listados paginados por cursor (?limite=&cursor=).
+     */
+    @Data
+    public static class Paginacion {
+
+        // Tamaño de página si el cliente manda cursor pero no límite
+        private int tamPorDefecto = 20;
+
+        // Tamaño de página máximo que puede pedir un cliente
+        private int tamMaximo = 100;
+
+        /**
+         * Tamaño de página a usar para el límite pedido por el cliente.
+         */
+        public int limite(Integer pedido) {
+            if (pedido == null) {
+                return tamPorDefecto;
+            }
+            return Math.max(1, Math.min(pedido, tamMaximo));
+        }
+    }
+
+    /**
+     * Importación masiva de críticas en NDJSON (POST /api/v1/criticas/bulk).
+     */
+    @Data
+    public static class Ingesta {
+
+        // Críticas que se escriben juntas antes de esperar su resultado
+        private int tamLote = 500;
+
+        // Lotes escribiéndose a la vez; mientras estén todos ocupados no se lee
+        // más cuerpo de la petición
+        private int lotesEnVuelo = 4;
+
+        // Errores por línea que se devuelven como mucho en el resumen
+        private int maxErrores = 1_000;
+    }
+
+    /**
+     * Copia en memoria de las críticas para las consultas por usuario y por
+     * película (ver ModeloLecturaCriticas).
+     */
+    @Data
+    public static class ModeloLectura {
+
+        // Desactivado por defecto: cada instancia guarda todas las críticas en memoria
+        private boolean activo = false;
+
+        // Espera antes de volver a escuchar Firestore si el listener falla
+        private Duration reintento = Duration.ofSeconds(5);
+    }
+
+    /**
+     * Dónde se guardan las listas del usuario (películas vistas, favoritas,
+     * criticadas y amigos).
+     */
+    @Data
+    public static class ListasUsuario {
+
+        public enum Modo {
+            // Arrays dentro del documento del usuario (formato original)
+            EMBEBIDAS,
+            // Un documento por elemento en usuarios/{id}/{lista}, con un contador
+            // num_{lista} en el usuario
+            SUBCOLECCIONES
+        }
+
+        private Modo modo = Modo.EMBEBIDAS;
+
+        // En modo SUBCOLECCIONES, pasar al arrancar los arrays que queden en los
+        // usuarios a sus subcolecciones (también se puede lanzar a mano)
+        private boolean migrarAlArrancar = false;
+
+        // Usuarios que se migran a la vez
+        private int concurrenciaMigracion = 4;
+    }
+
+    /**
+     * Feed de actividad de amigos (/api/v1/usuarios/{id}/feed).
+     */
+    @Data
+    public static class Feed {
+
+        // Los autores con más seguidores que esto no copian sus críticas a cada
+        // timeline: sus críticas se leen al pedir el feed
+        private int umbralFanOut = 1_000;
+
+        // Valores por consulta "in" al leer las críticas de esos autores
+        private int tamLoteIn = 30;
+
+        // Cada cuánto se recarga la lista de autores que no copian sus críticas
+        private Duration refrescoPopulares = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Búsqueda de usuarios por el principio del nick (/api/v1/usuarios/buscar).
+     */
+    @Data
+    public static class BusquedaNicks {
+
+        // Sugerencias devueltas si el cliente no pide otro número
+        private int tamPorDefecto = 10;
+
+        // Sugerencias que puede pedir un cliente como mucho
+        private int tamMaximo = 50;
+
+        // Cada cuánto se recarga el índice entero desde Firestore, para recoger
+        // los cambios hechos desde otras instancias
+        private Duration refresco = Duration.ofMinutes(10);
+    }
+
+    /**
+     * Autocompletado de títulos de película (/tmdb/v1/sugerencias), servido
+     * desde un índice en memoria que nunca llama a TMDb.
+     */
+    @Data
+    public static class Sugerencias {
+
+        private int tamPorDefecto = 8;
+
+        private int tamMaximo = 20;
+
+        // Peso de las críticas en FlixScore frente a la popularidad de TMDb al
+        // ordenar (ambos en escala logarítmica)
+        private double pesoActividad = 2.0;
+
+        // Títulos desconocidos pedidos a TMDb a la vez al arrancar; acota lo que
+        // ocupan en la cola de segundo plano del planificador
+        private int concurrenciaTmdb = 2;
+
+        // Fichero donde se guarda el índice para no empezar de cero al reiniciar
+        private String fichero = "datos/indice-titulos.json";
+
+        // Cada cuánto se guarda el índice en disco (si ha cambiado)
+        private Duration guardado = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Películas en tendencia (/api/v1/trending): eventos de la última ventana
+     * contados en memoria con un Count-Min sketch por cubo de tiempo.
+     */
+    @Data
+    public static class Tendencias {
+
+        // Periodo que se tiene en cuenta y granularidad con la que avanza
+        private Duration ventana = Duration.ofDays(7);
+
+        private Duration cubo = Duration.ofHours(1);
+
+        // Filas y columnas de cada sketch: el error de cada recuento es como
+        // mucho ~2.7/anchura del total de eventos de la ventana
+        private int profundidad = 4;
+
+        private int anchura = 2_048;
+
+        // Películas candidatas que se siguen para el ranking
+        private int candidatos = 500;
+
+        private int tamPorDefecto = 20;
+
+        private int tamMaximo = 100;
+
+        // Lo que cuenta cada evento
+        private int pesoCritica = 3;
+
+        private int pesoVista = 1;
+
+        // Fichero donde se guardan los contadores para no perder la ventana al reiniciar
+        private String fichero = "datos/tendencias.bin";
+
+        private Duration guardado = Duration.ofMinutes(5);
+    }
+
+    /**
+     * Rankings de películas mejor valoradas (/api/v1/rankings), general y por
+     * género, recalculados periódicamente a partir de estadisticas_peliculas.
+     */
+    @Data
+    public static class Rankings {
+
+        // Cada cuánto se recalculan
+        private Duration recalculo = Duration.ofMinutes(30);
+
+        // Críticas "de prior" de la media ponderada: una película con menos
+        // críticas que esto se acerca a la media global
+        private int minimoCriticas = 10;
+
+        // Películas que se guardan con su género (las mejor puntuadas); acota
+        // los detalles que se piden a TMDb
+        private int maxPeliculas = 2_000;
+
+        // Detalles pedidos a TMDb a la vez para conocer los géneros
+        private int concurrenciaTmdb = 4;
+
+        private int tamPorDefecto = 20;
+
+        private int tamMaximo = 100;
+
+        // Fichero con el último ranking, para servirlo nada más arrancar
+        private String fichero = "datos/rankings.json";
+    }
+
+    /**
+     * Recomendaciones por filtrado colaborativo película-película
+     * (/api/v1/usuarios/{id}/recomendaciones).
+     */
+    @Data
+    public static class Recomendaciones {
+
+        // Cada cuánto se reconstruye el modelo con las críticas
+        private Duration recalculo = Duration.ofHours(1);
+
+        // Hilos para construirlo (0 = uno por procesador)
+        private int paralelismo = 0;
+
+        // Vecinos guardados por película
+        private int vecinos = 50;
+
+        // Usuarios en común necesarios para considerar dos películas parecidas
+        private int minimoComun = 2;
+
+        // Penalización de las parejas con pocos usuarios en común
+        private float encogimiento = 10;
+
+        // Críticas de un mismo usuario que se cruzan como mucho
+        private int maxPorUsuario = 500;
+
+        private int tamPorDefecto = 20;
+
+        private int tamMaximo = 100;
+    }
+
+    /**
+     * Sugerencias de amistad por amigos en común
+     * (/api/v1/usuarios/{id}/sugerencias-amigos), servidas desde un grafo en
+     * memoria.
+     */
+    @Data
+    public static class SugerenciasAmigos {
+
+        private int tamPorDefecto = 10;
+
+        private int tamMaximo = 50;
+
+        // Puntos que suma cada película favorita en común (cada amigo en común
+        // suma 1) cuando el cliente pide comparar favoritas
+        private double pesoFavoritas = 0.25;
+
+        // Candidatos con más amigos en común a los que se comparan las favoritas
+        private int preseleccion = 200;
+
+        // Cada cuánto se recarga el grafo entero desde Firestore, para recoger
+        // los cambios hechos desde otras instancias
+        private Duration refresco = Duration.ofMinutes(30);
+    }
+
+    /**
+     * Desglose del tiempo de cada petición (llamadas a TMDb y Firestore,
+     * cachés, serialización) en la cabecera Server-Timing y registro de las
+     * peticiones lentas.
+     */
+    @Data
+    public static class ServerTiming {
+
+        private boolean activo = true;
+
+        // Añadir la cabecera a las respuestas (si no, solo se registran las
+        // lentas). Dice a cualquier cliente qué llamadas internas hace cada
+        // petición y cuánto tardan, así que solo para desarrollo
+        private boolean cabecera = false;
+
+        // A partir de aquí la petición se considera lenta
+        private Duration umbralLento = Duration.ofSeconds(1);
+
+        // Fracción de las peticiones lentas que se escriben en el log (0 a 1)
+        private double muestreoLentas = 0.1;
+    }
+}
@@ -0,0 +1,20 @@
+package tfg.avellaneda.ira.config;
+
+import java.time.Clock;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Reloj que usan los componentes con ventanas de tiempo (ej.
+ * TendenciasPeliculas). Es un bean para que los tests puedan darles uno que
+ * avanza a mano.
+ */
+@Configuration
+public class RelojConfig {
+
+    @Bean
+    public Clock reloj() {
+        return Clock.systemUTC();
+    }
+}
@@ -0,0 +1,23 @@
+package tfg.avellaneda.ira.config;
+
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Sustituye el codificador JSON de WebFlux por CodificadorJsonMedido, con el
+ * mismo ObjectMapper que configura Spring Boot.
+ */
+@Configuration
+public class ServerTimingConfig {
+
+    // Spring Boot registra su codificador JSON con @Order(0); este va después y lo reemplaza
+    @Bean
+    @Order(1)
+    public CodecCustomizer codificadorJsonMedido(ObjectMapper mapper) {
+        return configurer -> configurer.defaultCodecs().jackson2JsonEncoder(new CodificadorJsonMedido(mapper));
+    }
+}
@@ -0,0 +1,122 @@
+package tfg.avellaneda.ira.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import lombok.Data;
+
+/**
+ * Propiedades de configuración de la integración con TMDb (prefijo "tmdb" en
+ * application.yml). Todos los valores tienen un valor por defecto razonable,
+ * así que el fichero de configuración solo tiene que indicar lo que cambie.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "tmdb")
+public class TmdbProperties {
+
+    // URL base de la API (se cambia para apuntar a un TMDb simulado en las
+    // pruebas de carga)
+    private String urlBase = "https://api.themoviedb.org/3";
+
+    private CacheDetalles cacheDetalles = new CacheDetalles();
+
+    private CacheBusquedas cacheBusquedas = new CacheBusquedas();
+
+    private Planificador planificador = new Planificador();
+
+    private Conexiones conexiones = new Conexiones();
+
+    /**
+     * Caché de detalles de película (/movie/{id}) por id + idioma.
+     */
+    @Data
+    public static class CacheDetalles {
+
+        // Número máximo de películas en memoria
+        private long tamMaximo = 2_000;
+
+        // Tiempo máximo que una entrada puede servirse sin volver a TMDb
+        private Duration ttl = Duration.ofHours(6);
+
+        // Pasado este tiempo, la siguiente lectura refresca la entrada en segundo plano
+        private Duration refrescoAnticipado = Duration.ofHours(1);
+    }
+
+    /**
+     * Caché de resultados de búsqueda por nombre (tal como los devuelve TMDb).
+     */
+    @Data
+    public static class CacheBusquedas {
+
+        // Número máximo de búsquedas distintas en memoria
+        private long tamMaximo = 5_000;
+
+        // Tiempo durante el que un resultado se considera fresco
+        private Duration frescura = Duration.ofMinutes(10);
+
+        // Tiempo máximo que un resultado caducado puede seguir sirviéndose
+        // mientras se refresca (o mientras TMDb falle)
+        private Duration maximoObsoleto = Duration.ofHours(24);
+    }
+
+    /**
+     * Límites globales de las peticiones salientes a TMDb (para todo el proceso).
+     */
+    @Data
+    public static class Planificador {
+
+        // Presupuesto de peticiones por segundo (TMDb corta por encima de ~50)
+        private double peticionesPorSegundo = 40;
+
+        // Peticiones a TMDb en vuelo a la vez
+        private int maxConcurrentes = 20;
+
+        // Peticiones en espera como máximo; por encima se rechazan
+        private int maxCola = 2_000;
+
+        // Veces que se reintenta una petición que TMDb responde con 429
+        private int maxReintentos = 3;
+    }
+
+    /**
+     * Pool de conexiones HTTP propio del cliente de TMDb.
+     */
+    @Data
+    public static class Conexiones {
+
+        // Conexiones abiertas como máximo contra TMDb
+        private int maxConexiones = 50;
+
+        // Peticiones esperando conexión libre como máximo
+        private int maxPendientes = 500;
+
+        // Tiempo máximo esperando una conexión libre del pool
+        private Duration tiempoMaxAdquisicion = Duration.ofSeconds(5);
+
+        // Las conexiones sin uso durante este tiempo se cierran
+        private Duration maxInactividad = Duration.ofSeconds(30);
+
+        // Las conexiones se renuevan pasado este tiempo
+        private Duration maxVida = Duration.ofMinutes(5);
+
+        // Cada cuánto se revisan en segundo plano las conexiones caducadas
+        private Duration desalojo = Duration.ofSeconds(30);
+
+        private Duration timeoutConexion = Duration.ofSeconds(3);
+
+        private Duration timeoutRespuesta = Duration.ofSeconds(10);
+
+        // HTTP/2 si TMDb lo acepta (ALPN), si no HTTP/1.1
+        private boolean http2 = true;
+
+        // Pedir las respuestas comprimidas (gzip)
+        private boolean compresion = true;
+
+        // Conexiones que se abren al arrancar para no pagar el handshake en la
+        // primera búsqueda (0 para desactivarlo)
+        private int precalentar = 4;
+    }
+}
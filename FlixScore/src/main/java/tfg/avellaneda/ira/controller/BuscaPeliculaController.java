@@ -4,8 +4,11 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloSugerenciaPelicula;
 import tfg.avellaneda.ira.model.MovieSalida;
 import tfg.avellaneda.ira.service.BuscarPeliculasEnTMDb;
+import tfg.avellaneda.ira.service.IndiceTitulos;
 import java.util.List;
 
 /**
@@ -18,30 +21,56 @@ import java.util.List;
 public class BuscaPeliculaController {
 
     private final BuscarPeliculasEnTMDb buscarPeliculasEnTMDb;
+    private final IndiceTitulos indiceTitulos;
+    private final FlixScoreProperties.Sugerencias sugerencias;
 
-    public BuscaPeliculaController(BuscarPeliculasEnTMDb buscarPeliculasEnTMDb) {
+    public BuscaPeliculaController(BuscarPeliculasEnTMDb buscarPeliculasEnTMDb, IndiceTitulos indiceTitulos,
+            FlixScoreProperties propiedades) {
         this.buscarPeliculasEnTMDb = buscarPeliculasEnTMDb;
+        this.indiceTitulos = indiceTitulos;
+        this.sugerencias = propiedades.getSugerencias();
     }
 
     /**
      * Endpoint de búsqueda de película por nombre.
      * 
-     * @param nombre Nombre de la película a buscar
+     * @param nombre       Nombre de la película a buscar
+     * @param conFlixScore Añadir la puntuación de la comunidad de FlixScore
      * @return List de MovieSalida con todas las peliculas coincidentes
      */
     @GetMapping("/tmdb/v1/peliculasPorNombre")
-    public Mono<List<MovieSalida>> getMoviesByName(@RequestParam String nombre) {
-        return buscarPeliculasEnTMDb.buscarPeliculaPorNombre(nombre);
+    public Mono<List<MovieSalida>> getMoviesByName(@RequestParam String nombre,
+            @RequestParam(defaultValue = "false") boolean conFlixScore) {
+        return buscarPeliculasEnTMDb.buscarPeliculaPorNombre(nombre, conFlixScore);
     }
 
     /**
      * Endpoint de búsqueda de película por ID
      * 
-     * @param id ID de la película a buscar
+     * @param id           ID de la película a buscar
+     * @param conFlixScore Añadir la puntuación de la comunidad de FlixScore
      * @return List de MovieSalida con la pelicula buscada
      */
     @GetMapping("/tmdb/v1/peliculasPorId")
-    public Mono<List<MovieSalida>> getMoviesByID(@RequestParam String id) {
-        return buscarPeliculasEnTMDb.buscarPeliculaPorId(id);
+    public Mono<List<MovieSalida>> getMoviesByID(@RequestParam String id,
+            @RequestParam(defaultValue = "false") boolean conFlixScore) {
+        return buscarPeliculasEnTMDb.buscarPeliculaPorId(id, conFlixScore);
+    }
+
+    /**
+     * Endpoint de autocompletado de títulos. Se sirve desde el índice local, sin
+     * llamar a TMDb, así que puede pedirse en cada pulsación.
+     * 
+     * @param texto  Lo que lleva escrito el usuario
+     * @param limite Número máximo de sugerencias
+     * @return List de ModeloSugerenciaPelicula, las más relevantes primero
+     */
+    @GetMapping("/tmdb/v1/sugerencias")
+    public List<ModeloSugerenciaPelicula> getSugerencias(@RequestParam String texto,
+            @RequestParam(required = false) Integer limite) {
+        int tam = limite == null
+                ? sugerencias.getTamPorDefecto()
+                : Math.max(1, Math.min(limite, sugerencias.getTamMaximo()));
+        return indiceTitulos.buscar(texto, tam);
     }
 }
\ No newline at end of file
@@ -1,10 +1,20 @@
 package tfg.avellaneda.ira.controller;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
 import tfg.avellaneda.ira.model.ModeloCritica;
+import tfg.avellaneda.ira.model.ModeloEstadisticasPelicula;
+import tfg.avellaneda.ira.model.ModeloResumenIngesta;
 import tfg.avellaneda.ira.service.CriticaService;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -14,6 +24,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 /**
  * Controlador REST para gestionar las críticas de películas.
  * Proporciona endpoints para crear, recuperar por usuario y por película.
+ * Todos los endpoints son reactivos, ningún hilo de WebFlux espera a Firestore.
  * @author Israel
  * 
  * TODO: Añadir manejo de excepciones personalizado.
@@ -24,51 +35,105 @@ import org.springframework.web.bind.annotation.RequestBody;
 @RequestMapping("/api/v1/criticas")
 public class CriticaController {
 
-    @Autowired
-    CriticaService criticaService;
+    private final CriticaService criticaService;
+    private final FlixScoreProperties.Paginacion paginacion;
 
+    public CriticaController(CriticaService criticaService, FlixScoreProperties propiedades) {
+        this.criticaService = criticaService;
+        this.paginacion = propiedades.getPaginacion();
+    }
+
+    /**
+     * Los listados aceptan ?limite=&cursor= opcionales. Si se usan, devuelven una
+     * página y el cursor de la siguiente en la cabecera X-Siguiente-Cursor.
+     */
     @GetMapping("")
-    public String getAll() {
-        try {
-            return criticaService.getAll();
-        } catch (Exception e) {
-            return "Error al obtener las críticas: " + e.getMessage();
+    public Mono<ResponseEntity<Flux<ModeloCritica>>> getAll(@RequestParam(required = false) Integer limite,
+            @RequestParam(required = false) String cursor) {
+        if (!RespuestaPaginada.pedida(limite, cursor)) {
+            return Mono.just(ResponseEntity.ok(criticaService.getAll()
+                    .onErrorMap(RuntimeException.class, e -> new ResponseStatusException(
+                            HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener las críticas", e))));
         }
+        return RespuestaPaginada.de(criticaService.getAll(paginacion.limite(limite), cursor),
+                "Error al obtener las críticas");
+    }
+
+    /**
+     * Exportación de todas las críticas en streaming, una por línea (NDJSON) o
+     * como eventos SSE según la cabecera Accept. Pensado para las descargas
+     * nocturnas de analítica: la memoria no crece con el número de críticas.
+     */
+    @GetMapping(value = "/export", produces = { MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.TEXT_EVENT_STREAM_VALUE })
+    public Flux<ModeloCritica> exportar() {
+        return criticaService.exportar();
     }
+
     @GetMapping("{id}")
-    public String getByCriticaID(@PathVariable String CriticalID) {
-        try {
-            return criticaService.getCriticaById(CriticalID);
-        } catch (Exception e) {
-            return "Error al obtener la crítica: " + e.getMessage();
-        }
+    public Mono<ResponseEntity<ModeloCritica>> getByCriticaID(@PathVariable("id") String criticaId) {
+        return criticaService.getCriticaById(criticaId)
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build())
+                .onErrorResume(RuntimeException.class, e -> Mono.just(ResponseEntity.status(
+                        HttpStatus.INTERNAL_SERVER_ERROR).build()));
     }
 
     @GetMapping("/user/{userId}") 
-    public String getByUserId(@PathVariable String userId) {
-        try {
-            return criticaService.getCriticasByUserId(userId);
-        } catch (Exception e) {
-            return "Error al obtener las críticas del usuario: " + e.getMessage();
+    public Mono<ResponseEntity<Flux<ModeloCritica>>> getByUserId(@PathVariable String userId,
+            @RequestParam(required = false) Integer limite, @RequestParam(required = false) String cursor) {
+        if (!RespuestaPaginada.pedida(limite, cursor)) {
+            return Mono.just(ResponseEntity.ok(criticaService.getCriticasByUserId(userId)
+                    .onErrorMap(RuntimeException.class, e -> new ResponseStatusException(
+                            HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener las críticas del usuario", e))));
         }
+        return RespuestaPaginada.de(criticaService.getCriticasByUserId(userId, paginacion.limite(limite), cursor),
+                "Error al obtener las críticas del usuario");
     }
 
     @GetMapping("/pelicula/{peliculaId}")
-    public String getByPeliculaId(@PathVariable String peliculaId) {
-        try {
-            return criticaService.getCriticasByPeliculaId(peliculaId);
-        } catch (Exception e) {
-            return "Error al obtener las críticas de la película: " + e.getMessage();
+    public Mono<ResponseEntity<Flux<ModeloCritica>>> getByPeliculaId(@PathVariable int peliculaId,
+            @RequestParam(required = false) Integer limite, @RequestParam(required = false) String cursor) {
+        if (!RespuestaPaginada.pedida(limite, cursor)) {
+            return Mono.just(ResponseEntity.ok(criticaService.getCriticasByPeliculaId(peliculaId)
+                    .onErrorMap(RuntimeException.class, e -> new ResponseStatusException(
+                            HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener las críticas de la película", e))));
         }
+        return RespuestaPaginada.de(
+                criticaService.getCriticasByPeliculaId(peliculaId, paginacion.limite(limite), cursor),
+                "Error al obtener las críticas de la película");
+    }
+
+    /**
+     * Puntuación FlixScore de una película: recuento, media e histograma.
+     * Cuesta una sola lectura, no hace falta descargar todas sus críticas.
+     */
+    @GetMapping("/pelicula/{peliculaId}/stats")
+    public Mono<ModeloEstadisticasPelicula> getEstadisticasPelicula(@PathVariable int peliculaId) {
+        return criticaService.getEstadisticasPelicula(peliculaId)
+                .onErrorMap(RuntimeException.class, e -> new ResponseStatusException(
+                        HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener las estadísticas de la película", e));
     }
 
     @PostMapping("")
-    public String addCritica(@RequestBody ModeloCritica critica) {
-        try {
-            return criticaService.addCritica(critica);
-        } catch (Exception e) {
-            return "Error al añadir la crítica: " + e.getMessage();
-        }
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<ModeloCritica> addCritica(@RequestBody ModeloCritica critica) {
+        return criticaService.addCritica(critica)
+                .onErrorMap(RuntimeException.class, e -> new ResponseStatusException(
+                        HttpStatus.INTERNAL_SERVER_ERROR, "Error al añadir la crítica", e));
     }
-    
+
+    /**
+     * Importación masiva de críticas (migraciones, críticas de otras webs).
+     * El cuerpo es NDJSON, una crítica por línea, y se lee en streaming: el
+     * servidor no lee más de lo que Firestore va escribiendo. Responde con un
+     * resumen que incluye las líneas que no se han podido importar.
+     */
+    @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ModeloResumenIngesta> importar(@RequestBody Flux<String> lineas) {
+        return criticaService.importar(lineas)
+                .onErrorMap(RuntimeException.class, e -> new ResponseStatusException(
+                        HttpStatus.INTERNAL_SERVER_ERROR, "Error en la importación de críticas", e));
+    }
+
 }
@@ -0,0 +1,58 @@
+package tfg.avellaneda.ira.controller;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloPuntuacionRanking;
+import tfg.avellaneda.ira.service.RankingsPeliculas;
+
+/**
+ * Rankings de películas mejor valoradas por la comunidad. Se sirven del último
+ * cálculo en memoria; mientras no haya ninguno se responde 503.
+ */
+@RestController
+@RequestMapping("/api/v1/rankings")
+public class RankingController {
+
+    private final RankingsPeliculas rankings;
+    private final FlixScoreProperties.Rankings conf;
+
+    public RankingController(RankingsPeliculas rankings, FlixScoreProperties propiedades) {
+        this.rankings = rankings;
+        this.conf = propiedades.getRankings();
+    }
+
+    /**
+     * GET /api/v1/rankings?genero=&limite=
+     * Sin género devuelve el ranking general.
+     */
+    @GetMapping("")
+    public List<ModeloPuntuacionRanking> getRanking(@RequestParam(required = false) Integer genero,
+            @RequestParam(required = false) Integer limite) {
+        int tam = limite == null
+                ? conf.getTamPorDefecto()
+                : Math.max(1, Math.min(limite, conf.getTamMaximo()));
+        return rankings.top(genero, tam).orElseThrow(RankingController::noCalculado);
+    }
+
+    /**
+     * GET /api/v1/rankings/generos
+     * Géneros con ranking (ID -> nombre).
+     */
+    @GetMapping("/generos")
+    public Map<Integer, String> getGeneros() {
+        return rankings.generos().orElseThrow(RankingController::noCalculado);
+    }
+
+    private static ResponseStatusException noCalculado() {
+        return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Los rankings aún no están calculados");
+    }
+}
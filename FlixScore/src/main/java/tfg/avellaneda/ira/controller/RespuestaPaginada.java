@@ -0,0 +1,45 @@
+package tfg.avellaneda.ira.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.model.Pagina;
+
+/**
+ * Respuesta común de los listados paginados.
+ * El cuerpo sigue siendo la misma lista JSON que sin paginar, y el cursor de
+ * la página siguiente viaja en la cabecera X-Siguiente-Cursor (no se envía si
+ * es la última página).
+ */
+final class RespuestaPaginada {
+
+    static final String CABECERA_CURSOR = "X-Siguiente-Cursor";
+
+    private RespuestaPaginada() {
+    }
+
+    /**
+     * Los listados solo se paginan si el cliente pide límite o cursor; si no,
+     * se devuelve la lista completa como hasta ahora.
+     */
+    static boolean pedida(Integer limite, String cursor) {
+        return limite != null || cursor != null;
+    }
+
+    static <T> Mono<ResponseEntity<Flux<T>>> de(Mono<Pagina<T>> pagina, String mensajeError) {
+        return pagina
+                .map(resultado -> {
+                    ResponseEntity.BodyBuilder respuesta = ResponseEntity.ok();
+                    if (resultado.getSiguienteCursor() != null) {
+                        respuesta.header(CABECERA_CURSOR, resultado.getSiguienteCursor());
+                    }
+                    return respuesta.body(Flux.fromIterable(resultado.getElementos()));
+                })
+                .onErrorMap(e -> e instanceof IllegalArgumentException
+                        ? new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e)
+                        : new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, mensajeError, e));
+    }
+}
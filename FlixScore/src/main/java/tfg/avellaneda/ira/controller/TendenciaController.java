@@ -0,0 +1,40 @@
+package tfg.avellaneda.ira.controller;
+
+import java.util.List;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloTendencia;
+import tfg.avellaneda.ira.service.TendenciasPeliculas;
+
+/**
+ * Películas en tendencia de la última semana. Se sirve desde memoria, sin
+ * consultas a Firestore ni a TMDb.
+ */
+@RestController
+@RequestMapping("/api/v1/trending")
+public class TendenciaController {
+
+    private final TendenciasPeliculas tendencias;
+    private final FlixScoreProperties.Tendencias conf;
+
+    public TendenciaController(TendenciasPeliculas tendencias, FlixScoreProperties propiedades) {
+        this.tendencias = tendencias;
+        this.conf = propiedades.getTendencias();
+    }
+
+    /**
+     * GET /api/v1/trending?limite=
+     */
+    @GetMapping("")
+    public List<ModeloTendencia> getTendencias(@RequestParam(required = false) Integer limite) {
+        int tam = limite == null
+                ? conf.getTamPorDefecto()
+                : Math.max(1, Math.min(limite, conf.getTamMaximo()));
+        return tendencias.top(tam);
+    }
+}
@@ -1,45 +1,84 @@
 package tfg.avellaneda.ira.controller;
 
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.List;
+import java.util.Map;
+
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ListaUsuario;
+import tfg.avellaneda.ira.model.ModeloCritica;
+import tfg.avellaneda.ira.model.ModeloRecomendacion;
+import tfg.avellaneda.ira.model.ModeloSugerenciaAmigo;
+import tfg.avellaneda.ira.model.ModeloSugerenciaUsuario;
 import tfg.avellaneda.ira.model.ModeloUsuario;
+import tfg.avellaneda.ira.service.FeedService;
+import tfg.avellaneda.ira.service.RecomendacionesService;
 import tfg.avellaneda.ira.service.UsuarioService;
 
-import java.util.NoSuchElementException;
-
 /**
  * Controller REST para gestionar los usuarios.
+ * Todos los endpoints son reactivos: el service devuelve Mono/Flux que se
+ * completan cuando responde Firestore, sin bloquear los hilos de WebFlux.
  */
 @RestController
 @RequestMapping("/api/v1/usuarios")
 public class UsuarioController {
 
-    @Autowired
-    UsuarioService usuarioService;
+    private final UsuarioService usuarioService;
+    private final FeedService feedService;
+    private final FlixScoreProperties.Paginacion paginacion;
+    private final FlixScoreProperties.BusquedaNicks busquedaNicks;
+    private final RecomendacionesService recomendacionesService;
+    private final FlixScoreProperties.Recomendaciones recomendaciones;
+    private final FlixScoreProperties.SugerenciasAmigos sugerenciasAmigos;
+
+    public UsuarioController(UsuarioService usuarioService, FeedService feedService,
+            RecomendacionesService recomendacionesService, FlixScoreProperties propiedades) {
+        this.usuarioService = usuarioService;
+        this.feedService = feedService;
+        this.recomendacionesService = recomendacionesService;
+        this.paginacion = propiedades.getPaginacion();
+        this.busquedaNicks = propiedades.getBusquedaNicks();
+        this.recomendaciones = propiedades.getRecomendaciones();
+        this.sugerenciasAmigos = propiedades.getSugerenciasAmigos();
+    }
 
     /**
-     * Resuelve el error de Type Mismatch. Devuelve Flux<ModeloUsuario>.
-     * La llamada al service está envuelta en Mono.fromCallable() para
-     * ejecutarla en un hilo aparte y no bloquear WebFlux.
      * GET /api/v1/usuarios
+     * Con ?limite=&cursor= devuelve una página y el cursor de la siguiente en la
+     * cabecera X-Siguiente-Cursor.
      */
     @GetMapping
-    @ResponseStatus(HttpStatus.OK)
-    public Flux<ModeloUsuario> getAll() {
-        // Envolvemos el método de bloqueo getAll() en un Mono y luego lo
-        // convertimos a Flux
-        return Mono.fromCallable(() -> usuarioService.getAll())
-                .flatMapMany(Flux::fromIterable)
-                // Manejo básico de errores reactivos (ej. base de datos no disponible)
-                .onErrorResume(RuntimeException.class, e -> {
-                    return Flux.error(new ResponseStatusException(
-                            HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener todos los usuarios", e));
-                });
+    public Mono<ResponseEntity<Flux<ModeloUsuario>>> getAll(@RequestParam(required = false) Integer limite,
+            @RequestParam(required = false) String cursor) {
+        if (!RespuestaPaginada.pedida(limite, cursor)) {
+            return Mono.just(ResponseEntity.ok(usuarioService.getAll()
+                    // Manejo básico de errores reactivos (ej. base de datos no disponible)
+                    .onErrorResume(RuntimeException.class, e -> {
+                        return Flux.error(new ResponseStatusException(
+                                HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener todos los usuarios", e));
+                    })));
+        }
+        return RespuestaPaginada.de(usuarioService.getAll(paginacion.limite(limite), cursor),
+                "Error al obtener todos los usuarios");
+    }
+
+    /**
+     * Exportación de todos los usuarios en streaming, uno por línea (NDJSON) o
+     * como eventos SSE según la cabecera Accept.
+     * GET /api/v1/usuarios/export
+     */
+    @GetMapping(value = "/export", produces = { MediaType.APPLICATION_NDJSON_VALUE,
+            MediaType.TEXT_EVENT_STREAM_VALUE })
+    public Flux<ModeloUsuario> exportar() {
+        return usuarioService.exportar();
     }
 
     /**
@@ -47,10 +86,7 @@ public class UsuarioController {
      */
     @GetMapping("/{id}")
     public Mono<ResponseEntity<ModeloUsuario>> getUsuarioByID(@PathVariable String id) {
-        // Envolvemos el método de bloqueo getUsuarioById() en un Mono
-        return Mono.fromCallable(() -> usuarioService.getUsuarioById(id))
-                .filter(java.util.Optional::isPresent)
-                .map(java.util.Optional::get)
+        return usuarioService.getUsuarioById(id)
                 .map(ResponseEntity::ok)
                 .defaultIfEmpty(ResponseEntity.notFound().build())
                 .onErrorResume(RuntimeException.class, e -> {
@@ -59,25 +95,44 @@ public class UsuarioController {
                 });
     }
 
+    /**
+     * Autocompletado del buscador de amigos: usuarios cuyo nick empieza por el
+     * prefijo (sin distinguir mayúsculas ni tildes). Se resuelve en memoria, se
+     * puede llamar en cada pulsación.
+     * GET /api/v1/usuarios/buscar?prefijo=&limite=
+     */
+    @GetMapping("/buscar")
+    public List<ModeloSugerenciaUsuario> buscarPorPrefijo(@RequestParam String prefijo,
+            @RequestParam(required = false) Integer limite) {
+        int tam = limite == null
+                ? busquedaNicks.getTamPorDefecto()
+                : Math.max(1, Math.min(limite, busquedaNicks.getTamMaximo()));
+        return usuarioService.buscarPorPrefijoNick(prefijo, tam);
+    }
+
     /**
      * Resuelve la Ambiguous handler methods error.
      * Nueva ruta: GET /api/v1/usuarios/nick/{nick}
      */
     @GetMapping("/nick/{nick}")
-    public Flux<ModeloUsuario> getByNick(@PathVariable String nick) {
-        // Devuelve una lista de usuarios (Flux)
-        return Mono.fromCallable(() -> usuarioService.getUsuarioByNick(nick))
-                .flatMapMany(Flux::fromIterable)
-                .onErrorResume(RuntimeException.class, e -> {
-                    return Flux.error(new ResponseStatusException(
-                            HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener usuario por nick", e));
-                });
+    public Mono<ResponseEntity<Flux<ModeloUsuario>>> getByNick(@PathVariable String nick,
+            @RequestParam(required = false) Integer limite, @RequestParam(required = false) String cursor) {
+        if (!RespuestaPaginada.pedida(limite, cursor)) {
+            // Devuelve una lista de usuarios (Flux)
+            return Mono.just(ResponseEntity.ok(usuarioService.getUsuarioByNick(nick)
+                    .onErrorResume(RuntimeException.class, e -> {
+                        return Flux.error(new ResponseStatusException(
+                                HttpStatus.INTERNAL_SERVER_ERROR, "Error al obtener usuario por nick", e));
+                    })));
+        }
+        return RespuestaPaginada.de(usuarioService.getUsuarioByNick(nick, paginacion.limite(limite), cursor),
+                "Error al obtener usuario por nick");
     }
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<ModeloUsuario> addUsuario(@RequestBody ModeloUsuario usuario) {
-        return Mono.fromCallable(() -> usuarioService.addUsuario(usuario))
+        return usuarioService.addUsuario(usuario)
                 .onErrorResume(RuntimeException.class, e -> {
                     return Mono.error(new ResponseStatusException(
                             HttpStatus.INTERNAL_SERVER_ERROR, "Error al añadir usuario", e));
@@ -86,10 +141,8 @@ public class UsuarioController {
 
     @PutMapping("/{id}")
     public Mono<ResponseEntity<Void>> updateUsuario(@PathVariable String id, @RequestBody ModeloUsuario usuario) {
-        return Mono.fromCallable(() -> {
-            usuarioService.updateUsuario(id, usuario);
-            return ResponseEntity.noContent().<Void>build();
-        })
+        return usuarioService.updateUsuario(id, usuario)
+                .then(Mono.just(ResponseEntity.noContent().<Void>build()))
                 .onErrorResume(RuntimeException.class, e -> {
                     return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
                 });
@@ -98,11 +151,132 @@ public class UsuarioController {
     @DeleteMapping("/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public Mono<Void> deleteUsuario(@PathVariable String id) {
-        return Mono.fromRunnable(() -> usuarioService.deleteUsuario(id))
-                .then()
+        return usuarioService.deleteUsuario(id)
                 .onErrorResume(RuntimeException.class, e -> {
                     return Mono.error(new ResponseStatusException(
                             HttpStatus.INTERNAL_SERVER_ERROR, "Error al eliminar usuario", e));
                 });
     }
+
+    /**
+     * Feed de actividad: críticas de los amigos del usuario, de la más reciente
+     * a la más antigua. Siempre paginado (X-Siguiente-Cursor).
+     * GET /api/v1/usuarios/{id}/feed?limite=&cursor=
+     */
+    @GetMapping("/{id}/feed")
+    public Mono<ResponseEntity<Flux<ModeloCritica>>> getFeed(@PathVariable String id,
+            @RequestParam(required = false) Integer limite, @RequestParam(required = false) String cursor) {
+        return RespuestaPaginada.de(feedService.getFeed(id, paginacion.limite(limite), cursor),
+                "Error al obtener el feed del usuario");
+    }
+
+    /**
+     * Películas recomendadas según sus críticas, sin las que ya ha visto.
+     * GET /api/v1/usuarios/{id}/recomendaciones?limite=
+     * 503 mientras el modelo no esté construido.
+     */
+    @GetMapping("/{id}/recomendaciones")
+    public Mono<List<ModeloRecomendacion>> getRecomendaciones(@PathVariable String id,
+            @RequestParam(required = false) Integer limite) {
+        int tam = limite == null
+                ? recomendaciones.getTamPorDefecto()
+                : Math.max(1, Math.min(limite, recomendaciones.getTamMaximo()));
+        return recomendacionesService.recomendar(id, tam)
+                .onErrorMap(IllegalStateException.class,
+                        e -> new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e))
+                .onErrorMap(e -> !(e instanceof ResponseStatusException),
+                        e -> new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                                "Error al obtener las recomendaciones del usuario", e));
+    }
+
+    /**
+     * Usuarios que quizá conozca: amigos de sus amigos, con más amigos en común
+     * primero. Con conFavoritas=true también cuentan las películas favoritas en
+     * común. Se resuelve en memoria.
+     * GET /api/v1/usuarios/{id}/sugerencias-amigos?limite=&conFavoritas=
+     */
+    @GetMapping("/{id}/sugerencias-amigos")
+    public List<ModeloSugerenciaAmigo> getSugerenciasAmigos(@PathVariable String id,
+            @RequestParam(required = false) Integer limite,
+            @RequestParam(defaultValue = "false") boolean conFavoritas) {
+        int tam = limite == null
+                ? sugerenciasAmigos.getTamPorDefecto()
+                : Math.max(1, Math.min(limite, sugerenciasAmigos.getTamMaximo()));
+        return usuarioService.sugerirAmigos(id, tam, conFavoritas);
+    }
+
+    /**
+     * Página de una lista del usuario (vistas, favoritas, criticadas o amigos).
+     * GET /api/v1/usuarios/{id}/listas/{lista}?limite=&cursor=
+     * Siempre paginada; el cursor de la siguiente página va en la cabecera
+     * X-Siguiente-Cursor.
+     */
+    @GetMapping("/{id}/listas/{lista}")
+    public Mono<ResponseEntity<Flux<Object>>> getLista(@PathVariable String id, @PathVariable String lista,
+            @RequestParam(required = false) Integer limite, @RequestParam(required = false) String cursor) {
+        ListaUsuario tipo;
+        try {
+            tipo = ListaUsuario.desdeNombre(lista);
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e));
+        }
+        return RespuestaPaginada.de(usuarioService.getLista(id, tipo, paginacion.limite(limite), cursor),
+                "Error al obtener la lista del usuario")
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Migra las listas de todos los usuarios a subcolecciones
+     * (flixscore.listas-usuario.modo=subcolecciones). Se puede relanzar.
+     * POST /api/v1/usuarios/listas/migracion
+     */
+    @PostMapping("/listas/migracion")
+    public Mono<Map<String, Long>> migrarListas() {
+        return usuarioService.migrarListas()
+                .onErrorMap(IllegalStateException.class,
+                        e -> new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e))
+                .onErrorMap(e -> !(e instanceof ResponseStatusException), e -> new ResponseStatusException(
+                        HttpStatus.INTERNAL_SERVER_ERROR, "Error al migrar las listas de usuario", e));
+    }
+
+    /**
+     * Añade un elemento a una lista del usuario sin mandar el usuario entero.
+     * PUT /api/v1/usuarios/{id}/listas/{lista}/{valor}
+     * lista: vistas, favoritas, criticadas (ID de película) o amigos (ID de usuario).
+     */
+    @PutMapping("/{id}/listas/{lista}/{valor}")
+    public Mono<ResponseEntity<Void>> anadirALista(@PathVariable String id, @PathVariable String lista,
+            @PathVariable String valor) {
+        return Mono.fromCallable(() -> ListaUsuario.desdeNombre(lista))
+                .flatMap(tipo -> usuarioService.anadirALista(id, tipo, valor))
+                .map(UsuarioController::respuestaLista)
+                .onErrorResume(RuntimeException.class, UsuarioController::errorLista);
+    }
+
+    /**
+     * Quita un elemento de una lista del usuario.
+     * DELETE /api/v1/usuarios/{id}/listas/{lista}/{valor}
+     */
+    @DeleteMapping("/{id}/listas/{lista}/{valor}")
+    public Mono<ResponseEntity<Void>> quitarDeLista(@PathVariable String id, @PathVariable String lista,
+            @PathVariable String valor) {
+        return Mono.fromCallable(() -> ListaUsuario.desdeNombre(lista))
+                .flatMap(tipo -> usuarioService.quitarDeLista(id, tipo, valor))
+                .map(UsuarioController::respuestaLista)
+                .onErrorResume(RuntimeException.class, UsuarioController::errorLista);
+    }
+
+    // Respuestas de los endpoints de listas: 204, 404 si el usuario no existe,
+    // 400 si la lista o el valor no son válidos
+    private static ResponseEntity<Void> respuestaLista(boolean existe) {
+        return existe ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    private static Mono<ResponseEntity<Void>> errorLista(RuntimeException e) {
+        if (e instanceof IllegalArgumentException) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e));
+        }
+        return Mono.error(new ResponseStatusException(
+                HttpStatus.INTERNAL_SERVER_ERROR, "Error al actualizar la lista del usuario", e));
+    }
 }
@@ -0,0 +1,78 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.Locale;
+
+/**
+ * Listas del usuario que se pueden modificar elemento a elemento
+ * (/api/v1/usuarios/{id}/listas/{lista}/{valor}). Relaciona el nombre que se
+ * usa en la ruta con el campo de ModeloUsuario en Firestore.
+ */
+public enum ListaUsuario {
+
+    VISTAS("peliculas_vistas", true),
+    FAVORITAS("peliculas_favoritas", true),
+    CRITICADAS("peliculas_criticadas", true),
+    AMIGOS("amigos_id", false);
+
+    private final String campo;
+    private final boolean peliculas;
+
+    ListaUsuario(String campo, boolean peliculas) {
+        this.campo = campo;
+        this.peliculas = peliculas;
+    }
+
+    /**
+     * Nombre del campo en el documento del usuario.
+     */
+    public String getCampo() {
+        return campo;
+    }
+
+    /**
+     * Campo del usuario con el número de elementos de la lista (solo en modo
+     * SUBCOLECCIONES, ej. num_peliculas_vistas).
+     */
+    public String getCampoRecuento() {
+        return "num_" + campo;
+    }
+
+    /**
+     * Convierte el valor recibido en la ruta al tipo que se guarda en la lista:
+     * los IDs de película son números (Long) y los de amigos, texto.
+     *
+     * @throws IllegalArgumentException si el valor no es válido para la lista.
+     */
+    public Object convertir(String valor) {
+        if (valor == null || valor.isBlank()) {
+            throw new IllegalArgumentException("Falta el valor para la lista " + nombre());
+        }
+        if (!peliculas) {
+            return valor;
+        }
+        try {
+            return Long.valueOf(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ID de película no válido: " + valor, e);
+        }
+    }
+
+    public String nombre() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Lista a partir del nombre de la ruta ("vistas", "favoritas", "criticadas",
+     * "amigos") o del nombre del campo ("peliculas_vistas", ...).
+     *
+     * @throws IllegalArgumentException si no es una lista conocida.
+     */
+    public static ListaUsuario desdeNombre(String nombre) {
+        for (ListaUsuario lista : values()) {
+            if (lista.nombre().equalsIgnoreCase(nombre) || lista.campo.equalsIgnoreCase(nombre)) {
+                return lista;
+            }
+        }
+        throw new IllegalArgumentException("Lista de usuario desconocida: " + nombre);
+    }
+}
@@ -0,0 +1,32 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de un cálculo de los rankings, tal como se guarda en disco. Los
+ * rankings por género se deducen de peliculas al cargarlo.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ModeloClasificacion {
+
+    // Momento del cálculo (epoch millis)
+    private long generadoEn;
+
+    // Media de todas las críticas, hacia la que se acercan las películas con pocas
+    private double mediaGlobal;
+
+    private int minimoCriticas;
+
+    // Nombre de cada género por ID, tal como los devuelve TMDb
+    private Map<Integer, String> generos;
+
+    // Películas de mejor a peor puntuación
+    private List<ModeloPuntuacionRanking> peliculas;
+}
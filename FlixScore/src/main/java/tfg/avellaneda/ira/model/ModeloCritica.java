@@ -27,6 +27,8 @@ public class ModeloCritica {
     private int peliculaID;
     private int puntuacion;
     private String comentario;
+    // Momento de creación en milisegundos (epoch); ordena el feed de amigos
+    private Long creadaEn;
     @DocumentId
     private String DocumentID;
 
@@ -0,0 +1,42 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.cloud.firestore.annotation.Exclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Puntuación agregada de una película en FlixScore.
+ * Se guarda un documento por película en "estadisticas_peliculas" y se
+ * actualiza en la misma escritura que cada crítica nueva, así que leer la
+ * puntuación de una película cuesta una sola lectura.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ModeloEstadisticasPelicula {
+
+    private int peliculaID;
+
+    // Número de críticas
+    private long recuento;
+
+    // Suma de todas las puntuaciones
+    private long suma;
+
+    // Número de críticas por puntuación ("7" -> 12)
+    private Map<String, Long> histograma = new HashMap<>();
+
+    /**
+     * Media de las puntuaciones, 0 si no hay críticas. No se guarda en
+     * Firestore porque se deduce de recuento y suma.
+     */
+    @Exclude
+    public double getMedia() {
+        return recuento == 0 ? 0 : (double) suma / recuento;
+    }
+}
@@ -0,0 +1,34 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Película de un ranking de mejor valoradas (/api/v1/rankings).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ModeloPuntuacionRanking {
+
+    private int peliculaID;
+
+    // null si no se ha podido obtener de TMDb
+    private String titulo;
+
+    // Media ponderada: (recuento * media + m * mediaGlobal) / (recuento + m)
+    private double puntuacion;
+
+    private double media;
+
+    private long recuento;
+
+    // null si aún no se conocen (la película solo sale en el ranking general)
+    private List<Integer> generosIds;
+}
@@ -0,0 +1,27 @@
+package tfg.avellaneda.ira.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Película recomendada a un usuario (/api/v1/usuarios/{id}/recomendaciones).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ModeloRecomendacion {
+
+    private int peliculaID;
+
+    // Afinidad estimada; solo sirve para comparar entre recomendaciones
+    private double puntuacion;
+
+    // Título y póster si la película está en el índice de títulos
+    private String titulo;
+
+    private String rutaPoster;
+}
@@ -0,0 +1,50 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resumen de una importación masiva de críticas (POST /api/v1/criticas/bulk):
+ * cuántas se han escrito, cuántas han fallado y por qué, y a qué ritmo.
+ */
+@Data
+public class ModeloResumenIngesta {
+
+    // Líneas con contenido recibidas en el cuerpo
+    private long recibidas;
+
+    private long escritas;
+
+    private long fallidas;
+
+    private long duracionMs;
+
+    private double criticasPorSegundo;
+
+    // Errores por línea, como mucho flixscore.ingesta.max-errores
+    private List<ErrorIngesta> errores = new ArrayList<>();
+
+    // true si hubo más errores de los que caben en la lista
+    private boolean erroresTruncados;
+
+    /**
+     * Crítica que no se ha podido importar.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ErrorIngesta {
+
+        // Número de línea en el cuerpo NDJSON (empieza en 1)
+        private long linea;
+
+        // ID indicado en la crítica, si lo traía
+        private String documentID;
+
+        private String mensaje;
+    }
+}
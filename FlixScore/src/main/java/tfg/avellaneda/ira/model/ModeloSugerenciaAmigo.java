@@ -0,0 +1,30 @@
+package tfg.avellaneda.ira.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Usuario sugerido como amigo por tener amigos en común
+ * (/api/v1/usuarios/{id}/sugerencias-amigos).
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ModeloSugerenciaAmigo {
+
+    private String documentID;
+
+    // Nick e imagen si el usuario está en el índice de nicks
+    private String nick;
+
+    private String imagen_perfil;
+
+    private int amigosEnComun;
+
+    // Solo si se han comparado las películas favoritas
+    private Integer favoritasEnComun;
+}
@@ -0,0 +1,32 @@
+package tfg.avellaneda.ira.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Película sugerida por el autocompletado de títulos (/tmdb/v1/sugerencias).
+ * Es también el formato en el que se guarda el índice en disco.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ModeloSugerenciaPelicula {
+
+    private int id;
+
+    private String titulo;
+
+    private String tituloOriginal;
+
+    // Año de estreno (yyyy), null si TMDb no lo indica
+    private String anioEstreno;
+
+    // Ruta completa de una miniatura del póster
+    private String rutaPoster;
+
+    private double popularidad;
+
+    // Número de críticas en FlixScore
+    private long actividad;
+}
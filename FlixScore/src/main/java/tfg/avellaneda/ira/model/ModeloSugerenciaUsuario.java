@@ -0,0 +1,21 @@
+package tfg.avellaneda.ira.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Usuario sugerido al buscar por el principio del nick: solo lo necesario
+ * para pintar el desplegable del buscador de amigos.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ModeloSugerenciaUsuario {
+
+    private String documentID;
+
+    private String nick;
+
+    private String imagen_perfil;
+}
@@ -0,0 +1,28 @@
+package tfg.avellaneda.ira.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Película en tendencia (/api/v1/trending) con su actividad en la ventana.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ModeloTendencia {
+
+    private int peliculaID;
+
+    // Eventos ponderados (críticas y vistas) en la ventana; es una estimación
+    // que puede pasarse por arriba, nunca por abajo
+    private long actividad;
+
+    // Título y póster si la película está en el índice de títulos
+    private String titulo;
+
+    private String rutaPoster;
+}
@@ -2,6 +2,7 @@ package tfg.avellaneda.ira.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.google.cloud.firestore.annotation.DocumentId;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -30,11 +31,30 @@ public class ModeloUsuario {
 
     private String nick;
 
+    // Con listas en subcolecciones van a null y no se envían (ver UsuarioService)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<String> amigos_id = new ArrayList<>();
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<Long> peliculas_criticadas = new ArrayList<>();
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<Long> peliculas_favoritas = new ArrayList<>();
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private List<Long> peliculas_vistas = new ArrayList<>();
-}
\ No newline at end of file
+
+    // Número de elementos de cada lista cuando las listas se guardan en
+    // subcolecciones (flixscore.listas-usuario.modo=subcolecciones)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long num_amigos_id;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long num_peliculas_criticadas;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long num_peliculas_favoritas;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long num_peliculas_vistas;
+}
@@ -45,6 +45,12 @@ public class MovieEntrada {
 
     private boolean adult;
 
+    // Solo viene en el detalle de /movie/{id}
+    private List<TmdbGenero> genres;
+
+    // Solo viene al pedir el detalle con append_to_response=translations
+    private TmdbTraducciones translations;
+
     // --- Getters y Setters ---
     public int getId() {
 
@@ -152,4 +158,20 @@ public class MovieEntrada {
         this.adult = adult;
     }
 
+    public List<TmdbGenero> getGenres() {
+        return genres;
+    }
+
+    public void setGenres(List<TmdbGenero> genres) {
+        this.genres = genres;
+    }
+
+    public TmdbTraducciones getTranslations() {
+        return translations;
+    }
+
+    public void setTranslations(TmdbTraducciones translations) {
+        this.translations = translations;
+    }
+
 }
@@ -4,6 +4,8 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * Modelo en Español de película, reconstruye la ruta del poster
  * es el modelo final con el que trabajamos.
@@ -24,6 +26,12 @@ public class MovieSalida {
     private String idiomaOriginal;
     private List<Integer> generosIds;
 
+    // Puntuación de la comunidad de FlixScore, solo si se pide (conFlixScore=true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Double puntuacionFlixScore;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long recuentoCriticasFlixScore;
+
     private static final String rutaBaseURLPoster = "https://image.tmdb.org/t/p/w500";
 
     private static final DateTimeFormatter INPUT_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
@@ -142,4 +150,20 @@ public class MovieSalida {
     public void setGenerosIds(List<Integer> genreIds) {
         this.generosIds = genreIds;
     }
+
+    public Double getPuntuacionFlixScore() {
+        return puntuacionFlixScore;
+    }
+
+    public void setPuntuacionFlixScore(Double puntuacionFlixScore) {
+        this.puntuacionFlixScore = puntuacionFlixScore;
+    }
+
+    public Long getRecuentoCriticasFlixScore() {
+        return recuentoCriticasFlixScore;
+    }
+
+    public void setRecuentoCriticasFlixScore(Long recuentoCriticasFlixScore) {
+        this.recuentoCriticasFlixScore = recuentoCriticasFlixScore;
+    }
 }
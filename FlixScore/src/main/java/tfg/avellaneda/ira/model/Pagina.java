@@ -0,0 +1,22 @@
+package tfg.avellaneda.ira.model;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Una página de resultados de un listado paginado.
+ * El cursor es opaco para el cliente: solo tiene que devolverlo tal cual para
+ * pedir la página siguiente. Es null cuando ya no quedan más resultados.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Pagina<T> {
+
+    private List<T> elementos;
+
+    private String siguienteCursor;
+}
@@ -0,0 +1,28 @@
+package tfg.avellaneda.ira.model;
+
+/**
+ * Género de una película. TMDb devuelve "genre_ids" en las búsquedas pero
+ * "genres" (id + nombre) en el detalle de /movie/{id}.
+ */
+public class TmdbGenero {
+
+    private int id;
+
+    private String name;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -0,0 +1,113 @@
+package tfg.avellaneda.ira.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+/**
+ * Traducciones de una película tal y como las devuelve TMDb al pedir
+ * /movie/{id} con append_to_response=translations.
+ * Nos permite obtener el título y el resumen en otro idioma (inglés) sin
+ * hacer una segunda llamada.
+ */
+public class TmdbTraducciones {
+
+    // TMDb anida la lista dentro de otro objeto: "translations": {"translations": [...]}
+    private List<Traduccion> translations;
+
+    public List<Traduccion> getTranslations() {
+        return translations;
+    }
+
+    public void setTranslations(List<Traduccion> translations) {
+        this.translations = translations;
+    }
+
+    /**
+     * Busca la traducción de un idioma, dando preferencia al país indicado
+     * (ej. "en" + "US"). Si no hay traducción para ese país devuelve la primera
+     * del idioma, y null si no existe ninguna.
+     */
+    public Datos buscar(String idioma, String pais) {
+        if (translations == null) {
+            return null;
+        }
+
+        Datos delIdioma = null;
+        for (Traduccion traduccion : translations) {
+            if (traduccion.getData() == null || !idioma.equals(traduccion.getIdioma())) {
+                continue;
+            }
+            if (pais.equals(traduccion.getPais())) {
+                return traduccion.getData();
+            }
+            if (delIdioma == null) {
+                delIdioma = traduccion.getData();
+            }
+        }
+        return delIdioma;
+    }
+
+    /**
+     * Una traducción concreta (idioma + país).
+     */
+    public static class Traduccion {
+
+        @JsonProperty("iso_639_1")
+        private String idioma;
+
+        @JsonProperty("iso_3166_1")
+        private String pais;
+
+        private Datos data;
+
+        public String getIdioma() {
+            return idioma;
+        }
+
+        public void setIdioma(String idioma) {
+            this.idioma = idioma;
+        }
+
+        public String getPais() {
+            return pais;
+        }
+
+        public void setPais(String pais) {
+            this.pais = pais;
+        }
+
+        public Datos getData() {
+            return data;
+        }
+
+        public void setData(Datos data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Campos traducidos que nos interesan.
+     */
+    public static class Datos {
+
+        private String title;
+
+        private String overview;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getOverview() {
+            return overview;
+        }
+
+        public void setOverview(String overview) {
+            this.overview = overview;
+        }
+    }
+}
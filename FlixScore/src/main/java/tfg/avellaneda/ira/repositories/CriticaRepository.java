@@ -1,22 +1,37 @@
 package tfg.avellaneda.ira.repositories;
-import com.google.firebase.cloud.FirestoreClient;
 import tfg.avellaneda.ira.model.ModeloCritica;
 
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.BulkWriter;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.EventListener;
+import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.stereotype.Repository;
 
-import com.google.api.core.ApiFuture;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * Repositorio para la gestión de críticas en Firestore.
  * Proporciona métodos para crear y recuperar criticas por usuario o película.
  * El repositorio es lo mas limpio posible, sin logica ninguna pues es el Service quien tiene que hacerlo.
+ * Todas las operaciones son reactivas (Mono) y no bloquean ningún hilo.
  * 
- * TODO: Hay que consensuar donde y como crear la db de Firestore para poder inyectarla aquí y no tener que crear una nueva instancia cada vez.
  * TODO: Añadir manejo de excepciones personalizado.
  * @author Israel
  */
@@ -24,29 +39,248 @@ import com.google.api.core.ApiFuture;
  @Repository
 public class CriticaRepository {
 
-    private Firestore db = FirestoreClient.getFirestore();
+    // Documentos por lectura múltiple, para no mandar peticiones enormes
+    private static final int LOTE_LECTURA = 100;
+
+    private final Firestore db;
+    private final MetricasFirestore metricas;
 
-    public ApiFuture<DocumentReference> addCritica(ModeloCritica critica) {
-        return db.collection("criticas").add(critica);
+    public CriticaRepository(Firestore db, MetricasFirestore metricas) {
+        this.db = db;
+        this.metricas = metricas;
     }
 
-    public ApiFuture<DocumentSnapshot> getCriticaById(String criticaId) {
-        return db.collection("criticas").document(criticaId).get();
+    // Cada operación publica su duración en firestore.operaciones
+    private <T> Mono<T> medir(String operacion, Mono<T> mono) {
+        return metricas.medir("criticas", operacion, mono);
+    }
+
+    private <T> Flux<T> medir(String operacion, Flux<T> flux) {
+        return metricas.medir("criticas", operacion, flux);
+    }
+
+    public Mono<DocumentReference> addCritica(ModeloCritica critica) {
+        return medir("addCritica", FuturosFirestore.mono(() -> db.collection("criticas").add(critica)));
+    }
+
+    /**
+     * Guarda la crítica y actualiza las estadísticas de su película en una única
+     * escritura atómica (WriteBatch). Las estadísticas se actualizan con
+     * incrementos, así que no hace falta leerlas antes ni hay conflictos entre
+     * críticas simultáneas de la misma película.
+     *
+     * @return Referencia del documento de la crítica creada.
+     */
+    public Mono<DocumentReference> addCriticaConEstadisticas(ModeloCritica critica) {
+        return medir("addCriticaConEstadisticas", Mono.defer(() -> {
+            DocumentReference referencia = db.collection("criticas").document();
+            DocumentReference estadisticas = db.collection("estadisticas_peliculas")
+                    .document(String.valueOf(critica.getPeliculaID()));
+
+            WriteBatch batch = db.batch();
+            batch.create(referencia, critica);
+            batch.set(estadisticas, Map.of(
+                    "peliculaID", critica.getPeliculaID(),
+                    "recuento", FieldValue.increment(1),
+                    "suma", FieldValue.increment(critica.getPuntuacion()),
+                    "histograma", Map.of(String.valueOf(critica.getPuntuacion()), FieldValue.increment(1))),
+                    SetOptions.merge());
+
+            return FuturosFirestore.mono(batch::commit).thenReturn(referencia);
+        }));
+    }
+
+    /**
+     * Resultado de escribir una crítica con el BulkWriter: su referencia y, si
+     * ha fallado, el error.
+     */
+    public record ResultadoEscritura(DocumentReference referencia, Throwable error) {
+    }
+
+    /**
+     * BulkWriter para importaciones masivas: agrupa las escrituras en lotes,
+     * las manda en paralelo y reintenta las que Firestore rechaza por carga.
+     * Hay que cerrarlo con cerrarEscrituraMasiva.
+     */
+    public BulkWriter abrirEscrituraMasiva() {
+        return db.bulkWriter();
+    }
+
+    public Mono<Void> cerrarEscrituraMasiva(BulkWriter writer) {
+        // Tras el flush no queda nada pendiente, así que close() ya no espera
+        return medir("cerrarEscrituraMasiva", FuturosFirestore.mono(writer::flush)
+                .then(Mono.<Void>fromCallable(() -> {
+                    writer.close();
+                    return null;
+                })));
+    }
+
+    /**
+     * Encola la creación de las críticas en el BulkWriter y espera a que se
+     * escriban. Cada crítica tiene su propio resultado, en el mismo orden: que
+     * falle una no hace fallar a las demás. Si la crítica trae DocumentID se
+     * usa como ID del documento, así reimportar el mismo fichero no duplica
+     * críticas (la creación falla porque ya existen).
+     */
+    public Mono<List<ResultadoEscritura>> crearCriticas(BulkWriter writer, List<ModeloCritica> criticas) {
+        return medir("crearCriticas", Mono.defer(() -> {
+            List<Mono<ResultadoEscritura>> resultados = new ArrayList<>(criticas.size());
+            for (ModeloCritica critica : criticas) {
+                DocumentReference referencia = critica.getDocumentID() == null || critica.getDocumentID().isBlank()
+                        ? db.collection("criticas").document()
+                        : db.collection("criticas").document(critica.getDocumentID());
+                try {
+                    ApiFuture<WriteResult> escritura = writer.create(referencia, critica);
+                    resultados.add(FuturosFirestore.mono(() -> escritura)
+                            .map(resultado -> new ResultadoEscritura(referencia, null))
+                            .onErrorResume(e -> Mono.just(new ResultadoEscritura(referencia, e))));
+                } catch (RuntimeException e) {
+                    resultados.add(Mono.just(new ResultadoEscritura(referencia, e)));
+                }
+            }
+            // El BulkWriter solo manda los lotes llenos; el resto sale con flush
+            writer.flush();
+            return Flux.concat(resultados).collectList();
+        }));
+    }
+
+    /**
+     * Suma las críticas a las estadísticas de sus películas con el BulkWriter:
+     * una escritura por película, no por crítica.
+     */
+    public Mono<Void> sumarEstadisticas(BulkWriter writer, List<ModeloCritica> criticas) {
+        return medir("sumarEstadisticas", Mono.defer(() -> {
+            Map<Integer, List<ModeloCritica>> porPelicula = new HashMap<>();
+            for (ModeloCritica critica : criticas) {
+                porPelicula.computeIfAbsent(critica.getPeliculaID(), id -> new ArrayList<>()).add(critica);
+            }
+
+            List<ApiFuture<WriteResult>> escrituras = new ArrayList<>(porPelicula.size());
+            porPelicula.forEach((peliculaId, deLaPelicula) -> {
+                long suma = 0;
+                Map<String, Object> histograma = new HashMap<>();
+                Map<String, Long> porPuntuacion = new HashMap<>();
+                for (ModeloCritica critica : deLaPelicula) {
+                    suma += critica.getPuntuacion();
+                    porPuntuacion.merge(String.valueOf(critica.getPuntuacion()), 1L, Long::sum);
+                }
+                porPuntuacion.forEach((puntuacion, n) -> histograma.put(puntuacion, FieldValue.increment(n)));
+
+                escrituras.add(writer.set(db.collection("estadisticas_peliculas").document(String.valueOf(peliculaId)),
+                        Map.of(
+                                "peliculaID", peliculaId,
+                                "recuento", FieldValue.increment(deLaPelicula.size()),
+                                "suma", FieldValue.increment(suma),
+                                "histograma", histograma),
+                        SetOptions.merge()));
+            });
+            writer.flush();
+            return Flux.fromIterable(escrituras)
+                    .concatMap(escritura -> FuturosFirestore.mono(() -> escritura))
+                    .then();
+        }));
+    }
+
+    public Mono<DocumentSnapshot> getEstadisticasPelicula(int peliculaId) {
+        return medir("getEstadisticasPelicula", FuturosFirestore.mono(() -> db.collection("estadisticas_peliculas")
+                .document(String.valueOf(peliculaId))
+                .get()));
+    }
+
+    /**
+     * Lee las estadísticas de varias películas con lecturas múltiples
+     * (db.getAll), una por cada bloque de como mucho LOTE_LECTURA ids, en
+     * lugar de una lectura por película. Las películas sin críticas llegan
+     * como documentos que no existen.
+     */
+    public Flux<DocumentSnapshot> getEstadisticasPeliculas(Collection<Integer> peliculaIds) {
+        return medir("getEstadisticasPeliculas", Flux.fromIterable(peliculaIds)
+                .distinct()
+                .map(id -> db.collection("estadisticas_peliculas").document(String.valueOf(id)))
+                .buffer(LOTE_LECTURA)
+                .flatMap(referencias -> FuturosFirestore.mono(
+                        () -> db.getAll(referencias.toArray(DocumentReference[]::new))))
+                .flatMapIterable(documentos -> documentos));
+    }
+
+    public Mono<DocumentSnapshot> getCriticaById(String criticaId) {
+        return medir("getCriticaById",
+                FuturosFirestore.mono(() -> db.collection("criticas").document(criticaId).get()));
+    }
+
+    public Mono<DocumentSnapshot> getCritica(DocumentReference referencia) {
+        return medir("getCritica", FuturosFirestore.mono(referencia::get));
     }
     
-    public ApiFuture<QuerySnapshot> getCriticaByUserId(String UserId) {
-        return db.collection("criticas")
+    public Mono<QuerySnapshot> getCriticaByUserId(String UserId) {
+        return medir("getCriticaByUserId", FuturosFirestore.mono(() -> db.collection("criticas")
                 .whereEqualTo("usuarioUID", UserId)
-                .get();
+                .get()));
     }
 
-    public ApiFuture<QuerySnapshot> getCriticaByPeliculaId(String PeliculaId) {
-        return db.collection("criticas")
+    // peliculaID se guarda como número, así que hay que filtrar con un número
+    public Mono<QuerySnapshot> getCriticaByPeliculaId(int PeliculaId) {
+        return medir("getCriticaByPeliculaId", FuturosFirestore.mono(() -> db.collection("criticas")
                 .whereEqualTo("peliculaID", PeliculaId)
-                .get();
+                .get()));
+    }
+
+    public Mono<QuerySnapshot> getAll() {
+        return medir("getAll", FuturosFirestore.mono(() -> db.collection("criticas").get()));
+    }
+
+    // Versiones paginadas por cursor, ver Paginacion
+
+    public Mono<QuerySnapshot> getAll(int limite, String cursor) {
+        return medir("getAllPaginado",
+                FuturosFirestore.mono(() -> Paginacion.aplicar(db.collection("criticas"), limite, cursor)
+                        .get()));
+    }
+
+    public Mono<QuerySnapshot> getCriticaByUserId(String UserId, int limite, String cursor) {
+        return medir("getCriticaByUserIdPaginado",
+                FuturosFirestore.mono(() -> Paginacion.aplicar(db.collection("criticas")
+                        .whereEqualTo("usuarioUID", UserId), limite, cursor)
+                        .get()));
+    }
+
+    public Mono<QuerySnapshot> getCriticaByPeliculaId(int PeliculaId, int limite, String cursor) {
+        return medir("getCriticaByPeliculaIdPaginado",
+                FuturosFirestore.mono(() -> Paginacion.aplicar(db.collection("criticas")
+                        .whereEqualTo("peliculaID", PeliculaId), limite, cursor)
+                        .get()));
+    }
+
+    /**
+     * Escucha los cambios de la colección de críticas. La primera notificación
+     * trae todos los documentos y las siguientes solo los cambios.
+     */
+    public ListenerRegistration escucharCriticas(EventListener<QuerySnapshot> listener) {
+        return db.collection("criticas").addSnapshotListener(listener);
+    }
+
+    // Recorre toda la colección por páginas, sin cargarla entera en memoria
+    public Flux<QueryDocumentSnapshot> streamAll(int tamPagina) {
+        return medir("streamAll", FuturosFirestore.recorrer(db.collection("criticas"), tamPagina));
+    }
+
+    // Estadísticas de todas las películas con críticas, por páginas
+    public Flux<QueryDocumentSnapshot> streamEstadisticas(int tamPagina) {
+        return medir("streamEstadisticas",
+                FuturosFirestore.recorrer(db.collection("estadisticas_peliculas"), tamPagina));
+    }
+
+    // Críticas creadas desde el instante indicado (epoch millis), por páginas
+    public Flux<QueryDocumentSnapshot> streamCriticasDesde(long desde, int tamPagina) {
+        return medir("streamCriticasDesde", FuturosFirestore.recorrer(db.collection("criticas")
+                .whereGreaterThanOrEqualTo("creadaEn", desde)
+                .orderBy("creadaEn"), tamPagina));
     }
 
-    public ApiFuture<QuerySnapshot> getAll() {
-        return db.collection("criticas").get();
+    // Solo los campos que forman la matriz usuario x película, por páginas
+    public Flux<QueryDocumentSnapshot> streamPuntuaciones(int tamPagina) {
+        return medir("streamPuntuaciones",
+                FuturosFirestore.recorrer(db.collection("criticas").select("usuarioUID", "peliculaID", "puntuacion"),
+                        tamPagina));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,187 @@
+package tfg.avellaneda.ira.repositories;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.stereotype.Repository;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.BulkWriter;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteResult;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.model.ModeloCritica;
+
+/**
+ * Repositorio del feed de amigos.
+ *
+ * - usuarios/{id}/timeline/{criticaId}: copia de cada crítica de los amigos
+ * del usuario, escrita al crearse la crítica (fan-out).
+ * - autores_populares/{usuarioUID}: autores con demasiados seguidores para
+ * copiar sus críticas; su parte del feed se lee de "criticas" (fan-in).
+ *
+ * Las consultas del feed se ordenan por creadaEn y después por ID, de más
+ * reciente a más antigua, y continúan tras (creadaEn, id) de la última
+ * crítica devuelta.
+ *
+ * Dos consultas necesitan índices que Firestore no crea solo: el compuesto de
+ * criticas (usuarioUID, creadaEn, __name__) para getCriticasDeAutores y el de
+ * grupo de colecciones sobre amigos_id.valor para getSeguidores. Están en
+ * firestore.indexes.json y se despliegan desde el directorio del proyecto con
+ * firebase deploy --only firestore:indexes (el emulador no los necesita).
+ */
+@Repository
+public class FeedRepository {
+
+    // Documentos por página al recorrer un timeline para borrar
+    private static final int TAM_PAGINA_BORRADO = 500;
+
+    private final Firestore db;
+
+    public FeedRepository(Firestore db) {
+        this.db = db;
+    }
+
+    /**
+     * IDs de los usuarios que tienen al autor en su lista de amigos, como mucho
+     * limite. Con las listas en subcolecciones se usa una consulta de grupo de
+     * colecciones sobre amigos_id, con el índice de firestore.indexes.json.
+     */
+    public Mono<List<String>> getSeguidores(String autor, boolean subcolecciones, int limite) {
+        return FuturosFirestore.mono(() -> (subcolecciones
+                ? db.collectionGroup("amigos_id").whereEqualTo("valor", autor)
+                : db.collection("usuarios").whereArrayContains("amigos_id", autor))
+                .select(FieldPath.documentId())
+                .limit(limite)
+                .get())
+                .map(query -> query.getDocuments().stream()
+                        .map(document -> subcolecciones
+                                // usuarios/{id}/amigos_id/{autor}: el seguidor es el padre
+                                ? document.getReference().getParent().getParent().getId()
+                                : document.getId())
+                        .toList());
+    }
+
+    /**
+     * De los candidatos, los que están en la lista de amigos del usuario. Con
+     * las listas embebidas se lee el usuario; con subcolecciones se leen solo
+     * los documentos de esos candidatos en una lectura múltiple.
+     */
+    public Mono<List<String>> getAmigosEntre(String usuarioId, Collection<String> candidatos,
+            boolean subcolecciones) {
+        DocumentReference usuario = db.collection("usuarios").document(usuarioId);
+        if (subcolecciones) {
+            return FuturosFirestore.mono(() -> db.getAll(candidatos.stream()
+                    .map(candidato -> usuario.collection("amigos_id").document(candidato))
+                    .toArray(DocumentReference[]::new)))
+                    .map(documentos -> documentos.stream()
+                            .filter(DocumentSnapshot::exists)
+                            .map(DocumentSnapshot::getId)
+                            .toList());
+        }
+        return FuturosFirestore.mono(usuario::get)
+                .map(document -> document.get("amigos_id") instanceof List<?> amigos
+                        ? candidatos.stream().filter(amigos::contains).toList()
+                        : List.<String>of());
+    }
+
+    /**
+     * Copia la crítica en el timeline de cada seguidor con un BulkWriter. Una
+     * escritura que falla (tras los reintentos del BulkWriter) no cancela las
+     * demás.
+     *
+     * @return Número de timelines en los que no se ha podido escribir.
+     */
+    public Mono<Long> escribirEnTimelines(List<String> usuarios, ModeloCritica critica) {
+        return Mono.usingWhen(Mono.fromSupplier(db::bulkWriter),
+                writer -> {
+                    List<Mono<Boolean>> escrituras = new ArrayList<>(usuarios.size());
+                    for (String usuario : usuarios) {
+                        ApiFuture<WriteResult> escritura = writer.set(
+                                timeline(usuario).document(critica.getDocumentID()), critica);
+                        escrituras.add(FuturosFirestore.mono(() -> escritura)
+                                .thenReturn(true)
+                                .onErrorReturn(false));
+                    }
+                    // El BulkWriter solo manda los lotes llenos; el resto sale con flush
+                    return FuturosFirestore.mono(writer::flush)
+                            .then(Flux.concat(escrituras).filter(escrita -> !escrita).count());
+                },
+                FeedRepository::cerrar);
+    }
+
+    /**
+     * Borra del timeline del usuario todas las críticas del autor (al dejar de
+     * ser su amigo). Se recorren por páginas, leyendo solo los IDs, y se borran
+     * con un BulkWriter.
+     *
+     * @return Número de críticas borradas.
+     */
+    public Mono<Long> borrarDeTimeline(String usuarioId, String autor) {
+        return Mono.usingWhen(Mono.fromSupplier(db::bulkWriter),
+                writer -> FuturosFirestore.recorrer(timeline(usuarioId)
+                        .whereEqualTo("usuarioUID", autor)
+                        .select(FieldPath.documentId()), TAM_PAGINA_BORRADO)
+                        .doOnNext(documento -> writer.delete(documento.getReference()))
+                        .count()
+                        .flatMap(borradas -> FuturosFirestore.mono(writer::flush).thenReturn(borradas)),
+                FeedRepository::cerrar);
+    }
+
+    public Mono<QuerySnapshot> getTimeline(String usuarioId, int limite, Long desdeCreadaEn, String desdeId) {
+        return FuturosFirestore.mono(() -> ordenar(timeline(usuarioId), limite, desdeCreadaEn, desdeId).get());
+    }
+
+    /**
+     * Críticas de varios autores a la vez (consulta "in", como mucho 30). Usa
+     * el índice compuesto de firestore.indexes.json.
+     */
+    public Mono<QuerySnapshot> getCriticasDeAutores(List<String> autores, int limite, Long desdeCreadaEn,
+            String desdeId) {
+        return FuturosFirestore.mono(() -> ordenar(db.collection("criticas").whereIn("usuarioUID",
+                List.copyOf(autores)), limite, desdeCreadaEn, desdeId).get());
+    }
+
+    public Mono<Void> marcarPopular(String autor, long seguidores) {
+        return FuturosFirestore.mono(() -> db.collection("autores_populares").document(autor)
+                .set(Map.of("seguidores", seguidores)))
+                .then();
+    }
+
+    public Flux<QueryDocumentSnapshot> getPopulares() {
+        return FuturosFirestore.mono(() -> db.collection("autores_populares").get())
+                .flatMapIterable(QuerySnapshot::getDocuments);
+    }
+
+    // close() lanza excepciones comprobadas; tras el flush ya no espera a nada
+    private static Mono<Void> cerrar(BulkWriter writer) {
+        return Mono.fromCallable(() -> {
+            writer.close();
+            return null;
+        });
+    }
+
+    private CollectionReference timeline(String usuarioId) {
+        return db.collection("usuarios").document(usuarioId).collection("timeline");
+    }
+
+    private static Query ordenar(Query consulta, int limite, Long desdeCreadaEn, String desdeId) {
+        Query ordenada = consulta.orderBy("creadaEn", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        if (desdeCreadaEn != null) {
+            ordenada = ordenada.startAfter(desdeCreadaEn, desdeId);
+        }
+        return ordenada.limit(limite);
+    }
+}
@@ -0,0 +1,79 @@
+package tfg.avellaneda.ira.repositories;
+
+import java.util.function.Supplier;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adaptador de los ApiFuture de Firestore a Mono de Reactor.
+ * En lugar de bloquear un hilo con future.get(), nos suscribimos al callback
+ * del future: el resultado llega en el hilo de Firestore que completa la
+ * operación y ningún hilo de Netty se queda esperando a la base de datos.
+ */
+public final class FuturosFirestore {
+
+    private FuturosFirestore() {
+    }
+
+    /**
+     * Convierte la operación en un Mono perezoso: la llamada a Firestore no se
+     * lanza hasta que alguien se suscribe, y se cancela si el suscriptor cancela.
+     *
+     * @param operacion Operación de Firestore a ejecutar, ej. () -> doc.get()
+     * @return Mono con el resultado, vacío si Firestore devuelve null.
+     */
+    public static <T> Mono<T> mono(Supplier<ApiFuture<T>> operacion) {
+        return Mono.defer(() -> aMono(operacion.get()));
+    }
+
+    /**
+     * Recorre todos los documentos de una consulta página a página (ordenados
+     * por ID). Solo se pide la siguiente página cuando el suscriptor ha
+     * consumido la anterior, así que la memoria usada no depende del tamaño de
+     * la colección y el primer documento llega tras la primera lectura.
+     *
+     * @param consulta  Consulta o colección a recorrer.
+     * @param tamPagina Documentos por lectura a Firestore.
+     */
+    public static Flux<QueryDocumentSnapshot> recorrer(Query consulta, int tamPagina) {
+        Query paginada = consulta.orderBy(FieldPath.documentId()).limit(tamPagina);
+        return leerPagina(paginada, null)
+                .expand(pagina -> pagina.size() < tamPagina
+                        ? Mono.empty()
+                        : leerPagina(paginada, pagina.getDocuments().get(pagina.size() - 1)))
+                // prefetch 1: no se lee una página nueva hasta vaciar la actual
+                .concatMapIterable(QuerySnapshot::getDocuments, 1);
+    }
+
+    private static Mono<QuerySnapshot> leerPagina(Query paginada, DocumentSnapshot ultimo) {
+        return mono(() -> ultimo == null ? paginada.get() : paginada.startAfter(ultimo).get());
+    }
+
+    private static <T> Mono<T> aMono(ApiFuture<T> futuro) {
+        return Mono.create(sink -> {
+            ApiFutures.addCallback(futuro, new ApiFutureCallback<T>() {
+                @Override
+                public void onFailure(Throwable t) {
+                    sink.error(t);
+                }
+
+                @Override
+                public void onSuccess(T resultado) {
+                    sink.success(resultado);
+                }
+            }, MoreExecutors.directExecutor());
+            sink.onCancel(() -> futuro.cancel(false));
+        });
+    }
+}
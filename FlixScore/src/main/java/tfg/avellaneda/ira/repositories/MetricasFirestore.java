@@ -0,0 +1,110 @@
+package tfg.avellaneda.ira.repositories;
+
+import org.springframework.stereotype.Component;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.util.TiemposPeticion;
+
+/**
+ * Métricas de las operaciones de los repositorios contra Firestore:
+ *
+ * - firestore.operaciones (timer): duración de cada operación, desde la
+ * suscripción hasta el resultado, por repositorio, operación y resultado (ok,
+ * cancelada o el código de error de Firestore, ej. NOT_FOUND).
+ * - firestore.documentos.leidos (contador): documentos leídos, que es lo que
+ * Firestore cobra.
+ *
+ * En los recorridos por páginas (Flux) el tiempo es el del recorrido entero.
+ * Cada operación también se suma a los TiemposPeticion de la petición HTTP
+ * que la ha hecho (cabecera Server-Timing), si los hay en el contexto.
+ */
+@Component
+public class MetricasFirestore {
+
+    private final MeterRegistry registry;
+
+    public MetricasFirestore(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public <T> Mono<T> medir(String repositorio, String operacion, Mono<T> mono) {
+        return Mono.deferContextual(contexto -> {
+            TiemposPeticion tiempos = TiemposPeticion.de(contexto);
+            Timer.Sample muestra = Timer.start(registry);
+            return mono
+                    .doOnSuccess(valor -> {
+                        parar(muestra, tiempos, repositorio, operacion, "ok");
+                        leidos(repositorio, operacion, documentos(valor));
+                    })
+                    .doOnError(e -> parar(muestra, tiempos, repositorio, operacion, codigo(e)))
+                    .doOnCancel(() -> parar(muestra, tiempos, repositorio, operacion, "cancelada"));
+        });
+    }
+
+    public <T> Flux<T> medir(String repositorio, String operacion, Flux<T> flux) {
+        return Flux.deferContextual(contexto -> {
+            TiemposPeticion tiempos = TiemposPeticion.de(contexto);
+            Timer.Sample muestra = Timer.start(registry);
+            long[] recibidos = new long[1];
+            return flux
+                    .doOnNext(valor -> recibidos[0]++)
+                    .doOnComplete(() -> parar(muestra, tiempos, repositorio, operacion, "ok"))
+                    .doOnError(e -> parar(muestra, tiempos, repositorio, operacion, codigo(e)))
+                    .doOnCancel(() -> parar(muestra, tiempos, repositorio, operacion, "cancelada"))
+                    .doFinally(senal -> leidos(repositorio, operacion, recibidos[0]));
+        });
+    }
+
+    private void parar(Timer.Sample muestra, TiemposPeticion tiempos, String repositorio, String operacion,
+            String resultado) {
+        long nanos = muestra.stop(Timer.builder("firestore.operaciones")
+                .description("Duración de las operaciones de los repositorios en Firestore")
+                .tag("repositorio", repositorio)
+                .tag("operacion", operacion)
+                .tag("resultado", resultado)
+                .register(registry));
+        if (tiempos != null) {
+            tiempos.llamada(TiemposPeticion.Origen.FIRESTORE, nanos);
+        }
+    }
+
+    private void leidos(String repositorio, String operacion, long documentos) {
+        if (documentos > 0) {
+            Counter.builder("firestore.documentos.leidos")
+                    .description("Documentos leídos de Firestore")
+                    .tag("repositorio", repositorio)
+                    .tag("operacion", operacion)
+                    .register(registry)
+                    .increment(documentos);
+        }
+    }
+
+    // Las escrituras devuelven WriteResult o referencias: no leen documentos.
+    // Leer un documento que no existe también cuenta como lectura.
+    private static long documentos(Object valor) {
+        if (valor instanceof QuerySnapshot consulta) {
+            return consulta.size();
+        }
+        return valor instanceof DocumentSnapshot ? 1 : 0;
+    }
+
+    // Código de estado de Firestore (número acotado de valores), o "error"
+    private static String codigo(Throwable e) {
+        if (e instanceof ApiException api) {
+            return api.getStatusCode().getCode().name();
+        }
+        if (e instanceof FirestoreException firestore && firestore.getStatus() != null) {
+            return firestore.getStatus().getCode().name();
+        }
+        return "error";
+    }
+}
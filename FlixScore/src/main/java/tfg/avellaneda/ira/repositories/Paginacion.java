@@ -0,0 +1,75 @@
+package tfg.avellaneda.ira.repositories;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import tfg.avellaneda.ira.model.Pagina;
+
+/**
+ * Paginación por cursor (keyset) de las consultas de Firestore.
+ * Las consultas se ordenan por ID de documento y la página siguiente empieza
+ * justo después del último documento devuelto (orderBy + startAfter + limit),
+ * así que cada página cuesta lo mismo sin importar lo lejos que esté.
+ */
+public final class Paginacion {
+
+    private Paginacion() {
+    }
+
+    /**
+     * Aplica orden, cursor y límite a la consulta. Se pide un documento de más
+     * para saber si existe una página siguiente.
+     *
+     * @param cursor Cursor devuelto en la página anterior, o null para la primera.
+     * @throws IllegalArgumentException si el cursor no es válido.
+     */
+    public static Query aplicar(Query consulta, int limite, String cursor) {
+        Query paginada = consulta.orderBy(FieldPath.documentId());
+        if (cursor != null && !cursor.isBlank()) {
+            paginada = paginada.startAfter(leerCursor(cursor));
+        }
+        return paginada.limit(limite + 1);
+    }
+
+    /**
+     * Construye la página a partir del resultado de una consulta preparada con
+     * aplicar().
+     */
+    public static <T> Pagina<T> construir(QuerySnapshot resultado, int limite, Class<T> tipo) {
+        return construir(resultado, limite, documento -> documento.toObject(tipo));
+    }
+
+    /**
+     * Igual que construir(resultado, limite, tipo) pero con una conversión
+     * propia de cada documento.
+     */
+    public static <T> Pagina<T> construir(QuerySnapshot resultado, int limite,
+            Function<QueryDocumentSnapshot, T> conversion) {
+        List<QueryDocumentSnapshot> documentos = resultado.getDocuments();
+        boolean hayMas = documentos.size() > limite;
+        List<QueryDocumentSnapshot> pagina = hayMas ? documentos.subList(0, limite) : documentos;
+
+        String siguiente = hayMas ? crearCursor(pagina.get(pagina.size() - 1).getId()) : null;
+        return new Pagina<>(pagina.stream().map(conversion).toList(), siguiente);
+    }
+
+    public static String crearCursor(String documentId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(documentId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String leerCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor de paginación no válido: " + cursor, e);
+        }
+    }
+}
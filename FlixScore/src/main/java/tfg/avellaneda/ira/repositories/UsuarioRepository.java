@@ -1,19 +1,28 @@
 package tfg.avellaneda.ira.repositories;
 
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.stereotype.Repository;
 
-import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.CollectionReference;
 import com.google.cloud.firestore.DocumentReference;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
-import com.google.firebase.cloud.FirestoreClient;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import tfg.avellaneda.ira.model.ModeloUsuario;
 
 /**
  * Repositorio REST para gestionar los usuarios.
+ * Todas las operaciones son reactivas (Mono) y no bloquean ningún hilo.
  * 
  * @author Israel
  * 
@@ -22,35 +31,232 @@ import tfg.avellaneda.ira.model.ModeloUsuario;
 
 @Repository
 public class UsuarioRepository {
-    
-    private Firestore db = FirestoreClient.getFirestore();
 
-    public ApiFuture<DocumentReference> addUsuario(ModeloUsuario usuario) {
-        return db.collection("usuarios").add(usuario);
+    // Escrituras por WriteBatch al migrar listas (Firestore admite 500)
+    private static final int LOTE_MIGRACION = 400;
+
+    private final Firestore db;
+    private final MetricasFirestore metricas;
+
+    public UsuarioRepository(Firestore db, MetricasFirestore metricas) {
+        this.db = db;
+        this.metricas = metricas;
+    }
+
+    // Cada operación publica su duración en firestore.operaciones
+    private <T> Mono<T> medir(String operacion, Mono<T> mono) {
+        return metricas.medir("usuarios", operacion, mono);
+    }
+
+    private <T> Flux<T> medir(String operacion, Flux<T> flux) {
+        return metricas.medir("usuarios", operacion, flux);
+    }
+
+    public Mono<DocumentReference> addUsuario(ModeloUsuario usuario) {
+        return medir("addUsuario", FuturosFirestore.mono(() -> db.collection("usuarios").add(usuario)));
+    }
+
+    public Mono<DocumentSnapshot> getUsuarioById(String usuarioId) {
+        return medir("getUsuarioById",
+                FuturosFirestore.mono(() -> db.collection("usuarios").document(usuarioId).get()));
+    }
+
+    public Mono<DocumentSnapshot> getUsuario(DocumentReference referencia) {
+        return medir("getUsuario", FuturosFirestore.mono(referencia::get));
+    }
+
+    public Mono<QuerySnapshot> getAll() {
+        return medir("getAll", FuturosFirestore.mono(() -> db.collection("usuarios").get()));
     }
 
-    public ApiFuture<DocumentSnapshot> getUsuarioById(String usuarioId) {
-        return db.collection("usuarios").document(usuarioId).get();
+    // Recorre toda la colección por páginas, sin cargarla entera en memoria
+    public Flux<QueryDocumentSnapshot> streamAll(int tamPagina) {
+        return medir("streamAll", FuturosFirestore.recorrer(db.collection("usuarios"), tamPagina));
     }
 
-    public ApiFuture<QuerySnapshot> getAll() {
-        return db.collection("usuarios").get();
+    // Igual que streamAll pero solo con los campos del perfil que se muestran
+    // en las búsquedas (sin las listas)
+    public Flux<QueryDocumentSnapshot> streamPerfiles(int tamPagina) {
+        return medir("streamPerfiles",
+                FuturosFirestore.recorrer(db.collection("usuarios").select("nick", "imagen_perfil"), tamPagina));
     }
 
-    public ApiFuture<QuerySnapshot> getUsuarioByNick(String nick) {
-        return db.collection("usuarios")
+    // Solo los arrays embebidos de las listas indicadas
+    public Flux<QueryDocumentSnapshot> streamListas(int tamPagina, String... campos) {
+        return medir("streamListas", FuturosFirestore.recorrer(db.collection("usuarios").select(campos), tamPagina));
+    }
+
+    // Elementos de la subcolección de todos los usuarios (el usuario es el
+    // padre de la subcolección del documento)
+    public Flux<QueryDocumentSnapshot> streamSubcolecciones(String campo, int tamPagina) {
+        return medir("streamSubcolecciones",
+                FuturosFirestore.recorrer(db.collectionGroup(campo).select("valor"), tamPagina));
+    }
+
+    public Mono<QuerySnapshot> getUsuarioByNick(String nick) {
+        return medir("getUsuarioByNick", FuturosFirestore.mono(() -> db.collection("usuarios")
                 .whereEqualTo("nick", nick)
-                .get();
+                .get()));
+    }
+
+    // Versiones paginadas por cursor, ver Paginacion
+
+    public Mono<QuerySnapshot> getAll(int limite, String cursor) {
+        return medir("getAllPaginado",
+                FuturosFirestore.mono(() -> Paginacion.aplicar(db.collection("usuarios"), limite, cursor)
+                        .get()));
+    }
+
+    public Mono<QuerySnapshot> getUsuarioByNick(String nick, int limite, String cursor) {
+        return medir("getUsuarioByNickPaginado",
+                FuturosFirestore.mono(() -> Paginacion.aplicar(db.collection("usuarios")
+                        .whereEqualTo("nick", nick), limite, cursor)
+                        .get()));
+    }
+
+    public Mono<WriteResult> updateUsuario(String usuarioId, ModeloUsuario usuario) {
+        return medir("updateUsuario",
+                FuturosFirestore.mono(() -> db.collection("usuarios").document(usuarioId).set(usuario)));
+    }
+
+    /**
+     * Actualiza solo los datos del perfil, sin tocar listas ni contadores
+     * (modo de listas en subcolecciones).
+     */
+    public Mono<WriteResult> updatePerfil(String usuarioId, ModeloUsuario usuario) {
+        return medir("updatePerfil", FuturosFirestore.mono(() -> db.collection("usuarios").document(usuarioId)
+                .set(usuario, SetOptions.mergeFields("correo", "imagen_perfil", "nick"))));
+    }
+
+    public Mono<WriteResult> deleteUsuario(String usuarioId) {
+        return medir("deleteUsuario",
+                FuturosFirestore.mono(() -> db.collection("usuarios").document(usuarioId).delete()));
     }
 
-    public ApiFuture<WriteResult> updateUsuario(String usuarioId, ModeloUsuario usuario) {
-        return db.collection("usuarios").document(usuarioId).set(usuario);
+    /**
+     * Añade el valor a un campo de tipo lista en una transacción que lee antes
+     * el array, para saber si el valor ya estaba (arrayUnion no duplica, pero
+     * tampoco lo dice). Solo se escribe el campo, no el resto del usuario.
+     * Falla con NOT_FOUND si el usuario no existe.
+     *
+     * @return Mono con false si el valor ya estaba en la lista.
+     */
+    public Mono<Boolean> anadirALista(String usuarioId, String campo, Object valor) {
+        return medir("anadirALista", FuturosFirestore.mono(() -> {
+            DocumentReference usuario = db.collection("usuarios").document(usuarioId);
+            // La función de la transacción la ejecuta Firestore en sus hilos, ahí
+            // sí se puede esperar a la lectura
+            return db.runTransaction(transaccion -> {
+                DocumentSnapshot documento = transaccion.get(usuario).get();
+                if (documento.exists() && documento.get(campo) instanceof List<?> actual
+                        && actual.contains(valor)) {
+                    return false;
+                }
+                // Si el usuario no existe el update hace fallar el commit con NOT_FOUND
+                transaccion.update(usuario, campo, FieldValue.arrayUnion(valor));
+                return true;
+            });
+        }));
     }
 
-    public ApiFuture<WriteResult> deleteUsuario(String usuarioId) {
-        return db.collection("usuarios").document(usuarioId).delete();
+    public Mono<WriteResult> quitarDeLista(String usuarioId, String campo, Object valor) {
+        return medir("quitarDeLista", FuturosFirestore.mono(() -> db.collection("usuarios").document(usuarioId)
+                .update(campo, FieldValue.arrayRemove(valor))));
     }
 
-    
+    // Listas en subcolecciones: usuarios/{id}/{campo}/{valor}, con el contador
+    // num_{campo} en el documento del usuario. El ID del documento es el propio
+    // valor, así que añadir dos veces lo mismo no duplica.
+
+    /**
+     * Crea el elemento y suma uno al contador en la misma escritura. Falla con
+     * ALREADY_EXISTS si el elemento ya estaba (y entonces no se suma nada) y
+     * con NOT_FOUND si el usuario no existe.
+     */
+    public Mono<List<WriteResult>> anadirASubcoleccion(String usuarioId, String campo, Object valor) {
+        return medir("anadirASubcoleccion", Mono.defer(() -> {
+            DocumentReference usuario = db.collection("usuarios").document(usuarioId);
+            WriteBatch batch = db.batch();
+            batch.create(usuario.collection(campo).document(String.valueOf(valor)),
+                    Map.of("valor", valor, "anadidaEn", FieldValue.serverTimestamp()));
+            batch.update(usuario, "num_" + campo, FieldValue.increment(1));
+            return FuturosFirestore.mono(batch::commit);
+        }));
+    }
+
+    /**
+     * Quita el elemento en una transacción: si está en la subcolección lo borra
+     * y resta uno al contador, y siempre lo quita del array embebido por si el
+     * usuario aún no está migrado. Que el elemento no esté no es un error.
+     *
+     * @return Mono con false si el usuario no existe.
+     */
+    public Mono<Boolean> quitarDeSubcoleccion(String usuarioId, String campo, Object valor) {
+        return medir("quitarDeSubcoleccion", FuturosFirestore.mono(() -> {
+            DocumentReference usuario = db.collection("usuarios").document(usuarioId);
+            DocumentReference elemento = usuario.collection(campo).document(String.valueOf(valor));
+            // La función de la transacción la ejecuta Firestore en sus hilos, ahí
+            // sí se puede esperar a las lecturas (que van antes que las escrituras)
+            return db.runTransaction(transaccion -> {
+                if (!transaccion.get(usuario).get().exists()) {
+                    return false;
+                }
+                if (transaccion.get(elemento).get().exists()) {
+                    transaccion.delete(elemento);
+                    transaccion.update(usuario, "num_" + campo, FieldValue.increment(-1),
+                            campo, FieldValue.arrayRemove(valor));
+                } else {
+                    transaccion.update(usuario, campo, FieldValue.arrayRemove(valor));
+                }
+                return true;
+            });
+        }));
+    }
+
+    // Todos los valores de la subcolección, sin paginar
+    public Mono<QuerySnapshot> getValoresSubcoleccion(String usuarioId, String campo) {
+        return medir("getValoresSubcoleccion",
+                FuturosFirestore.mono(() -> db.collection("usuarios").document(usuarioId).collection(campo)
+                        .select("valor")
+                        .get()));
+    }
+
+    public Mono<QuerySnapshot> getSubcoleccion(String usuarioId, String campo, int limite, String cursor) {
+        return medir("getSubcoleccion",
+                FuturosFirestore.mono(() -> Paginacion.aplicar(db.collection("usuarios").document(usuarioId)
+                        .collection(campo), limite, cursor)
+                        .get()));
+    }
+
+    /**
+     * Pasa los valores de un array embebido a su subcolección. Primero copia los
+     * elementos (por lotes, se puede repetir sin duplicar nada) y después, en
+     * una transacción, cuenta los documentos de la subcolección, guarda el
+     * contador y borra el array. Las altas que lleguen mientras tanto ya van a
+     * la subcolección y la transacción las cuenta.
+     *
+     * @return Número de elementos de la lista tras la migración.
+     */
+    public Mono<Long> migrarLista(String usuarioId, String campo, List<?> valores) {
+        DocumentReference usuario = db.collection("usuarios").document(usuarioId);
+        CollectionReference subcoleccion = usuario.collection(campo);
+        return medir("migrarLista", Flux.fromIterable(valores)
+                .buffer(LOTE_MIGRACION)
+                .concatMap(lote -> FuturosFirestore.mono(() -> {
+                    WriteBatch batch = db.batch();
+                    for (Object valor : lote) {
+                        batch.set(subcoleccion.document(String.valueOf(valor)), Map.of("valor", valor),
+                                SetOptions.merge());
+                    }
+                    return batch.commit();
+                }))
+                // La función de la transacción la ejecuta Firestore en sus hilos, ahí
+                // sí se puede esperar a la lectura
+                .then(FuturosFirestore.mono(() -> db.runTransaction(transaccion -> {
+                    long recuento = transaccion.get(subcoleccion.count()).get().getCount();
+                    transaccion.update(usuario, "num_" + campo, recuento, campo, FieldValue.delete());
+                    return recuento;
+                }))));
+    }
 
 }
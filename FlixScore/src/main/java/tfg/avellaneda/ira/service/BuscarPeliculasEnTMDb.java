@@ -1,12 +1,27 @@
 package tfg.avellaneda.ira.service;
 
 import org.springframework.stereotype.Service;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Flux;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import tfg.avellaneda.ira.config.TmdbProperties;
 import tfg.avellaneda.ira.model.MovieSalida;
 import tfg.avellaneda.ira.model.TmdbResponse;
 import tfg.avellaneda.ira.model.MovieEntrada;
+import tfg.avellaneda.ira.model.ModeloEstadisticasPelicula;
+import tfg.avellaneda.ira.model.TmdbGenero;
+import tfg.avellaneda.ira.model.TmdbTraducciones;
+import tfg.avellaneda.ira.util.Textos;
+import tfg.avellaneda.ira.util.TiemposPeticion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,10 +35,67 @@ public class BuscarPeliculasEnTMDb {
 
         private static final Logger logger = LoggerFactory.getLogger(BuscarPeliculasEnTMDb.class);
 
+        // Idioma en el que pedimos los datos a TMDb (el inglés llega en las traducciones)
+        private static final String IDIOMA = "es-ES";
+
+        /**
+         * Clave de la caché de búsquedas. Dos búsquedas son la misma si coinciden
+         * una vez normalizadas (mayúsculas, tildes, espacios); el texto original
+         * se conserva para usarlo al refrescar la entrada.
+         */
+        private record ClaveBusqueda(String normalizada, String original) {
+
+                @Override
+                public boolean equals(Object otro) {
+                        return otro instanceof ClaveBusqueda clave && normalizada.equals(clave.normalizada);
+                }
+
+                @Override
+                public int hashCode() {
+                        return normalizada.hashCode();
+                }
+        }
+
         private final TmdbService tmdbService;
+        private final CacheDetallesPeliculas cacheDetalles;
+        private final CriticaService criticaService;
+        private final IndiceTitulos indiceTitulos;
+        private final AsyncLoadingCache<ClaveBusqueda, List<MovieEntrada>> cacheBusquedas;
 
-        public BuscarPeliculasEnTMDb(TmdbService tmdbService) {
+        public BuscarPeliculasEnTMDb(TmdbService tmdbService, CacheDetallesPeliculas cacheDetalles,
+                        CriticaService criticaService, IndiceTitulos indiceTitulos, TmdbProperties propiedades,
+                        MeterRegistry registry) {
                 this.tmdbService = tmdbService;
+                this.cacheDetalles = cacheDetalles;
+                this.criticaService = criticaService;
+                this.indiceTitulos = indiceTitulos;
+
+                // Pasada la frescura, la siguiente lectura devuelve el resultado anterior y lo
+                // refresca en segundo plano; si el refresco falla se sigue sirviendo el
+                // anterior hasta que pase maximoObsoleto.
+                TmdbProperties.CacheBusquedas conf = propiedades.getCacheBusquedas();
+                this.cacheBusquedas = Caffeine.newBuilder()
+                                .maximumSize(conf.getTamMaximo())
+                                .refreshAfterWrite(conf.getFrescura())
+                                .expireAfterWrite(conf.getMaximoObsoleto())
+                                .recordStats()
+                                .buildAsync(new AsyncCacheLoader<ClaveBusqueda, List<MovieEntrada>>() {
+                                        @Override
+                                        public CompletableFuture<List<MovieEntrada>> asyncLoad(ClaveBusqueda clave,
+                                                        Executor executor) {
+                                                return buscarEnTmdb(clave.original()).toFuture();
+                                        }
+
+                                        // Los refrescos van por el carril de segundo plano del planificador
+                                        @Override
+                                        public CompletableFuture<List<MovieEntrada>> asyncReload(ClaveBusqueda clave,
+                                                        List<MovieEntrada> anterior, Executor executor) {
+                                                return PlanificadorTmdb.enSegundoPlano(buscarEnTmdb(clave.original()))
+                                                                .toFuture();
+                                        }
+                                });
+
+                CaffeineCacheMetrics.monitor(registry, cacheBusquedas, "tmdb.busquedas", List.<Tag>of());
         }
 
         /**
@@ -33,6 +105,58 @@ public class BuscarPeliculasEnTMDb {
          * @return Un Mono con la lista de MovieSalida.
          */
         public Mono<List<MovieSalida>> buscarPeliculaPorNombre(String nombrePelicula) {
+                return buscarPeliculaPorNombre(nombrePelicula, false);
+        }
+
+        /**
+         * Busca películas por nombre y las procesa (filtra + completa detalles).
+         * Los resultados de TMDb se cachean por nombre normalizado y las búsquedas
+         * idénticas simultáneas comparten una única llamada a TMDb.
+         *
+         * Si se pide la puntuación de FlixScore, se lee de una vez para todos los
+         * resultados mientras se completan los detalles de TMDb.
+         *
+         * @param nombrePelicula El nombre de la película a buscar.
+         * @param conFlixScore   Añadir la puntuación de la comunidad de FlixScore.
+         * @return Un Mono con la lista de MovieSalida.
+         */
+        public Mono<List<MovieSalida>> buscarPeliculaPorNombre(String nombrePelicula, boolean conFlixScore) {
+                ClaveBusqueda clave = new ClaveBusqueda(Textos.normalizar(nombrePelicula), nombrePelicula);
+                // La carga conserva el contexto de quien la pide (carril del planificador, etc.).
+                // suppressCancel: si un cliente cancela, la búsqueda compartida sigue para los demás.
+                // La función de carga solo se ejecuta en los fallos de caché (Server-Timing).
+                Mono<List<MovieEntrada>> resultados = Mono.deferContextual(contexto -> {
+                        boolean[] cargada = new boolean[1];
+                        CompletableFuture<List<MovieEntrada>> busqueda = cacheBusquedas.get(clave,
+                                        (k, executor) -> {
+                                                cargada[0] = true;
+                                                return buscarEnTmdb(k.original())
+                                                                .contextWrite(contexto)
+                                                                .toFuture();
+                                        });
+                        TiemposPeticion.anotarCache(contexto, !cargada[0]);
+                        return Mono.fromFuture(busqueda, true);
+                });
+
+                return resultados.flatMap(peliculas -> {
+                        // Usamos flatMapSequential para conservar el orden de relevancia de TMDb,
+                        // limitando la concurrencia a 5 para no saturar TMDb
+                        Mono<List<MovieSalida>> completadas = Flux.fromIterable(peliculas)
+                                        .flatMapSequential(this::completarDetalles, 5)
+                                        .collectList();
+                        if (!conFlixScore) {
+                                return completadas;
+                        }
+                        List<Integer> ids = peliculas.stream().map(MovieEntrada::getId).toList();
+                        return Mono.zip(completadas, puntuacionesFlixScore(ids))
+                                        .map(t -> anadirFlixScore(t.getT1(), t.getT2()));
+                });
+        }
+
+        // Búsqueda real contra TMDb, solo se ejecuta al cargar o refrescar la caché.
+        // Se guardan los resultados tal cual: completar los detalles sale de la caché
+        // de detalles, y cada petición construye sus propios MovieSalida.
+        private Mono<List<MovieEntrada>> buscarEnTmdb(String nombrePelicula) {
                 String apiKey = tmdbService.getApiKey();
 
                 // Comprobación de la API Key: Si no está definida, devolvemos lista vacía.
@@ -48,17 +172,17 @@ public class BuscarPeliculasEnTMDb {
                                                 // Usamos la clave obtenida localmente.
                                                 .queryParam("api_key", apiKey)
                                                 .queryParam("query", nombrePelicula)
-                                                .queryParam("language", "es-ES")
+                                                .queryParam("language", IDIOMA)
                                                 .build())
                                 .retrieve()
                                 .bodyToMono(TmdbResponse.class);
 
                 return responseMono
-                                .flatMapMany(response -> Flux.fromIterable(response.getResults()))
-                                .filter(movie -> !movie.isAdult()) // Evitamos el cine Nopor
-                                // Usamos flatMap, pero limitamos la concurrencia a 5 para no saturar TMDb
-                                .flatMap(this::completarDetalles, 5)
-                                .collectList();
+                                .map(response -> response.getResults().stream()
+                                                .filter(movie -> !movie.isAdult()) // Evitamos el cine Nopor
+                                                .toList())
+                                // Lo que devuelve TMDb alimenta el autocompletado de títulos
+                                .doOnNext(indiceTitulos::registrar);
         }
 
         /**
@@ -68,6 +192,18 @@ public class BuscarPeliculasEnTMDb {
          * @return Un Mono con la lista de MovieSalida (contendrá 0 o 1 elemento).
          */
         public Mono<List<MovieSalida>> buscarPeliculaPorId(String idPelicula) {
+                return buscarPeliculaPorId(idPelicula, false);
+        }
+
+        /**
+         * Busca una película por ID.
+         * Si se pide la puntuación de FlixScore, se lee a la vez que la llamada a TMDb.
+         *
+         * @param idPelicula   El ID de la película a buscar.
+         * @param conFlixScore Añadir la puntuación de la comunidad de FlixScore.
+         * @return Un Mono con la lista de MovieSalida (contendrá 0 o 1 elemento).
+         */
+        public Mono<List<MovieSalida>> buscarPeliculaPorId(String idPelicula, boolean conFlixScore) {
                 String apiKey = tmdbService.getApiKey();
 
                 // Comprobación de la API Key: Si no está definida, devolvemos lista vacía.
@@ -76,65 +212,118 @@ public class BuscarPeliculasEnTMDb {
                         return Mono.just(List.of());
                 }
 
-                // Si la clave existe, procede con la llamada
-                Mono<MovieEntrada> movieMono = tmdbService.getBaseRequest()
-                                .uri(uriBuilder -> uriBuilder
-                                                .path("/movie/{id}")
-                                                // Usamos la clave obtenida localmente.
-                                                .queryParam("api_key", apiKey)
-                                                .queryParam("language", "es-ES")
-                                                .build(idPelicula))
-                                .retrieve()
-                                // Si la búsqueda por ID falla (ej. 404), devuelve un Mono vacío.
-                                .onStatus(status -> status.is4xxClientError() || status.is5xxServerError(),
-                                                clientResponse -> Mono.empty())
-                                .bodyToMono(MovieEntrada.class);
-
-                // Enriquecemos la película encontrada y la devolvemos envuelta en una lista
-                return movieMono
-                                .flatMap(this::completarDetalles)
+                int id;
+                try {
+                        id = Integer.parseInt(idPelicula.trim());
+                } catch (NumberFormatException e) {
+                        logger.warn("ID de película no válido: {}", idPelicula);
+                        return Mono.just(List.of());
+                }
+
+                // Una sola llamada (cacheada) trae los datos en español y las traducciones
+                // al inglés que usamos de respaldo. Si la película no existe (ej. 404) el
+                // Mono viene vacío.
+                Mono<List<MovieSalida>> pelicula = cacheDetalles.obtener(id, IDIOMA)
+                                .doOnNext(indiceTitulos::registrar)
+                                .map(movie -> construirSalida(movie, movie.getTranslations()))
                                 .map(List::of)
                                 .defaultIfEmpty(List.of());
+                if (!conFlixScore) {
+                        return pelicula;
+                }
+                return Mono.zip(pelicula, puntuacionesFlixScore(List.of(id)))
+                                .map(t -> anadirFlixScore(t.getT1(), t.getT2()));
+        }
+
+        // Puntuaciones de FlixScore de todas las películas en una sola lectura por lotes.
+        // Si Firestore falla, se devuelven los resultados de TMDb sin la puntuación.
+        private Mono<Map<Integer, ModeloEstadisticasPelicula>> puntuacionesFlixScore(List<Integer> ids) {
+                if (ids.isEmpty()) {
+                        return Mono.just(Map.of());
+                }
+                return criticaService.getEstadisticasPeliculas(ids)
+                                .onErrorResume(e -> {
+                                        logger.warn("No se ha podido añadir la puntuación de FlixScore: {}", e.getMessage());
+                                        return Mono.just(Map.of());
+                                });
+        }
+
+        // Las películas sin críticas en FlixScore quedan con recuento 0 y sin media
+        private static List<MovieSalida> anadirFlixScore(List<MovieSalida> peliculas,
+                        Map<Integer, ModeloEstadisticasPelicula> estadisticas) {
+                for (MovieSalida pelicula : peliculas) {
+                        ModeloEstadisticasPelicula stats = estadisticas.get(pelicula.getId());
+                        if (stats != null && stats.getRecuento() > 0) {
+                                pelicula.setPuntuacionFlixScore(stats.getMedia());
+                                pelicula.setRecuentoCriticasFlixScore(stats.getRecuento());
+                        } else {
+                                pelicula.setRecuentoCriticasFlixScore(0L);
+                        }
+                }
+                return peliculas;
         }
 
         // Lógica de enriquecimiento de datos
         private Mono<MovieSalida> completarDetalles(MovieEntrada movie) {
-                String apiKey = tmdbService.getApiKey();
+                // El resultado de la búsqueda ya trae poster, fondo, idioma y fecha. Solo
+                // pedimos el detalle (con las traducciones) si falta el título o el resumen
+                // en español y hay que recurrir al inglés.
+                if (tieneTexto(movie.getTitle()) && tieneTexto(movie.getOverview())) {
+                        return Mono.just(construirSalida(movie, null));
+                }
 
-                // Comprobación de la API Key: Si no está definida, devolvemos la película
-                // sin enriquecer o, mejor, detenemos el flujo para evitar el error.
-                if (apiKey == null || apiKey.isEmpty()) {
-                        return Mono.empty();
+                return cacheDetalles.obtener(movie.getId(), IDIOMA)
+                                .map(detalle -> construirSalida(movie, detalle.getTranslations()))
+                                .switchIfEmpty(Mono.fromSupplier(() -> construirSalida(movie, null)));
+        }
+
+        /**
+         * Lógica de mapeo de DTO (MovieEntrada a MovieSalida).
+         * Los campos en español tienen prioridad; si faltan se usa la traducción
+         * al inglés que venga en el mismo payload.
+         *
+         * @param movie        Película en español (resultado de búsqueda o detalle).
+         * @param traducciones Traducciones de la película, puede ser null.
+         */
+        static MovieSalida construirSalida(MovieEntrada movie, TmdbTraducciones traducciones) {
+                TmdbTraducciones.Datos ingles = traducciones != null
+                                ? traducciones.buscar("en", "US")
+                                : null;
+
+                MovieSalida dto = new MovieSalida();
+                dto.setId(movie.getId());
+                dto.setTitulo(primeroConTexto(movie.getTitle(),
+                                ingles != null ? ingles.getTitle() : null,
+                                movie.getOriginalTitle()));
+                dto.setTituloOriginal(movie.getOriginalTitle());
+                dto.setResumen(primeroConTexto(movie.getOverview(),
+                                ingles != null ? ingles.getOverview() : null));
+                dto.setFechaEstreno(movie.getReleaseDate());
+                dto.setPopularidad(movie.getPopularity());
+                dto.setPuntucionMedia(movie.getVoteAverage());
+                dto.setRecuentoVotos(movie.getVoteCount());
+                dto.setRutaPoster(movie.getPosterPath());
+                dto.setRutaFondo(movie.getBackdropPath());
+                dto.setIdiomaOriginal(movie.getOriginalLanguage());
+                // Las búsquedas traen genre_ids y el detalle trae genres
+                if (movie.getGenreIds() != null) {
+                        dto.setGenerosIds(movie.getGenreIds());
+                } else if (movie.getGenres() != null) {
+                        dto.setGenerosIds(movie.getGenres().stream().map(TmdbGenero::getId).toList());
                 }
+                return dto;
+        }
 
-                return tmdbService.getBaseRequest()
-                                .uri(uriBuilder -> uriBuilder
-                                                .path("/movie/{id}")
-                                                .queryParam("api_key", apiKey)
-                                                .queryParam("language", "en-US")
-                                                .build(movie.getId()))
-                                .retrieve()
-                                .bodyToMono(MovieEntrada.class)
-                                .map(enMovie -> {
-                                        // Lógica de mapeo de DTO (MovieEntrada a MovieSalida)
-                                        MovieSalida dto = new MovieSalida();
-                                        dto.setId(movie.getId());
-                                        dto.setTitulo(movie.getTitle() != null && !movie.getTitle().isEmpty()
-                                                        ? movie.getTitle()
-                                                        : enMovie.getTitle());
-                                        dto.setTituloOriginal(enMovie.getOriginalTitle());
-                                        dto.setResumen(movie.getOverview() != null && !movie.getOverview().isEmpty()
-                                                        ? movie.getOverview()
-                                                        : enMovie.getOverview());
-                                        dto.setFechaEstreno(enMovie.getReleaseDate());
-                                        dto.setPopularidad(movie.getPopularity());
-                                        dto.setPuntucionMedia(movie.getVoteAverage());
-                                        dto.setRecuentoVotos(movie.getVoteCount());
-                                        dto.setRutaPoster(enMovie.getPosterPath());
-                                        dto.setRutaFondo(enMovie.getBackdropPath());
-                                        dto.setIdiomaOriginal(enMovie.getOriginalLanguage());
-                                        dto.setGenerosIds(movie.getGenreIds());
-                                        return dto;
-                                });
+        private static boolean tieneTexto(String valor) {
+                return valor != null && !valor.isEmpty();
+        }
+
+        private static String primeroConTexto(String... valores) {
+                for (String valor : valores) {
+                        if (tieneTexto(valor)) {
+                                return valor;
+                        }
+                }
+                return null;
         }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.TmdbProperties;
+import tfg.avellaneda.ira.model.MovieEntrada;
+import tfg.avellaneda.ira.util.TiemposPeticion;
+
+/**
+ * Caché asíncrona de los detalles de película de TMDb (/movie/{id}).
+ * Se sitúa entre BuscarPeliculasEnTMDb y TmdbService: las búsquedas piden los
+ * detalles aquí y solo se sale a TMDb si la película no está en memoria.
+ *
+ * Cada detalle se pide con append_to_response=translations, de modo que una
+ * única llamada trae los campos en el idioma pedido y las traducciones que
+ * usamos como respaldo (ej. título y resumen en inglés).
+ *
+ * - Tamaño acotado y TTL configurables (tmdb.cache-detalles.*).
+ * - Las entradas que se siguen leyendo se refrescan en segundo plano antes de
+ * caducar, así las películas más buscadas nunca pagan la llamada a TMDb.
+ * - Las peticiones concurrentes de la misma clave comparten una única llamada.
+ * - Aciertos, fallos y desalojos se publican como métricas "cache.*" con
+ * cache=tmdb.detalles.
+ */
+@Service
+public class CacheDetallesPeliculas {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheDetallesPeliculas.class);
+
+    /**
+     * Clave de la caché: la misma película en otro idioma es otra entrada.
+     */
+    public record ClaveDetalle(int id, String idioma) {
+    }
+
+    private final TmdbService tmdbService;
+    private final AsyncLoadingCache<ClaveDetalle, MovieEntrada> cache;
+
+    public CacheDetallesPeliculas(TmdbService tmdbService, TmdbProperties propiedades, MeterRegistry registry) {
+        this.tmdbService = tmdbService;
+
+        TmdbProperties.CacheDetalles conf = propiedades.getCacheDetalles();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(conf.getTamMaximo())
+                .expireAfterWrite(conf.getTtl())
+                .refreshAfterWrite(conf.getRefrescoAnticipado())
+                .recordStats()
+                .buildAsync(new AsyncCacheLoader<ClaveDetalle, MovieEntrada>() {
+                    @Override
+                    public CompletableFuture<MovieEntrada> asyncLoad(ClaveDetalle clave, Executor executor) {
+                        return pedirDetalle(clave).toFuture();
+                    }
+
+                    // Los refrescos anticipados no tienen a nadie esperando: van por el carril
+                    // de segundo plano del planificador
+                    @Override
+                    public CompletableFuture<MovieEntrada> asyncReload(ClaveDetalle clave, MovieEntrada anterior,
+                            Executor executor) {
+                        return PlanificadorTmdb.enSegundoPlano(pedirDetalle(clave)).toFuture();
+                    }
+                });
+
+        CaffeineCacheMetrics.monitor(registry, cache, "tmdb.detalles", List.<Tag>of());
+    }
+
+    /**
+     * Devuelve los detalles de la película en el idioma indicado.
+     *
+     * @return Mono vacío si TMDb no conoce la película o no hay API Key.
+     */
+    public Mono<MovieEntrada> obtener(int id, String idioma) {
+        // Si hay que ir a TMDb, la carga conserva el contexto de quien la pide (carril
+        // del planificador, etc.). suppressCancel: si un cliente cancela, la carga
+        // compartida sigue para los demás. La función de carga solo se ejecuta si la
+        // película no estaba: así se sabe si ha sido un acierto (Server-Timing).
+        return Mono.deferContextual(contexto -> {
+            boolean[] cargada = new boolean[1];
+            CompletableFuture<MovieEntrada> detalle = cache.get(new ClaveDetalle(id, idioma),
+                    (clave, executor) -> {
+                        cargada[0] = true;
+                        return pedirDetalle(clave).contextWrite(contexto).toFuture();
+                    });
+            TiemposPeticion.anotarCache(contexto, !cargada[0]);
+            return Mono.fromFuture(detalle, true);
+        });
+    }
+
+    /**
+     * Como obtener, pero lo que haya que pedir a TMDb no se guarda en la caché:
+     * para trabajos en segundo plano que recorren muchas películas y no deben
+     * desalojar las que se están buscando. Tampoco cuenta en sus estadísticas.
+     */
+    public Mono<MovieEntrada> obtenerSinGuardar(int id, String idioma) {
+        ClaveDetalle clave = new ClaveDetalle(id, idioma);
+        return Mono.defer(() -> {
+            CompletableFuture<MovieEntrada> enCache = cache.asMap().get(clave);
+            return enCache != null ? Mono.fromFuture(enCache, true) : pedirDetalle(clave);
+        });
+    }
+
+    // Llamada real a TMDb; un resultado vacío no se guarda en la caché
+    private Mono<MovieEntrada> pedirDetalle(ClaveDetalle clave) {
+        String apiKey = tmdbService.getApiKey();
+
+        if (apiKey == null || apiKey.isEmpty()) {
+            return Mono.empty();
+        }
+
+        return tmdbService.getBaseRequest()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/movie/{id}")
+                        .queryParam("api_key", apiKey)
+                        .queryParam("language", clave.idioma())
+                        .queryParam("append_to_response", "translations")
+                        .build(clave.id()))
+                .retrieve()
+                .bodyToMono(MovieEntrada.class)
+                // Si TMDb no encuentra la película (ej. 404) devolvemos vacío en vez de error
+                .onErrorResume(WebClientResponseException.class, e -> {
+                    logger.warn("TMDb respondió {} al pedir la película {} ({})",
+                            e.getStatusCode(), clave.id(), clave.idioma());
+                    return Mono.empty();
+                });
+    }
+}
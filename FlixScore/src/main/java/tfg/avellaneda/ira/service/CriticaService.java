@@ -1,27 +1,40 @@
 package tfg.avellaneda.ira.service;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.api.core.ApiFuture;
-import com.google.cloud.firestore.DocumentReference;
-import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.BulkWriter;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
 import tfg.avellaneda.ira.model.ModeloCritica;
+import tfg.avellaneda.ira.model.ModeloEstadisticasPelicula;
+import tfg.avellaneda.ira.model.ModeloResumenIngesta;
+import tfg.avellaneda.ira.model.Pagina;
 import tfg.avellaneda.ira.repositories.CriticaRepository;
+import tfg.avellaneda.ira.repositories.CriticaRepository.ResultadoEscritura;
+import tfg.avellaneda.ira.repositories.Paginacion;
 
 /**
  * TODO: Añadir manejo de excepciones personalizado.
- * TODO: Añadir respuestas personalizadas, no solo String o null en caso de error.
- * de momento nos vale así para ir avanzando y probar la app.
  */
 
 /**
  * Servicio para gestionar las críticas de películas.
  * Proporciona métodos para crear, recuperar por usuario y por película.
+ * Es reactivo de principio a fin: devuelve Mono/Flux y nunca bloquea
+ * esperando a Firestore. WebFlux se encarga de convertir el resultado a JSON.
  * 
  * @author Israel
  */
@@ -29,85 +42,281 @@ import tfg.avellaneda.ira.repositories.CriticaRepository;
 @Service
 public class CriticaService {
 
+    private static final Logger logger = LoggerFactory.getLogger(CriticaService.class);
+
+    private final CriticaRepository repo;
+    private final FlixScoreProperties propiedades;
+    private final ObjectMapper objectMapper;
+    private final ModeloLecturaCriticas modeloLectura;
+    private final FeedService feedService;
+    private final IndiceTitulos indiceTitulos;
+    private final TendenciasPeliculas tendencias;
+
     /**
-     * Inyectamos tanto el repositorio como el mapper para convertir objetos a JSON.
-     * OJO! El mapper funciona con los getters y setters de las clases modelo.
-     * En este caso Lombok los genera automáticamente.
+     * Línea del cuerpo de una importación masiva: la crítica leída o el error
+     * que impide importarla.
      */
-    @Autowired
-    CriticaRepository repo;
-    
-    @Autowired
-    ObjectMapper mapper;
+    private record LineaIngesta(long linea, ModeloCritica critica, String error) {
+    }
 
-    public String getCriticaById(String criticaId) {
-        try {
-            ModeloCritica critica = repo.getCriticaById(criticaId)
-                    .get()
-                    .toObject(ModeloCritica.class);
-            return mapper.writeValueAsString(critica);
-
-        } catch (Exception e) {
-            System.out.println("Error al obtener la crítica: " + e.getMessage());
-            return null;
+    // Inyección de dependencias por constructor
+    public CriticaService(CriticaRepository repo, FlixScoreProperties propiedades, ObjectMapper objectMapper,
+            ModeloLecturaCriticas modeloLectura, FeedService feedService, IndiceTitulos indiceTitulos,
+            TendenciasPeliculas tendencias) {
+        this.repo = repo;
+        this.propiedades = propiedades;
+        this.objectMapper = objectMapper;
+        this.modeloLectura = modeloLectura;
+        this.feedService = feedService;
+        this.indiceTitulos = indiceTitulos;
+        this.tendencias = tendencias;
+    }
+
+    /**
+     * Obtiene una crítica por ID.
+     * 
+     * @return Mono con la crítica, vacío si no existe.
+     */
+    public Mono<ModeloCritica> getCriticaById(String criticaId) {
+        return repo.getCriticaById(criticaId)
+                .filter(document -> document.exists())
+                .map(document -> document.toObject(ModeloCritica.class))
+                .onErrorMap(e -> errorBaseDatos("Error al obtener la crítica " + criticaId, e));
+    }
+
+    // Las consultas por usuario y por película se sirven desde memoria si el
+    // modelo de lectura está activo y cargado (ver ModeloLecturaCriticas)
+
+    public Flux<ModeloCritica> getCriticasByUserId(String userId) {
+        if (modeloLectura.listo()) {
+            return Flux.defer(() -> Flux.fromIterable(modeloLectura.porUsuario(userId)));
         }
+        return repo.getCriticaByUserId(userId)
+                .flatMapIterable(query -> query.toObjects(ModeloCritica.class))
+                .onErrorMap(e -> errorBaseDatos("Error al obtener las críticas del usuario " + userId, e));
     }
 
-    public String getCriticasByUserId(String userId) {
-        try {
-            List<ModeloCritica> criticas = repo.getCriticaByUserId(userId)
-                    .get()
-                    .toObjects(ModeloCritica.class);
-            return mapper.writeValueAsString(criticas);
-
-        } catch (Exception e) {
-            System.out.println("Error al obtener las críticas del usuario: " + e.getMessage());
-            return null;
+    public Flux<ModeloCritica> getCriticasByPeliculaId(int peliculaId) {
+        if (modeloLectura.listo()) {
+            return Flux.defer(() -> Flux.fromIterable(modeloLectura.porPelicula(peliculaId)));
         }
+        return repo.getCriticaByPeliculaId(peliculaId)
+                .flatMapIterable(query -> query.toObjects(ModeloCritica.class))
+                .onErrorMap(e -> errorBaseDatos("Error al obtener las críticas de la película " + peliculaId, e));
     }
 
-    public String getCriticasByPeliculaId(String peliculaId) {
+    /**
+     * Añade una crítica y la devuelve tal y como ha quedado guardada (con su ID).
+     * En la misma escritura se actualizan las estadísticas de la película. Una
+     * vez guardada se copia en segundo plano al feed de los amigos del autor.
+     */
+    public Mono<ModeloCritica> addCritica(ModeloCritica critica) {
+        // La fecha la pone siempre el servidor: una fecha futura enviada por el
+        // cliente dejaría la crítica la primera de todos los feeds y falsearía
+        // las tendencias
+        critica.setCreadaEn(System.currentTimeMillis());
+        return repo.addCriticaConEstadisticas(critica)
+                .map(referencia -> {
+                    critica.setDocumentID(referencia.getId());
+                    return critica;
+                })
+                .doOnNext(modeloLectura::guardar)
+                .doOnNext(feedService::difundir)
+                .doOnNext(creada -> indiceTitulos.registrarCritica(creada.getPeliculaID()))
+                .doOnNext(creada -> tendencias.registrarCritica(creada.getPeliculaID(), creada.getCreadaEn()))
+                .doOnNext(creada -> logger.info("Crítica añadida correctamente con ID: {}", creada.getDocumentID()))
+                .onErrorMap(e -> errorBaseDatos("Error al añadir la crítica", e));
+    }
+
+    /**
+     * Importa críticas en masa a partir de las líneas de un cuerpo NDJSON (una
+     * crítica por línea). Se escriben con un BulkWriter en lotes de
+     * flixscore.ingesta.tam-lote, con como mucho lotes-en-vuelo lotes a la
+     * vez: mientras no terminen no se piden más líneas, así que el cuerpo de
+     * la petición se lee al ritmo al que escribe Firestore.
+     *
+     * Una línea mal formada o una escritura fallida no paran la importación,
+     * se anotan en el resumen. Las estadísticas de cada película se actualizan
+     * una vez por lote con las críticas que se han escrito.
+     */
+    public Mono<ModeloResumenIngesta> importar(Flux<String> lineas) {
+        FlixScoreProperties.Ingesta conf = propiedades.getIngesta();
+        return Mono.usingWhen(
+                Mono.fromSupplier(repo::abrirEscrituraMasiva),
+                writer -> Mono.defer(() -> {
+                    long inicio = System.nanoTime();
+                    ModeloResumenIngesta resumen = new ModeloResumenIngesta();
+                    return lineas.index()
+                            .filter(linea -> !linea.getT2().isBlank())
+                            .map(linea -> leerLinea(linea.getT1() + 1, linea.getT2()))
+                            .buffer(conf.getTamLote())
+                            .flatMap(lote -> escribirLote(writer, lote), conf.getLotesEnVuelo())
+                            // flatMap entrega los lotes de uno en uno, el resumen no necesita sincronización
+                            .doOnNext(lote -> lote.forEach(linea -> anotar(resumen, linea, conf.getMaxErrores())))
+                            .then(Mono.fromSupplier(() -> terminar(resumen, System.nanoTime() - inicio)));
+                }),
+                repo::cerrarEscrituraMasiva)
+                .doOnNext(resumen -> logger.info("Importación de críticas: {} escritas, {} fallidas en {} ms ({} críticas/s)",
+                        resumen.getEscritas(), resumen.getFallidas(), resumen.getDuracionMs(),
+                        Math.round(resumen.getCriticasPorSegundo())))
+                .onErrorMap(e -> errorBaseDatos("Error en la importación de críticas", e));
+    }
+
+    private LineaIngesta leerLinea(long numero, String linea) {
+        ModeloCritica critica;
         try {
-            List<ModeloCritica> criticas = repo.getCriticaByPeliculaId(peliculaId)
-                    .get()
-                    .toObjects(ModeloCritica.class);
-            return mapper.writeValueAsString(criticas);
-
-        } catch (Exception e) {
-            System.out.println("Error al obtener las críticas de la película: " + e.getMessage());
-            return null;
+            critica = objectMapper.readValue(linea, ModeloCritica.class);
+        } catch (JsonProcessingException e) {
+            return new LineaIngesta(numero, null, "JSON no válido: " + e.getOriginalMessage());
+        }
+        if (critica.getUsuarioUID() == null || critica.getUsuarioUID().isBlank()) {
+            return new LineaIngesta(numero, critica, "Falta usuarioUID");
         }
+        if (critica.getPeliculaID() <= 0) {
+            return new LineaIngesta(numero, critica, "peliculaID no válido");
+        }
+        if (critica.getCreadaEn() == null) {
+            critica.setCreadaEn(System.currentTimeMillis());
+        }
+        return new LineaIngesta(numero, critica, null);
     }
-    public String addCritica(ModeloCritica critica) {
-        try {
-            ApiFuture<DocumentReference> futureDocRef = repo.addCritica(critica);
-            DocumentReference docRef = futureDocRef.get();
-            ApiFuture<DocumentSnapshot> future = docRef.get();
-            DocumentSnapshot document = future.get();
-            if (document.exists()) {
-                ModeloCritica creada = document.toObject(ModeloCritica.class);
-                return mapper.writeValueAsString(creada);
-            } else {
-                return null;
-            }
-        } catch (Exception e) {
-            System.out.println("Error al añadir la crítica: " + e.getMessage());
-            return null;
+
+    // Escribe las críticas válidas del lote y devuelve el lote con el error de cada línea
+    private Mono<List<LineaIngesta>> escribirLote(BulkWriter writer, List<LineaIngesta> lote) {
+        List<LineaIngesta> validas = lote.stream().filter(linea -> linea.error() == null).toList();
+        return repo.crearCriticas(writer, validas.stream().map(LineaIngesta::critica).toList())
+                .flatMap(escrituras -> {
+                    Map<Long, String> fallos = new HashMap<>();
+                    List<ModeloCritica> escritas = new ArrayList<>(escrituras.size());
+                    for (int i = 0; i < escrituras.size(); i++) {
+                        ResultadoEscritura escritura = escrituras.get(i);
+                        if (escritura.error() == null) {
+                            escritas.add(validas.get(i).critica());
+                        } else {
+                            fallos.put(validas.get(i).linea(), escritura.error().getMessage());
+                        }
+                    }
+
+                    List<LineaIngesta> resultado = lote.stream()
+                            .map(linea -> fallos.containsKey(linea.linea())
+                                    ? new LineaIngesta(linea.linea(), linea.critica(), fallos.get(linea.linea()))
+                                    : linea)
+                            .toList();
+                    if (escritas.isEmpty()) {
+                        return Mono.just(resultado);
+                    }
+                    escritas.forEach(critica -> tendencias.registrarCritica(critica.getPeliculaID(),
+                            critica.getCreadaEn()));
+                    return repo.sumarEstadisticas(writer, escritas)
+                            .onErrorResume(e -> {
+                                // Las críticas ya están guardadas; solo quedan desfasadas las estadísticas
+                                logger.error("Error al actualizar las estadísticas de un lote importado: {}",
+                                        e.getMessage());
+                                return Mono.empty();
+                            })
+                            .thenReturn(resultado);
+                });
+    }
+
+    private static void anotar(ModeloResumenIngesta resumen, LineaIngesta linea, int maxErrores) {
+        resumen.setRecibidas(resumen.getRecibidas() + 1);
+        if (linea.error() == null) {
+            resumen.setEscritas(resumen.getEscritas() + 1);
+            return;
+        }
+        resumen.setFallidas(resumen.getFallidas() + 1);
+        if (resumen.getErrores().size() < maxErrores) {
+            String documentID = linea.critica() != null ? linea.critica().getDocumentID() : null;
+            resumen.getErrores().add(new ModeloResumenIngesta.ErrorIngesta(linea.linea(), documentID, linea.error()));
+        } else {
+            resumen.setErroresTruncados(true);
         }
+    }
 
+    private static ModeloResumenIngesta terminar(ModeloResumenIngesta resumen, long duracionNanos) {
+        resumen.setDuracionMs(TimeUnit.NANOSECONDS.toMillis(duracionNanos));
+        double segundos = duracionNanos / 1_000_000_000d;
+        resumen.setCriticasPorSegundo(segundos > 0 ? resumen.getEscritas() / segundos : 0);
+        return resumen;
     }
 
-    public String getAll() {
-        try {
-            List<ModeloCritica> criticas = repo.getAll()
-                    .get()
-                    .toObjects(ModeloCritica.class);
-            return mapper.writeValueAsString(criticas);
-
-        } catch (Exception e) {
-            System.out.println("Error al obtener las críticas: " + e.getMessage());
-            return null;
+    /**
+     * Obtiene la puntuación agregada de una película (recuento, media e
+     * histograma) con una sola lectura. Si la película no tiene críticas se
+     * devuelven las estadísticas a cero.
+     */
+    public Mono<ModeloEstadisticasPelicula> getEstadisticasPelicula(int peliculaId) {
+        return repo.getEstadisticasPelicula(peliculaId)
+                .filter(document -> document.exists())
+                .map(document -> document.toObject(ModeloEstadisticasPelicula.class))
+                .defaultIfEmpty(new ModeloEstadisticasPelicula(peliculaId, 0, 0, new HashMap<>()))
+                .onErrorMap(e -> errorBaseDatos("Error al obtener las estadísticas de la película " + peliculaId, e));
+    }
+
+    /**
+     * Estadísticas de varias películas a la vez (ver
+     * CriticaRepository.getEstadisticasPeliculas). Las películas sin críticas
+     * no aparecen en el mapa.
+     *
+     * @return Mono con un mapa id de película -> estadísticas.
+     */
+    public Mono<Map<Integer, ModeloEstadisticasPelicula>> getEstadisticasPeliculas(Collection<Integer> peliculaIds) {
+        return repo.getEstadisticasPeliculas(peliculaIds)
+                .filter(document -> document.exists())
+                .map(document -> document.toObject(ModeloEstadisticasPelicula.class))
+                .collectMap(ModeloEstadisticasPelicula::getPeliculaID)
+                .onErrorMap(e -> errorBaseDatos("Error al obtener las estadísticas de las películas", e));
+    }
+
+    public Flux<ModeloCritica> getAll() {
+        return repo.getAll()
+                .flatMapIterable(query -> query.toObjects(ModeloCritica.class))
+                .onErrorMap(e -> errorBaseDatos("Error al obtener las críticas", e));
+    }
+
+    // Versiones paginadas: limite ya viene validado por el controller y el cursor
+    // es el devuelto en la página anterior (null para la primera)
+
+    public Mono<Pagina<ModeloCritica>> getAll(int limite, String cursor) {
+        return repo.getAll(limite, cursor)
+                .map(query -> Paginacion.construir(query, limite, ModeloCritica.class))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al obtener las críticas", e));
+    }
+
+    public Mono<Pagina<ModeloCritica>> getCriticasByUserId(String userId, int limite, String cursor) {
+        if (modeloLectura.listo()) {
+            return Mono.fromCallable(() -> modeloLectura.porUsuario(userId, limite, cursor));
+        }
+        return repo.getCriticaByUserId(userId, limite, cursor)
+                .map(query -> Paginacion.construir(query, limite, ModeloCritica.class))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al obtener las críticas del usuario " + userId, e));
+    }
+
+    public Mono<Pagina<ModeloCritica>> getCriticasByPeliculaId(int peliculaId, int limite, String cursor) {
+        if (modeloLectura.listo()) {
+            return Mono.fromCallable(() -> modeloLectura.porPelicula(peliculaId, limite, cursor));
         }
+        return repo.getCriticaByPeliculaId(peliculaId, limite, cursor)
+                .map(query -> Paginacion.construir(query, limite, ModeloCritica.class))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al obtener las críticas de la película " + peliculaId, e));
+    }
+
+    /**
+     * Exporta todas las críticas leyéndolas de Firestore por páginas, a medida
+     * que el cliente las va consumiendo (memoria constante).
+     */
+    public Flux<ModeloCritica> exportar() {
+        return repo.streamAll(propiedades.getExportacion().getTamPagina())
+                .map(document -> document.toObject(ModeloCritica.class))
+                .onErrorMap(e -> errorBaseDatos("Error al exportar las críticas", e));
+    }
+
+    private RuntimeException errorBaseDatos(String mensaje, Throwable e) {
+        logger.error("{}: {}", mensaje, e.getMessage());
+        return new RuntimeException("Fallo en la comunicación con la base de datos.", e);
     }
 
 }
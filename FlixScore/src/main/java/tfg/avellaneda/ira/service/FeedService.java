@@ -0,0 +1,213 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.config.FlixScoreProperties.ListasUsuario.Modo;
+import tfg.avellaneda.ira.model.ModeloCritica;
+import tfg.avellaneda.ira.model.Pagina;
+import tfg.avellaneda.ira.repositories.FeedRepository;
+import tfg.avellaneda.ira.repositories.Paginacion;
+
+/**
+ * Feed de actividad de amigos: las críticas de la gente que el usuario tiene
+ * en amigos_id, de la más reciente a la más antigua.
+ *
+ * Cada crítica nueva se copia en segundo plano al timeline de los usuarios que
+ * siguen a su autor (fan-out), así que leer el feed es una sola consulta
+ * paginada sin importar cuántos amigos se tengan. Si el autor tiene más de
+ * umbralFanOut seguidores no se copia: se marca como popular y sus críticas se
+ * leen al pedir el feed con consultas "in" por bloques (fan-in), mezclándolas
+ * con el timeline.
+ */
+@Service
+public class FeedService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FeedService.class);
+
+    // Orden del feed: más recientes primero y, a igualdad, por ID descendente
+    // (el mismo orden que las consultas de FeedRepository)
+    private static final Comparator<ModeloCritica> ORDEN_FEED = Comparator
+            .comparing(ModeloCritica::getCreadaEn, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(ModeloCritica::getDocumentID, Comparator.reverseOrder());
+
+    private final FeedRepository repo;
+    private final FlixScoreProperties propiedades;
+
+    // Autores que no copian sus críticas a los timelines
+    private volatile Set<String> populares = Set.of();
+
+    public FeedService(FeedRepository repo, FlixScoreProperties propiedades) {
+        this.repo = repo;
+        this.propiedades = propiedades;
+    }
+
+    /**
+     * Copia la crítica recién creada a los timelines de los seguidores de su
+     * autor. Se lanza en segundo plano: la respuesta a quien crea la crítica no
+     * espera a estas escrituras.
+     */
+    public void difundir(ModeloCritica critica) {
+        difundirCritica(critica).subscribe(null,
+                e -> logger.error("Error al copiar la crítica {} a los timelines: {}", critica.getDocumentID(),
+                        e.getMessage()));
+    }
+
+    private Mono<Void> difundirCritica(ModeloCritica critica) {
+        String autor = critica.getUsuarioUID();
+        if (autor == null || critica.getDocumentID() == null || populares.contains(autor)) {
+            return Mono.empty();
+        }
+        int umbral = propiedades.getFeed().getUmbralFanOut();
+        return repo.getSeguidores(autor, subcolecciones(), umbral + 1)
+                .flatMap(seguidores -> {
+                    if (seguidores.size() > umbral) {
+                        logger.info("El usuario {} tiene más de {} seguidores, sus críticas se leerán al pedir el feed",
+                                autor, umbral);
+                        return repo.marcarPopular(autor, seguidores.size())
+                                .doOnSuccess(v -> anadirPopular(autor));
+                    }
+                    if (seguidores.isEmpty()) {
+                        return Mono.empty();
+                    }
+                    return repo.escribirEnTimelines(seguidores, critica)
+                            .doOnNext(fallidas -> {
+                                if (fallidas > 0) {
+                                    logger.warn("La crítica {} no se ha podido copiar a {} de {} timelines",
+                                            critica.getDocumentID(), fallidas, seguidores.size());
+                                } else {
+                                    logger.debug("Crítica {} copiada a {} timelines", critica.getDocumentID(),
+                                            seguidores.size());
+                                }
+                            })
+                            .then();
+                });
+    }
+
+    /**
+     * Quita del timeline del usuario las críticas de quien ha dejado de ser su
+     * amigo. Se lanza en segundo plano, como difundir.
+     */
+    public void dejarDeSeguir(String usuarioId, String amigo) {
+        repo.borrarDeTimeline(usuarioId, amigo).subscribe(
+                borradas -> logger.debug("Quitadas {} críticas de {} del timeline de {}", borradas, amigo,
+                        usuarioId),
+                e -> logger.error("Error al quitar las críticas de {} del timeline de {}: {}", amigo, usuarioId,
+                        e.getMessage()));
+    }
+
+    /**
+     * Página del feed del usuario.
+     *
+     * @param cursor Cursor devuelto en la página anterior, null para la primera.
+     * @throws IllegalArgumentException (en el Mono) si el cursor no es válido.
+     */
+    public Mono<Pagina<ModeloCritica>> getFeed(String usuarioId, int limite, String cursor) {
+        return Mono.defer(() -> {
+            Posicion desde = leerCursor(cursor);
+            Mono<List<ModeloCritica>> timeline = repo.getTimeline(usuarioId, limite + 1, desde.creadaEn(),
+                    desde.id())
+                    .map(query -> query.toObjects(ModeloCritica.class));
+
+            // Solo se consulta a los autores populares que sigue el usuario
+            Set<String> candidatos = populares;
+            Mono<List<ModeloCritica>> deAutoresPopulares = candidatos.isEmpty()
+                    ? Mono.just(List.of())
+                    : repo.getAmigosEntre(usuarioId, candidatos, subcolecciones())
+                            .flatMapMany(amigos -> Flux.fromIterable(amigos)
+                                    .buffer(propiedades.getFeed().getTamLoteIn()))
+                            .flatMap(lote -> repo.getCriticasDeAutores(lote, limite + 1, desde.creadaEn(),
+                                    desde.id()))
+                            .flatMapIterable(query -> query.toObjects(ModeloCritica.class))
+                            .collectList();
+
+            return Mono.zip(timeline, deAutoresPopulares)
+                    .map(partes -> mezclar(partes.getT1(), partes.getT2(), limite));
+        })
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al obtener el feed del usuario " + usuarioId, e));
+    }
+
+    /**
+     * Recarga los autores populares (también al arrancar). Entre recargas, los
+     * que marque esta instancia se añaden al momento.
+     */
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.feed.refrescoPopulares.toMillis()}")
+    public void cargarPopulares() {
+        repo.getPopulares()
+                .map(document -> document.getId())
+                .collect(Collectors.toUnmodifiableSet())
+                .subscribe(cargados -> populares = cargados,
+                        e -> logger.warn("No se han podido cargar los autores populares: {}", e.getMessage()));
+    }
+
+    private synchronized void anadirPopular(String autor) {
+        Set<String> nuevos = new HashSet<>(populares);
+        nuevos.add(autor);
+        populares = Set.copyOf(nuevos);
+    }
+
+    // Junta el timeline y las críticas de autores populares sin repetir (un autor
+    // marcado como popular puede tener copias antiguas en el timeline)
+    private static Pagina<ModeloCritica> mezclar(List<ModeloCritica> timeline, List<ModeloCritica> deAutores,
+            int limite) {
+        Map<String, ModeloCritica> unicas = new LinkedHashMap<>();
+        for (ModeloCritica critica : timeline) {
+            unicas.putIfAbsent(critica.getDocumentID(), critica);
+        }
+        for (ModeloCritica critica : deAutores) {
+            unicas.putIfAbsent(critica.getDocumentID(), critica);
+        }
+
+        List<ModeloCritica> ordenadas = new ArrayList<>(unicas.values());
+        ordenadas.sort(ORDEN_FEED);
+        if (ordenadas.size() <= limite) {
+            return new Pagina<>(ordenadas, null);
+        }
+        List<ModeloCritica> pagina = List.copyOf(ordenadas.subList(0, limite));
+        ModeloCritica ultima = pagina.get(limite - 1);
+        return new Pagina<>(pagina, Paginacion.crearCursor(ultima.getCreadaEn() + ":" + ultima.getDocumentID()));
+    }
+
+    /**
+     * Posición en el feed: la última crítica devuelta.
+     */
+    private record Posicion(Long creadaEn, String id) {
+    }
+
+    private static Posicion leerCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return new Posicion(null, null);
+        }
+        String valor = Paginacion.leerCursor(cursor);
+        int separador = valor.indexOf(':');
+        try {
+            return new Posicion(Long.parseLong(valor.substring(0, separador)), valor.substring(separador + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor de paginación no válido: " + cursor, e);
+        }
+    }
+
+    private boolean subcolecciones() {
+        return propiedades.getListasUsuario().getModo() == Modo.SUBCOLECCIONES;
+    }
+
+    private RuntimeException errorBaseDatos(String mensaje, Throwable e) {
+        logger.error("{}: {}", mensaje, e.getMessage());
+        return new RuntimeException("Fallo en la comunicación con la base de datos.", e);
+    }
+}
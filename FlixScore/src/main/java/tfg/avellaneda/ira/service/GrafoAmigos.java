@@ -0,0 +1,195 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.config.FlixScoreProperties.ListasUsuario.Modo;
+import tfg.avellaneda.ira.model.ListaUsuario;
+import tfg.avellaneda.ira.model.ModeloSugerenciaAmigo;
+import tfg.avellaneda.ira.model.ModeloSugerenciaUsuario;
+import tfg.avellaneda.ira.repositories.UsuarioRepository;
+
+/**
+ * Grafo de amistades en memoria (ver GrafoSocial) para sugerir amigos de
+ * amigos sin consultar Firestore.
+ *
+ * Como IndiceNicks, UsuarioService lo actualiza en cada alta, baja y cambio
+ * de amigos o favoritas, y se recarga entero periódicamente (y al arrancar)
+ * para recoger los cambios de otras instancias. La recarga lee solo amigos_id
+ * y peliculas_favoritas, y en modo SUBCOLECCIONES también esas subcolecciones
+ * de todos los usuarios. Los cambios que llegan durante la recarga se repiten
+ * sobre el grafo nuevo antes de sustituir el anterior: una página leída antes
+ * de un cambio lo desharía.
+ */
+@Component
+public class GrafoAmigos {
+
+    private static final Logger logger = LoggerFactory.getLogger(GrafoAmigos.class);
+
+    private final UsuarioRepository repo;
+    private final IndiceNicks indiceNicks;
+    private final FlixScoreProperties propiedades;
+    private final FlixScoreProperties.SugerenciasAmigos conf;
+
+    private volatile GrafoSocial grafo = new GrafoSocial();
+    private final AtomicBoolean recargando = new AtomicBoolean();
+
+    // Cambios recibidos durante la recarga, en orden; null si no hay recarga
+    private List<Consumer<GrafoSocial>> pendientes;
+
+    public GrafoAmigos(UsuarioRepository repo, IndiceNicks indiceNicks, FlixScoreProperties propiedades) {
+        this.repo = repo;
+        this.indiceNicks = indiceNicks;
+        this.propiedades = propiedades;
+        this.conf = propiedades.getSugerenciasAmigos();
+    }
+
+    /**
+     * Amigos de amigos que el usuario aún no tiene, con más amigos en común
+     * primero. Con conFavoritas también cuentan las películas favoritas en
+     * común (flixscore.sugerencias-amigos.peso-favoritas).
+     */
+    public List<ModeloSugerenciaAmigo> sugerir(String usuarioId, int limite, boolean conFavoritas) {
+        return grafo.sugerir(usuarioId, limite, conFavoritas ? conf.getPesoFavoritas() : 0, conf.getPreseleccion())
+                .stream()
+                .map(sugerencia -> {
+                    ModeloSugerenciaUsuario perfil = indiceNicks.get(sugerencia.usuarioId()).orElse(null);
+                    return new ModeloSugerenciaAmigo(sugerencia.usuarioId(),
+                            perfil != null ? perfil.getNick() : null,
+                            perfil != null ? perfil.getImagen_perfil() : null,
+                            sugerencia.amigosEnComun(), sugerencia.favoritasEnComun());
+                })
+                .toList();
+    }
+
+    /**
+     * Sustituye los amigos y las favoritas del usuario (alta, o actualización
+     * del usuario entero con listas embebidas).
+     */
+    public void guardar(String usuarioId, List<String> amigos, List<? extends Number> favoritas) {
+        if (usuarioId == null) {
+            return;
+        }
+        List<String> suyos = amigos != null ? amigos : List.of();
+        List<? extends Number> peliculas = favoritas != null ? favoritas : List.of();
+        aplicar(grafo -> grafo.guardar(usuarioId, suyos, peliculas));
+    }
+
+    // Solo cambian el grafo las listas de amigos y de favoritas
+    public void anadir(String usuarioId, ListaUsuario lista, Object valor) {
+        if (lista == ListaUsuario.AMIGOS) {
+            aplicar(grafo -> grafo.anadirAmigo(usuarioId, (String) valor));
+        } else if (lista == ListaUsuario.FAVORITAS) {
+            aplicar(grafo -> grafo.anadirFavorita(usuarioId, ((Number) valor).intValue()));
+        }
+    }
+
+    public void quitar(String usuarioId, ListaUsuario lista, Object valor) {
+        if (lista == ListaUsuario.AMIGOS) {
+            aplicar(grafo -> grafo.quitarAmigo(usuarioId, (String) valor));
+        } else if (lista == ListaUsuario.FAVORITAS) {
+            aplicar(grafo -> grafo.quitarFavorita(usuarioId, ((Number) valor).intValue()));
+        }
+    }
+
+    public void borrar(String usuarioId) {
+        aplicar(grafo -> grafo.borrar(usuarioId));
+    }
+
+    // Sincronizado con sustituir para que ningún cambio quede fuera del grafo nuevo
+    private synchronized void aplicar(Consumer<GrafoSocial> cambio) {
+        cambio.accept(grafo);
+        if (pendientes != null) {
+            pendientes.add(cambio);
+        }
+    }
+
+    // Todos los cambios son idempotentes, así que repetir los que la carga ya
+    // había recogido no los duplica
+    private synchronized void sustituir(GrafoSocial nuevo) {
+        pendientes.forEach(cambio -> cambio.accept(nuevo));
+        grafo = nuevo;
+        pendientes = null;
+    }
+
+    private synchronized void descartarPendientes() {
+        pendientes = null;
+    }
+
+    /**
+     * Reconstruye el grafo y lo sustituye de golpe cuando ha terminado;
+     * mientras, se sigue sugiriendo con el anterior.
+     */
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.sugerenciasAmigos.refresco.toMillis()}")
+    public void recargar() {
+        if (!recargando.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            pendientes = new ArrayList<>();
+        }
+        GrafoSocial nuevo = new GrafoSocial();
+        int tamPagina = propiedades.getExportacion().getTamPagina();
+        // Primero los usuarios: las subcolecciones solo completan usuarios que existen
+        Mono<Void> usuarios = repo.streamListas(tamPagina, ListaUsuario.AMIGOS.getCampo(),
+                ListaUsuario.FAVORITAS.getCampo())
+                .doOnNext(document -> nuevo.guardar(document.getId(),
+                        valores(document.get(ListaUsuario.AMIGOS.getCampo()), String.class),
+                        valores(document.get(ListaUsuario.FAVORITAS.getCampo()), Number.class)))
+                .then();
+        Mono<Void> subcolecciones = propiedades.getListasUsuario().getModo() != Modo.SUBCOLECCIONES
+                ? Mono.empty()
+                : completar(nuevo, ListaUsuario.AMIGOS, tamPagina)
+                        .then(completar(nuevo, ListaUsuario.FAVORITAS, tamPagina));
+        usuarios.then(subcolecciones)
+                .doFinally(senal -> recargando.set(false))
+                .subscribe(null,
+                        e -> {
+                            descartarPendientes();
+                            logger.warn("No se ha podido recargar el grafo de amigos: {}", e.getMessage());
+                        },
+                        () -> {
+                            sustituir(nuevo);
+                            logger.debug("Grafo de amigos recargado: {} usuarios", nuevo.numUsuarios());
+                        });
+    }
+
+    // Los elementos de la subcolección de un mismo usuario llegan seguidos
+    // (ordenados por ruta), así que se añaden de una vez
+    private Mono<Void> completar(GrafoSocial nuevo, ListaUsuario lista, int tamPagina) {
+        return repo.streamSubcolecciones(lista.getCampo(), tamPagina)
+                .bufferUntilChanged(GrafoAmigos::usuarioDe)
+                .doOnNext(elementos -> {
+                    List<Object> valores = elementos.stream().map(document -> document.get("valor")).toList();
+                    if (lista == ListaUsuario.AMIGOS) {
+                        nuevo.completar(usuarioDe(elementos.get(0)), valores(valores, String.class), List.of());
+                    } else {
+                        nuevo.completar(usuarioDe(elementos.get(0)), List.of(), valores(valores, Number.class));
+                    }
+                })
+                .then();
+    }
+
+    // usuarios/{id}/{campo}/{valor}
+    private static String usuarioDe(DocumentSnapshot elemento) {
+        return elemento.getReference().getParent().getParent().getId();
+    }
+
+    private static <T> List<T> valores(Object array, Class<T> tipo) {
+        return array instanceof Collection<?> lista
+                ? lista.stream().filter(tipo::isInstance).map(tipo::cast).toList()
+                : List.of();
+    }
+}
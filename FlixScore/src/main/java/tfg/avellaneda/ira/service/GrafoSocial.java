@@ -0,0 +1,333 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Grafo de amistades en memoria: cada usuario tiene un número denso y sus
+ * amigos (amigos_id) son un int[] ordenado de esos números. También se guardan
+ * sus películas favoritas (IDs de TMDb ordenados) para comparar gustos.
+ *
+ * Un usuario que solo aparece como amigo de otro tiene número pero no fila
+ * (null) hasta que se guardan sus datos; así no se sugieren usuarios borrados
+ * que otros aún tengan en su lista.
+ *
+ * Las filas no se modifican nunca: un cambio crea la fila nueva y la sustituye
+ * (escrituras sincronizadas, lecturas sin bloqueo), así que una consulta ve
+ * cada fila entera, de antes o de después del cambio.
+ */
+public final class GrafoSocial {
+
+    /**
+     * Usuario sugerido y lo que tiene en común con quien recibe la sugerencia.
+     * favoritasEnComun es null si no se han comparado las favoritas.
+     */
+    public record Sugerencia(String usuarioId, int amigosEnComun, Integer favoritasEnComun, double puntuacion) {
+    }
+
+    private static final int[] VACIA = new int[0];
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ThreadLocal<Contador> contadores = ThreadLocal.withInitial(Contador::new);
+
+    // Número denso -> ID del documento, amigos y favoritas. Crecen copiándose con el monitor de this.
+    private volatile AtomicReferenceArray<String> nombres = new AtomicReferenceArray<>(1024);
+    private volatile AtomicReferenceArray<int[]> amigos = new AtomicReferenceArray<>(1024);
+    private volatile AtomicReferenceArray<int[]> favoritas = new AtomicReferenceArray<>(1024);
+    private int tam;
+
+    // Usuarios numerados, incluidos los que solo aparecen como amigo de otro
+    public int numUsuarios() {
+        return ids.size();
+    }
+
+    /**
+     * Sustituye los amigos y las favoritas del usuario.
+     */
+    public synchronized void guardar(String usuarioId, Collection<String> suyos,
+            Collection<? extends Number> peliculas) {
+        int usuario = numerar(usuarioId);
+        amigos.set(usuario, ordenados(suyos.stream().mapToInt(this::numerar).toArray()));
+        favoritas.set(usuario, ordenados(peliculas.stream().mapToInt(Number::intValue).toArray()));
+    }
+
+    /**
+     * Añade amigos y favoritas a los que ya tenga el usuario. No hace nada si
+     * el usuario no se ha guardado antes (ej. subcolecciones de un usuario
+     * borrado).
+     */
+    public synchronized void completar(String usuarioId, Collection<String> suyos,
+            Collection<? extends Number> peliculas) {
+        Integer usuario = ids.get(usuarioId);
+        if (usuario == null || amigos.get(usuario) == null) {
+            return;
+        }
+        amigos.set(usuario, unir(amigos.get(usuario), suyos.stream().mapToInt(this::numerar).toArray()));
+        favoritas.set(usuario, unir(favoritas.get(usuario), peliculas.stream().mapToInt(Number::intValue).toArray()));
+    }
+
+    public synchronized void anadirAmigo(String usuarioId, String amigoId) {
+        int usuario = numerar(usuarioId);
+        amigos.set(usuario, con(amigos.get(usuario), numerar(amigoId)));
+    }
+
+    public synchronized void quitarAmigo(String usuarioId, String amigoId) {
+        Integer usuario = ids.get(usuarioId);
+        Integer amigo = ids.get(amigoId);
+        if (usuario != null && amigo != null) {
+            amigos.set(usuario, sin(amigos.get(usuario), amigo));
+        }
+    }
+
+    public synchronized void anadirFavorita(String usuarioId, int peliculaId) {
+        int usuario = numerar(usuarioId);
+        favoritas.set(usuario, con(favoritas.get(usuario), peliculaId));
+    }
+
+    public synchronized void quitarFavorita(String usuarioId, int peliculaId) {
+        Integer usuario = ids.get(usuarioId);
+        if (usuario != null) {
+            favoritas.set(usuario, sin(favoritas.get(usuario), peliculaId));
+        }
+    }
+
+    /**
+     * Quita al usuario. Su número no se reutiliza y se queda sin fila: las
+     * filas de otros que aún lo tengan de amigo no lo sugieren.
+     */
+    public synchronized void borrar(String usuarioId) {
+        Integer usuario = ids.remove(usuarioId);
+        if (usuario != null) {
+            amigos.set(usuario, null);
+            favoritas.set(usuario, null);
+        }
+    }
+
+    /**
+     * Amigos de amigos que el usuario aún no tiene, por número de amigos en
+     * común. Con pesoFavoritas > 0 se comparan además las favoritas de los
+     * preseleccion mejores candidatos y cada película en común suma ese peso.
+     */
+    public List<Sugerencia> sugerir(String usuarioId, int limite, double pesoFavoritas, int preseleccion) {
+        // amigos antes que nombres: al crecer se sustituye nombres primero, así
+        // nombres nunca es más corto que amigos
+        AtomicReferenceArray<int[]> amigos = this.amigos;
+        AtomicReferenceArray<String> nombres = this.nombres;
+        Integer yo = ids.get(usuarioId);
+        if (yo == null || yo >= amigos.length() || limite <= 0) {
+            return List.of();
+        }
+        int[] mios = fila(amigos, yo);
+        if (mios.length == 0) {
+            return List.of();
+        }
+
+        // Amigos en común de cada candidato a dos saltos, en el contador del hilo
+        int alcance = 0;
+        for (int amigo : mios) {
+            alcance += fila(amigos, amigo).length;
+        }
+        Contador contador = contadores.get().preparar(amigos.length(), alcance);
+        int[] cuentas = contador.cuentas;
+        int[] tocados = contador.tocados;
+        int numTocados = 0;
+        boolean conFavoritas = pesoFavoritas > 0;
+        MonticuloClaves mejores = new MonticuloClaves(conFavoritas ? Math.max(limite, preseleccion) : limite);
+        try {
+            for (int amigo : mios) {
+                for (int candidato : fila(amigos, amigo)) {
+                    if (candidato < cuentas.length && cuentas[candidato]++ == 0) {
+                        tocados[numTocados++] = candidato;
+                    }
+                }
+            }
+            // Fuera el propio usuario y los que ya son amigos suyos
+            cuentas[yo] = 0;
+            for (int amigo : mios) {
+                if (amigo < cuentas.length) {
+                    cuentas[amigo] = 0;
+                }
+            }
+
+            // Los mejores por amigos en común (a igualdad, el número menor)
+            for (int t = 0; t < numTocados; t++) {
+                int candidato = tocados[t];
+                if (cuentas[candidato] > 0 && amigos.get(candidato) != null) {
+                    mejores.ofrecer(((long) cuentas[candidato] << 32) | (Integer.MAX_VALUE - candidato));
+                }
+            }
+        } finally {
+            for (int t = 0; t < numTocados; t++) {
+                cuentas[tocados[t]] = 0;
+            }
+        }
+
+        int[] misFavoritas = conFavoritas ? fila(favoritas, yo) : VACIA;
+        List<Sugerencia> sugerencias = new ArrayList<>(mejores.tam);
+        for (int t = 0; t < mejores.tam; t++) {
+            int candidato = Integer.MAX_VALUE - (int) mejores.claves[t];
+            int enComun = (int) (mejores.claves[t] >>> 32);
+            if (conFavoritas) {
+                int coincidencias = interseccion(misFavoritas, fila(favoritas, candidato));
+                sugerencias.add(new Sugerencia(nombres.get(candidato), enComun, coincidencias,
+                        enComun + pesoFavoritas * coincidencias));
+            } else {
+                sugerencias.add(new Sugerencia(nombres.get(candidato), enComun, null, enComun));
+            }
+        }
+        sugerencias.sort(Comparator.comparingDouble(Sugerencia::puntuacion).reversed()
+                .thenComparing(Sugerencia::usuarioId));
+        return sugerencias.size() > limite ? List.copyOf(sugerencias.subList(0, limite)) : sugerencias;
+    }
+
+    // Número denso del usuario, asignándole uno si es nuevo
+    private int numerar(String usuarioId) {
+        Integer existente = ids.get(usuarioId);
+        if (existente != null) {
+            return existente;
+        }
+        int usuario = tam++;
+        if (usuario == nombres.length()) {
+            nombres = crecer(nombres);
+            amigos = crecer(amigos);
+            favoritas = crecer(favoritas);
+        }
+        nombres.set(usuario, usuarioId);
+        ids.put(usuarioId, usuario);
+        return usuario;
+    }
+
+    private static <T> AtomicReferenceArray<T> crecer(AtomicReferenceArray<T> actual) {
+        AtomicReferenceArray<T> nuevo = new AtomicReferenceArray<>(actual.length() * 2);
+        for (int i = 0; i < actual.length(); i++) {
+            nuevo.set(i, actual.get(i));
+        }
+        return nuevo;
+    }
+
+    private static int[] fila(AtomicReferenceArray<int[]> filas, int usuario) {
+        int[] fila = usuario < filas.length() ? filas.get(usuario) : null;
+        return fila != null ? fila : VACIA;
+    }
+
+    private static int[] ordenados(int[] valores) {
+        return Arrays.stream(valores).sorted().distinct().toArray();
+    }
+
+    private static int[] unir(int[] fila, int[] valores) {
+        int[] actual = fila != null ? fila : VACIA;
+        int[] juntos = Arrays.copyOf(actual, actual.length + valores.length);
+        System.arraycopy(valores, 0, juntos, actual.length, valores.length);
+        return ordenados(juntos);
+    }
+
+    private static int[] con(int[] fila, int valor) {
+        int[] actual = fila != null ? fila : VACIA;
+        int posicion = Arrays.binarySearch(actual, valor);
+        if (posicion >= 0) {
+            return actual;
+        }
+        int insercion = -posicion - 1;
+        int[] nueva = new int[actual.length + 1];
+        System.arraycopy(actual, 0, nueva, 0, insercion);
+        nueva[insercion] = valor;
+        System.arraycopy(actual, insercion, nueva, insercion + 1, actual.length - insercion);
+        return nueva;
+    }
+
+    private static int[] sin(int[] fila, int valor) {
+        int[] actual = fila != null ? fila : VACIA;
+        int posicion = Arrays.binarySearch(actual, valor);
+        if (posicion < 0) {
+            return actual;
+        }
+        int[] nueva = new int[actual.length - 1];
+        System.arraycopy(actual, 0, nueva, 0, posicion);
+        System.arraycopy(actual, posicion + 1, nueva, posicion, actual.length - posicion - 1);
+        return nueva;
+    }
+
+    // Elementos en común de dos arrays ordenados
+    private static int interseccion(int[] a, int[] b) {
+        int i = 0;
+        int j = 0;
+        int comunes = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                comunes++;
+                i++;
+                j++;
+            }
+        }
+        return comunes;
+    }
+
+    /**
+     * Cuenta de cada usuario durante una consulta, indexada por su número, y
+     * los números con cuenta distinta de cero para dejarla a cero al acabar.
+     * Es una por hilo y se reutiliza entre consultas.
+     */
+    private static final class Contador {
+
+        int[] cuentas = VACIA;
+        int[] tocados = VACIA;
+
+        Contador preparar(int numUsuarios, int alcance) {
+            if (cuentas.length < numUsuarios) {
+                cuentas = new int[numUsuarios];
+            }
+            if (tocados.length < alcance) {
+                tocados = new int[Math.max(alcance, tocados.length * 2)];
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Las claves mayores vistas, como mucho capacidad, en un montículo de
+     * mínimos sobre un long[].
+     */
+    private static final class MonticuloClaves {
+
+        final long[] claves;
+        int tam;
+
+        MonticuloClaves(int capacidad) {
+            this.claves = new long[capacidad];
+        }
+
+        void ofrecer(long clave) {
+            if (tam < claves.length) {
+                int t = tam++;
+                while (t > 0 && claves[(t - 1) / 2] > clave) {
+                    claves[t] = claves[(t - 1) / 2];
+                    t = (t - 1) / 2;
+                }
+                claves[t] = clave;
+            } else if (tam > 0 && clave > claves[0]) {
+                int t = 0;
+                while (2 * t + 1 < tam) {
+                    int hijo = 2 * t + 1;
+                    if (hijo + 1 < tam && claves[hijo + 1] < claves[hijo]) {
+                        hijo++;
+                    }
+                    if (claves[hijo] >= clave) {
+                        break;
+                    }
+                    claves[t] = claves[hijo];
+                    t = hijo;
+                }
+                claves[t] = clave;
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloSugerenciaUsuario;
+import tfg.avellaneda.ira.repositories.UsuarioRepository;
+import tfg.avellaneda.ira.util.Textos;
+
+/**
+ * Índice en memoria de los nicks para el autocompletado del buscador de
+ * amigos. Las claves son el nick normalizado (sin mayúsculas ni tildes, ver
+ * Textos) seguido del ID del usuario, en un mapa ordenado: los nicks que
+ * empiezan por un prefijo son un rango contiguo del mapa y buscar cuesta lo
+ * mismo que recorrer las k sugerencias devueltas.
+ *
+ * UsuarioService lo actualiza en cada alta, cambio o baja, y se recarga entero
+ * periódicamente (y al arrancar) para recoger los cambios de otras instancias.
+ * Los cambios que llegan durante la recarga se repiten sobre el índice nuevo
+ * antes de sustituir el anterior.
+ */
+@Component
+public class IndiceNicks {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceNicks.class);
+
+    // Separa el nick del ID en la clave; es menor que cualquier carácter de un
+    // nick, así "ana" + SEPARADOR + id va antes que "anabel..."
+    private static final char SEPARADOR = '\u0000';
+
+    /**
+     * Nicks ordenados y la clave actual de cada usuario (para quitar la
+     * anterior cuando cambia el nick). Se sustituye entero al recargar.
+     */
+    private static final class Indice {
+        final ConcurrentSkipListMap<String, ModeloSugerenciaUsuario> porNick = new ConcurrentSkipListMap<>();
+        final Map<String, String> clavePorUsuario = new ConcurrentHashMap<>();
+
+        // Sincronizado para que dos cambios del mismo usuario no dejen dos claves
+        synchronized void guardar(ModeloSugerenciaUsuario usuario) {
+            String anterior = clavePorUsuario.remove(usuario.getDocumentID());
+            if (anterior != null) {
+                porNick.remove(anterior);
+            }
+            String normalizado = Textos.normalizar(usuario.getNick());
+            if (normalizado.isEmpty()) {
+                return;
+            }
+            String clave = normalizado + SEPARADOR + usuario.getDocumentID();
+            porNick.put(clave, usuario);
+            clavePorUsuario.put(usuario.getDocumentID(), clave);
+        }
+
+        synchronized void borrar(String usuarioId) {
+            String anterior = clavePorUsuario.remove(usuarioId);
+            if (anterior != null) {
+                porNick.remove(anterior);
+            }
+        }
+    }
+
+    private final UsuarioRepository repo;
+    private final FlixScoreProperties propiedades;
+
+    private volatile Indice indice = new Indice();
+    private final AtomicBoolean recargando = new AtomicBoolean();
+
+    // Cambios recibidos durante la recarga, en orden; null si no hay recarga
+    private List<Consumer<Indice>> pendientes;
+
+    public IndiceNicks(UsuarioRepository repo, FlixScoreProperties propiedades) {
+        this.repo = repo;
+        this.propiedades = propiedades;
+    }
+
+    /**
+     * Usuarios cuyo nick empieza por el prefijo, sin distinguir mayúsculas ni
+     * tildes, ordenados por nick.
+     */
+    public List<ModeloSugerenciaUsuario> buscar(String prefijo, int limite) {
+        String normalizado = Textos.normalizar(prefijo);
+        if (normalizado.isEmpty()) {
+            return List.of();
+        }
+        List<ModeloSugerenciaUsuario> encontrados = new ArrayList<>(limite);
+        // Todas las claves que empiezan por el prefijo están en [prefijo, prefijo + MAX_VALUE)
+        for (ModeloSugerenciaUsuario usuario : indice.porNick
+                .subMap(normalizado, true, normalizado + Character.MAX_VALUE, false).values()) {
+            if (encontrados.size() == limite) {
+                break;
+            }
+            encontrados.add(usuario);
+        }
+        return encontrados;
+    }
+
+    // Nick e imagen actuales del usuario, si está en el índice
+    public Optional<ModeloSugerenciaUsuario> get(String usuarioId) {
+        Indice actual = indice;
+        String clave = actual.clavePorUsuario.get(usuarioId);
+        return clave != null ? Optional.ofNullable(actual.porNick.get(clave)) : Optional.empty();
+    }
+
+    public void guardar(String usuarioId, String nick, String imagenPerfil) {
+        if (usuarioId == null) {
+            return;
+        }
+        ModeloSugerenciaUsuario usuario = new ModeloSugerenciaUsuario(usuarioId, nick, imagenPerfil);
+        aplicar(actual -> actual.guardar(usuario));
+    }
+
+    public void borrar(String usuarioId) {
+        aplicar(actual -> actual.borrar(usuarioId));
+    }
+
+    // Sincronizado con sustituir para que ningún cambio quede fuera del índice nuevo
+    private synchronized void aplicar(Consumer<Indice> cambio) {
+        cambio.accept(indice);
+        if (pendientes != null) {
+            pendientes.add(cambio);
+        }
+    }
+
+    // Una página leída antes de un cambio lo habría deshecho en el índice nuevo
+    private synchronized void sustituir(Indice nuevo) {
+        pendientes.forEach(cambio -> cambio.accept(nuevo));
+        indice = nuevo;
+        pendientes = null;
+    }
+
+    private synchronized void descartarPendientes() {
+        pendientes = null;
+    }
+
+    /**
+     * Reconstruye el índice leyendo solo nick e imagen de todos los usuarios y
+     * lo sustituye de golpe cuando ha terminado; mientras, se sigue buscando en
+     * el anterior.
+     */
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.busquedaNicks.refresco.toMillis()}")
+    public void recargar() {
+        if (!recargando.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            pendientes = new ArrayList<>();
+        }
+        Indice nuevo = new Indice();
+        repo.streamPerfiles(propiedades.getExportacion().getTamPagina())
+                .doOnNext(document -> nuevo.guardar(new ModeloSugerenciaUsuario(document.getId(),
+                        document.getString("nick"), document.getString("imagen_perfil"))))
+                .then()
+                .doFinally(senal -> recargando.set(false))
+                .subscribe(null,
+                        e -> {
+                            descartarPendientes();
+                            logger.warn("No se ha podido recargar el índice de nicks: {}", e.getMessage());
+                        },
+                        () -> {
+                            sustituir(nuevo);
+                            logger.debug("Índice de nicks recargado: {} usuarios", nuevo.clavePorUsuario.size());
+                        });
+    }
+}
@@ -0,0 +1,356 @@
+package tfg.avellaneda.ira.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.MovieEntrada;
+import tfg.avellaneda.ira.model.ModeloSugerenciaPelicula;
+import tfg.avellaneda.ira.repositories.CriticaRepository;
+import tfg.avellaneda.ira.util.Ficheros;
+import tfg.avellaneda.ira.util.Textos;
+
+/**
+ * Índice en memoria de los títulos de película para el autocompletado.
+ *
+ * Se alimenta de todo lo que ya pasa por el servicio: los resultados de las
+ * búsquedas y detalles de TMDb (título y título original) y las películas con
+ * críticas en FlixScore. Cada palabra normalizada de los títulos (ver Textos)
+ * es una clave de un mapa ordenado, así que las palabras que empiezan por lo
+ * que escribe el usuario son un rango contiguo. Los resultados se ordenan por
+ * popularidad en TMDb y número de críticas en FlixScore.
+ *
+ * Buscar nunca llama a TMDb. Para las películas con críticas cuyo título aún
+ * no se conoce, el detalle se pide por el carril de segundo plano del
+ * planificador, sin guardarlo en la caché de detalles. El índice se guarda en
+ * disco periódicamente y al parar.
+ */
+@Component
+public class IndiceTitulos {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndiceTitulos.class);
+
+    private static final String IDIOMA = "es-ES";
+
+    private static final String RUTA_MINIATURA = "https://image.tmdb.org/t/p/w92";
+
+    private final CriticaRepository criticaRepository;
+    private final CacheDetallesPeliculas cacheDetalles;
+    private final ObjectMapper objectMapper;
+    private final FlixScoreProperties propiedades;
+    private final FlixScoreProperties.Sugerencias conf;
+
+    // Película por ID y palabra -> IDs de las películas cuyo título la contiene
+    private final ConcurrentHashMap<Integer, ModeloSugerenciaPelicula> peliculas = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<Integer>> palabras = new ConcurrentSkipListMap<>();
+    // Palabras del título de cada película, para comprobar el resto de palabras
+    // de la búsqueda sin recorrer sus rangos
+    private final ConcurrentHashMap<Integer, Set<String>> palabrasPorPelicula = new ConcurrentHashMap<>();
+    // Críticas por película; puede haber actividad de películas sin título aún
+    private final ConcurrentHashMap<Integer, Long> actividad = new ConcurrentHashMap<>();
+    // Películas cuyo detalle se está pidiendo a TMDb
+    private final Set<Integer> pidiendo = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean cambiado;
+
+    public IndiceTitulos(CriticaRepository criticaRepository, CacheDetallesPeliculas cacheDetalles,
+            ObjectMapper objectMapper, FlixScoreProperties propiedades) {
+        this.criticaRepository = criticaRepository;
+        this.cacheDetalles = cacheDetalles;
+        this.objectMapper = objectMapper;
+        this.propiedades = propiedades;
+        this.conf = propiedades.getSugerencias();
+    }
+
+    /**
+     * Películas cuyo título (o título original) tiene palabras que empiezan por
+     * las del texto, sin distinguir mayúsculas ni tildes. Ej. "senor ani"
+     * encuentra "El Señor de los Anillos".
+     *
+     * Los candidatos salen de la palabra más selectiva (la que menos películas
+     * tiene); el resto de palabras se comprueban con las palabras de cada
+     * candidato. Se puntúan todos y se quedan los limite mejores, así que un
+     * prefijo corto devuelve las películas más populares y no las primeras en
+     * orden alfabético.
+     */
+    public List<ModeloSugerenciaPelicula> buscar(String texto, int limite) {
+        String normalizado = Textos.normalizar(texto);
+        if (normalizado.isEmpty() || limite <= 0) {
+            return List.of();
+        }
+
+        List<String> prefijos = List.copyOf(new LinkedHashSet<>(List.of(normalizado.split(" "))));
+        String masSelectivo = null;
+        long menosPeliculas = Long.MAX_VALUE;
+        for (String prefijo : prefijos) {
+            long conPrefijo = contarHasta(prefijo, menosPeliculas);
+            if (conPrefijo == 0) {
+                return List.of();
+            }
+            if (conPrefijo < menosPeliculas) {
+                menosPeliculas = conPrefijo;
+                masSelectivo = prefijo;
+            }
+        }
+
+        Set<Integer> candidatos = new HashSet<>();
+        for (Set<Integer> ids : rango(masSelectivo).values()) {
+            candidatos.addAll(ids);
+        }
+
+        // Montículo con los limite mejores: la raíz es la peor de ellas
+        Comparator<ModeloSugerenciaPelicula> orden = Comparator.comparingDouble(this::puntuacion);
+        PriorityQueue<ModeloSugerenciaPelicula> mejores = new PriorityQueue<>(limite + 1, orden);
+        for (Integer id : candidatos) {
+            ModeloSugerenciaPelicula pelicula = peliculas.get(id);
+            if (pelicula == null || !contieneTodas(id, prefijos, masSelectivo)) {
+                continue;
+            }
+            mejores.add(conActividad(pelicula));
+            if (mejores.size() > limite) {
+                mejores.poll();
+            }
+        }
+
+        List<ModeloSugerenciaPelicula> resultado = new ArrayList<>(mejores);
+        resultado.sort(orden.reversed());
+        return resultado;
+    }
+
+    /**
+     * La película con ese ID si está en el índice (sin la actividad).
+     */
+    public Optional<ModeloSugerenciaPelicula> get(int peliculaId) {
+        return Optional.ofNullable(peliculas.get(peliculaId));
+    }
+
+    /**
+     * Añade o actualiza las películas vistas en una respuesta de TMDb.
+     */
+    public void registrar(List<MovieEntrada> resultados) {
+        resultados.forEach(this::registrar);
+    }
+
+    public void registrar(MovieEntrada movie) {
+        if (movie.getTitle() == null && movie.getOriginalTitle() == null) {
+            return;
+        }
+        String anio = movie.getReleaseDate() != null && movie.getReleaseDate().length() >= 4
+                ? movie.getReleaseDate().substring(0, 4)
+                : null;
+        guardar(new ModeloSugerenciaPelicula(movie.getId(),
+                movie.getTitle() != null ? movie.getTitle() : movie.getOriginalTitle(),
+                movie.getOriginalTitle(),
+                anio,
+                movie.getPosterPath() != null ? RUTA_MINIATURA + movie.getPosterPath() : null,
+                movie.getPopularity(),
+                0));
+    }
+
+    /**
+     * Apunta una crítica nueva de la película. Si aún no se conoce su título se
+     * pide a TMDb en segundo plano.
+     */
+    public void registrarCritica(int peliculaId) {
+        actividad.merge(peliculaId, 1L, Long::sum);
+        cambiado = true;
+        pedirSiDesconocida(peliculaId);
+    }
+
+    /**
+     * Al arrancar: carga el índice guardado en disco y toma el número de
+     * críticas de cada película de sus estadísticas. Al terminar se piden en
+     * segundo plano los títulos que falten, unos pocos a la vez para no llenar
+     * la cola del planificador.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void cargar() {
+        cargarDeDisco();
+        List<Integer> desconocidas = new ArrayList<>();
+        criticaRepository.streamEstadisticas(propiedades.getExportacion().getTamPagina())
+                .doOnNext(document -> {
+                    Long recuento = document.getLong("recuento");
+                    if (recuento != null) {
+                        int peliculaId = Integer.parseInt(document.getId());
+                        actividad.put(peliculaId, recuento);
+                        if (!peliculas.containsKey(peliculaId)) {
+                            desconocidas.add(peliculaId);
+                        }
+                    }
+                })
+                .then(Mono.defer(() -> {
+                    cambiado = true;
+                    logger.info("Actividad de las películas cargada; títulos por pedir a TMDb: {}",
+                            desconocidas.size());
+                    return Flux.fromIterable(desconocidas)
+                            .flatMap(this::pedirTitulo, conf.getConcurrenciaTmdb())
+                            .then();
+                }))
+                .subscribe(null,
+                        e -> logger.warn("No se ha podido cargar la actividad de las películas: {}", e.getMessage()));
+    }
+
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.sugerencias.guardado.toMillis()}",
+            initialDelayString = "#{@flixScoreProperties.sugerencias.guardado.toMillis()}")
+    public void guardarPeriodicamente() {
+        if (cambiado) {
+            guardarEnDisco();
+        }
+    }
+
+    @PreDestroy
+    public void guardarAlParar() {
+        guardarEnDisco();
+    }
+
+    // Películas con alguna palabra que empieza por el prefijo; deja de contar
+    // al llegar al tope (ya se sabe que no es la palabra más selectiva)
+    private long contarHasta(String prefijo, long tope) {
+        long total = 0;
+        for (Set<Integer> ids : rango(prefijo).values()) {
+            total += ids.size();
+            if (total >= tope) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private Map<String, Set<Integer>> rango(String prefijo) {
+        return palabras.subMap(prefijo, true, prefijo + Character.MAX_VALUE, false);
+    }
+
+    private boolean contieneTodas(int peliculaId, List<String> prefijos, String yaComprobado) {
+        Set<String> deLaPelicula = palabrasPorPelicula.getOrDefault(peliculaId, Set.of());
+        for (String prefijo : prefijos) {
+            if (!prefijo.equals(yaComprobado)
+                    && deLaPelicula.stream().noneMatch(palabra -> palabra.startsWith(prefijo))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void guardar(ModeloSugerenciaPelicula nueva) {
+        ModeloSugerenciaPelicula anterior = peliculas.put(nueva.getId(), nueva);
+        Set<String> antes = anterior != null ? palabrasDe(anterior) : Set.of();
+        Set<String> ahora = palabrasDe(nueva);
+        palabrasPorPelicula.put(nueva.getId(), ahora);
+        for (String palabra : antes) {
+            if (!ahora.contains(palabra)) {
+                palabras.computeIfPresent(palabra, (k, ids) -> {
+                    ids.remove(nueva.getId());
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+        for (String palabra : ahora) {
+            palabras.compute(palabra, (k, ids) -> {
+                Set<Integer> resultado = ids != null ? ids : ConcurrentHashMap.newKeySet();
+                resultado.add(nueva.getId());
+                return resultado;
+            });
+        }
+        cambiado = true;
+    }
+
+    private void pedirSiDesconocida(int peliculaId) {
+        pedirTitulo(peliculaId).subscribe();
+    }
+
+    // Sin pasar por la caché de detalles: son películas que nadie está buscando
+    // y desalojarían las que sí. Los errores solo se registran.
+    private Mono<Void> pedirTitulo(int peliculaId) {
+        if (peliculas.containsKey(peliculaId) || !pidiendo.add(peliculaId)) {
+            return Mono.empty();
+        }
+        return PlanificadorTmdb.enSegundoPlano(cacheDetalles.obtenerSinGuardar(peliculaId, IDIOMA))
+                .doOnNext(this::registrar)
+                .doFinally(senal -> pidiendo.remove(peliculaId))
+                .doOnError(e -> logger.debug("No se ha podido obtener el título de la película {}: {}", peliculaId,
+                        e.getMessage()))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    private ModeloSugerenciaPelicula conActividad(ModeloSugerenciaPelicula pelicula) {
+        return new ModeloSugerenciaPelicula(pelicula.getId(), pelicula.getTitulo(), pelicula.getTituloOriginal(),
+                pelicula.getAnioEstreno(), pelicula.getRutaPoster(), pelicula.getPopularidad(),
+                actividad.getOrDefault(pelicula.getId(), 0L));
+    }
+
+    private double puntuacion(ModeloSugerenciaPelicula pelicula) {
+        return Math.log1p(pelicula.getPopularidad()) + conf.getPesoActividad() * Math.log1p(pelicula.getActividad());
+    }
+
+    private static Set<String> palabrasDe(ModeloSugerenciaPelicula pelicula) {
+        Set<String> resultado = new LinkedHashSet<>();
+        for (String titulo : new String[] { pelicula.getTitulo(), pelicula.getTituloOriginal() }) {
+            String normalizado = Textos.normalizar(titulo);
+            if (!normalizado.isEmpty()) {
+                resultado.addAll(List.of(normalizado.split(" ")));
+            }
+        }
+        return resultado;
+    }
+
+    private void cargarDeDisco() {
+        Path fichero = Path.of(conf.getFichero());
+        if (!Files.exists(fichero)) {
+            return;
+        }
+        try {
+            List<ModeloSugerenciaPelicula> guardadas = objectMapper.readValue(fichero.toFile(),
+                    new TypeReference<List<ModeloSugerenciaPelicula>>() {
+                    });
+            for (ModeloSugerenciaPelicula pelicula : guardadas) {
+                guardar(pelicula);
+                if (pelicula.getActividad() > 0) {
+                    actividad.putIfAbsent(pelicula.getId(), pelicula.getActividad());
+                }
+            }
+            cambiado = false;
+            logger.info("Índice de títulos cargado de {}: {} películas", fichero, guardadas.size());
+        } catch (IOException e) {
+            logger.warn("No se ha podido leer el índice de títulos de {}: {}", fichero, e.getMessage());
+        }
+    }
+
+    private synchronized void guardarEnDisco() {
+        cambiado = false;
+        Path fichero = Path.of(conf.getFichero());
+        try {
+            List<ModeloSugerenciaPelicula> instantanea = peliculas.values().stream().map(this::conActividad).toList();
+            Ficheros.escribirAtomicamente(fichero, out -> objectMapper.writeValue(out, instantanea));
+            logger.debug("Índice de títulos guardado en {}: {} películas", fichero, instantanea.size());
+        } catch (IOException e) {
+            cambiado = true;
+            logger.warn("No se ha podido guardar el índice de títulos en {}: {}", fichero, e.getMessage());
+        }
+    }
+}
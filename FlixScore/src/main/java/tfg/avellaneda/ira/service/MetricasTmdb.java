@@ -0,0 +1,111 @@
+package tfg.avellaneda.ira.service;
+
+import java.net.URI;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+import tfg.avellaneda.ira.config.TmdbProperties;
+import tfg.avellaneda.ira.util.TiemposPeticion;
+
+/**
+ * Métricas de las peticiones a TMDb (timer tmdb.peticiones), etiquetadas por:
+ *
+ * - endpoint: ruta sin la URL base y con los IDs sustituidos, ej. /movie/{id}.
+ * - estado: código HTTP de la respuesta, o timeout, error o cancelada si no
+ * llega respuesta.
+ * - idioma: parámetro language de la petición (ninguno si no lo lleva).
+ *
+ * Va detrás del planificador en el WebClient, así que mide cada intento que
+ * sale de verdad (los 429 reintentados cuentan una vez por intento) y no el
+ * tiempo en cola, que ya mide tmdb.planificador.espera. El tiempo es hasta que
+ * llegan las cabeceras de la respuesta.
+ *
+ * Cada intento también se suma a los TiemposPeticion de la petición HTTP que
+ * lo ha provocado (cabecera Server-Timing), si los hay en el contexto.
+ */
+@Component
+public class MetricasTmdb {
+
+    private final MeterRegistry registry;
+    private final String rutaBase;
+
+    public MetricasTmdb(MeterRegistry registry, TmdbProperties propiedades) {
+        this.registry = registry;
+        String ruta = URI.create(propiedades.getUrlBase()).getPath();
+        this.rutaBase = ruta == null || ruta.equals("/") ? "" : ruta;
+    }
+
+    /**
+     * Filtro para el WebClient de TMDb que mide cada petición.
+     */
+    public ExchangeFilterFunction filtro() {
+        return (peticion, siguiente) -> Mono.deferContextual(contexto -> {
+            String endpoint = endpoint(peticion.url());
+            String idioma = idioma(peticion.url());
+            TiemposPeticion tiempos = TiemposPeticion.de(contexto);
+            Timer.Sample muestra = Timer.start(registry);
+            return siguiente.exchange(peticion)
+                    .doOnSuccess(respuesta -> parar(muestra, tiempos, endpoint, idioma,
+                            String.valueOf(respuesta.statusCode().value())))
+                    .doOnError(e -> parar(muestra, tiempos, endpoint, idioma, esTimeout(e) ? "timeout" : "error"))
+                    .doOnCancel(() -> parar(muestra, tiempos, endpoint, idioma, "cancelada"));
+        });
+    }
+
+    private void parar(Timer.Sample muestra, TiemposPeticion tiempos, String endpoint, String idioma,
+            String estado) {
+        long nanos = muestra.stop(Timer.builder("tmdb.peticiones")
+                .description("Duración de las peticiones a TMDb")
+                .tag("endpoint", endpoint)
+                .tag("estado", estado)
+                .tag("idioma", idioma)
+                .register(registry));
+        if (tiempos != null) {
+            tiempos.llamada(TiemposPeticion.Origen.TMDB, nanos);
+        }
+    }
+
+    // Los segmentos numéricos son IDs: /3/movie/603 -> /movie/{id}
+    private String endpoint(URI url) {
+        String ruta = url.getPath() == null ? "" : url.getPath();
+        if (ruta.startsWith(rutaBase)) {
+            ruta = ruta.substring(rutaBase.length());
+        }
+        StringBuilder endpoint = new StringBuilder(ruta.length());
+        for (String segmento : ruta.split("/")) {
+            if (segmento.isEmpty()) {
+                continue;
+            }
+            endpoint.append('/').append(segmento.chars().allMatch(Character::isDigit) ? "{id}" : segmento);
+        }
+        return endpoint.length() == 0 ? "/" : endpoint.toString();
+    }
+
+    private static String idioma(URI url) {
+        String consulta = url.getRawQuery();
+        if (consulta != null) {
+            for (String par : consulta.split("&")) {
+                if (par.startsWith("language=") && par.length() > "language=".length()) {
+                    return par.substring("language=".length());
+                }
+            }
+        }
+        return "ninguno";
+    }
+
+    // El responseTimeout de Reactor Netty llega como ReadTimeoutException,
+    // envuelta en la excepción del WebClient
+    private static boolean esTimeout(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof TimeoutException || causa instanceof io.netty.handler.timeout.TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
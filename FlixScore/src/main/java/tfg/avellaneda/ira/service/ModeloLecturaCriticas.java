@@ -0,0 +1,307 @@
+package tfg.avellaneda.ira.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.scheduler.Schedulers;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloCritica;
+import tfg.avellaneda.ira.model.Pagina;
+import tfg.avellaneda.ira.repositories.CriticaRepository;
+import tfg.avellaneda.ira.repositories.Paginacion;
+
+/**
+ * Copia en memoria de la colección de críticas con índices por usuarioUID y
+ * por peliculaID, para servir las consultas más frecuentes sin ir a Firestore.
+ *
+ * Se carga al arrancar con un snapshot listener sobre "criticas" y el mismo
+ * listener la mantiene al día con cada cambio, así que va como mucho unos
+ * instantes por detrás de Firestore. Mientras no ha terminado la carga (o si
+ * el listener falla) listo() devuelve false y CriticaService lee de Firestore.
+ *
+ * Se activa con flixscore.modelo-lectura.activo. También es un indicador de
+ * salud: la instancia aparece OUT_OF_SERVICE hasta que termina la primera
+ * carga, para no recibir tráfico con el modelo a medias.
+ */
+@Component
+public class ModeloLecturaCriticas implements HealthIndicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModeloLecturaCriticas.class);
+
+    /**
+     * Críticas por ID e índices secundarios (IDs ordenados, igual que la
+     * paginación de Firestore). Cuando se vuelve a escuchar tras un fallo se
+     * construyen unos índices nuevos y se sustituyen de golpe.
+     */
+    private static final class Indices {
+        final ConcurrentHashMap<String, ModeloCritica> porId = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<String, NavigableSet<String>> porUsuario = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Integer, NavigableSet<String>> porPelicula = new ConcurrentHashMap<>();
+
+        void guardar(String id, ModeloCritica critica) {
+            ModeloCritica anterior = porId.put(id, critica);
+            if (anterior != null) {
+                quitarDeIndices(id, anterior);
+            }
+            if (critica.getUsuarioUID() != null) {
+                anadir(porUsuario, critica.getUsuarioUID(), id);
+            }
+            anadir(porPelicula, critica.getPeliculaID(), id);
+        }
+
+        void borrar(String id) {
+            ModeloCritica anterior = porId.remove(id);
+            if (anterior != null) {
+                quitarDeIndices(id, anterior);
+            }
+        }
+
+        private void quitarDeIndices(String id, ModeloCritica critica) {
+            if (critica.getUsuarioUID() != null) {
+                quitar(porUsuario, critica.getUsuarioUID(), id);
+            }
+            quitar(porPelicula, critica.getPeliculaID(), id);
+        }
+
+        // Se modifica dentro de compute para no añadir a un conjunto que otro hilo
+        // acaba de quitar del mapa por quedarse vacío
+        private static <K> void anadir(ConcurrentHashMap<K, NavigableSet<String>> indice, K clave, String id) {
+            indice.compute(clave, (k, ids) -> {
+                NavigableSet<String> resultado = ids != null ? ids : new ConcurrentSkipListSet<>();
+                resultado.add(id);
+                return resultado;
+            });
+        }
+
+        private static <K> void quitar(ConcurrentHashMap<K, NavigableSet<String>> indice, K clave, String id) {
+            indice.computeIfPresent(clave, (k, ids) -> {
+                ids.remove(id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    private final CriticaRepository repo;
+    private final boolean activo;
+    private final Duration reintento;
+
+    private volatile Indices indices = new Indices();
+    private volatile boolean listo;
+    private volatile boolean cargadoAlgunaVez;
+    private volatile Instant ultimaActualizacion;
+    private volatile String ultimoError;
+
+    // Protegidos por el monitor de this
+    private ListenerRegistration registro;
+    private boolean cerrado;
+
+    public ModeloLecturaCriticas(CriticaRepository repo, FlixScoreProperties propiedades) {
+        this.repo = repo;
+        this.activo = propiedades.getModeloLectura().isActivo();
+        this.reintento = propiedades.getModeloLectura().getReintento();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void iniciar() {
+        if (activo) {
+            logger.info("Cargando el modelo de lectura de críticas...");
+            escuchar();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void cerrar() {
+        cerrado = true;
+        if (registro != null) {
+            registro.remove();
+            registro = null;
+        }
+    }
+
+    /**
+     * true si la copia en memoria está cargada y al día.
+     */
+    public boolean listo() {
+        return listo;
+    }
+
+    public List<ModeloCritica> porUsuario(String usuarioUID) {
+        Indices actuales = indices;
+        return leer(actuales, actuales.porUsuario.get(usuarioUID));
+    }
+
+    public List<ModeloCritica> porPelicula(int peliculaId) {
+        Indices actuales = indices;
+        return leer(actuales, actuales.porPelicula.get(peliculaId));
+    }
+
+    /**
+     * Página de críticas del usuario. Los cursores son los mismos que los de
+     * Paginacion, así que un cliente puede seguir paginando aunque el modelo
+     * deje de estar listo a mitad.
+     *
+     * @throws IllegalArgumentException si el cursor no es válido.
+     */
+    public Pagina<ModeloCritica> porUsuario(String usuarioUID, int limite, String cursor) {
+        Indices actuales = indices;
+        return pagina(actuales, actuales.porUsuario.get(usuarioUID), limite, cursor);
+    }
+
+    public Pagina<ModeloCritica> porPelicula(int peliculaId, int limite, String cursor) {
+        Indices actuales = indices;
+        return pagina(actuales, actuales.porPelicula.get(peliculaId), limite, cursor);
+    }
+
+    /**
+     * Añade una crítica recién escrita sin esperar al listener, para que quien
+     * la ha creado la vea ya en sus consultas.
+     */
+    public void guardar(ModeloCritica critica) {
+        if (listo && critica.getDocumentID() != null) {
+            indices.guardar(critica.getDocumentID(), critica);
+        }
+    }
+
+    @Override
+    public Health health() {
+        if (!activo) {
+            return Health.unknown().withDetail("activo", false).build();
+        }
+        // Solo se bloquea el tráfico hasta la primera carga; si después falla el
+        // listener se sigue atendiendo leyendo de Firestore
+        Health.Builder salud = cargadoAlgunaVez ? Health.up() : Health.outOfService();
+        salud.withDetail("listo", listo)
+                .withDetail("criticas", indices.porId.size());
+        if (ultimaActualizacion != null) {
+            salud.withDetail("ultimaActualizacion", ultimaActualizacion.toString());
+        }
+        if (ultimoError != null) {
+            salud.withDetail("ultimoError", ultimoError);
+        }
+        return salud.build();
+    }
+
+    private synchronized void escuchar() {
+        if (cerrado) {
+            return;
+        }
+        // Firestore llama al listener de uno en uno, no hace falta sincronizar dentro
+        AtomicBoolean primera = new AtomicBoolean(true);
+        registro = repo.escucharCriticas((snapshot, error) -> {
+            if (error != null) {
+                alFallar(error);
+                return;
+            }
+            if (primera.getAndSet(false)) {
+                cargar(snapshot);
+            } else {
+                aplicarCambios(snapshot);
+            }
+            ultimaActualizacion = Instant.now();
+        });
+    }
+
+    // La primera notificación trae la colección entera: se construyen índices
+    // nuevos, así no quedan críticas borradas mientras no se escuchaba
+    private void cargar(QuerySnapshot snapshot) {
+        Indices nuevos = new Indices();
+        for (QueryDocumentSnapshot documento : snapshot.getDocuments()) {
+            nuevos.guardar(documento.getId(), documento.toObject(ModeloCritica.class));
+        }
+        indices = nuevos;
+        listo = true;
+        cargadoAlgunaVez = true;
+        ultimoError = null;
+        logger.info("Modelo de lectura de críticas cargado: {} críticas", nuevos.porId.size());
+    }
+
+    private void aplicarCambios(QuerySnapshot snapshot) {
+        Indices actuales = indices;
+        for (DocumentChange cambio : snapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot documento = cambio.getDocument();
+            switch (cambio.getType()) {
+                case ADDED, MODIFIED -> actuales.guardar(documento.getId(), documento.toObject(ModeloCritica.class));
+                case REMOVED -> actuales.borrar(documento.getId());
+            }
+        }
+    }
+
+    // Un listener que falla no recibe más cambios: se deja de servir desde memoria
+    // y se vuelve a escuchar pasado un rato
+    private void alFallar(FirestoreException error) {
+        listo = false;
+        ultimoError = error.getMessage();
+        logger.error("El listener del modelo de lectura de críticas ha fallado, se reintenta en {} ms: {}",
+                reintento.toMillis(), error.getMessage());
+        synchronized (this) {
+            if (registro != null) {
+                registro.remove();
+                registro = null;
+            }
+        }
+        Schedulers.parallel().schedule(this::escuchar, reintento.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static List<ModeloCritica> leer(Indices indices, NavigableSet<String> ids) {
+        if (ids == null) {
+            return List.of();
+        }
+        List<ModeloCritica> criticas = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ModeloCritica critica = indices.porId.get(id);
+            // Puede haberse borrado mientras recorremos el índice
+            if (critica != null) {
+                criticas.add(critica);
+            }
+        }
+        return criticas;
+    }
+
+    private static Pagina<ModeloCritica> pagina(Indices indices, NavigableSet<String> ids, int limite,
+            String cursor) {
+        String desde = cursor != null && !cursor.isBlank() ? Paginacion.leerCursor(cursor) : null;
+        if (ids == null) {
+            return new Pagina<>(List.of(), null);
+        }
+
+        NavigableSet<String> restantes = desde != null ? ids.tailSet(desde, false) : ids;
+        List<ModeloCritica> criticas = new ArrayList<>(limite);
+        String ultimoId = null;
+        String siguiente = null;
+        for (String id : restantes) {
+            ModeloCritica critica = indices.porId.get(id);
+            if (critica == null) {
+                continue;
+            }
+            if (criticas.size() == limite) {
+                siguiente = Paginacion.crearCursor(ultimoId);
+                break;
+            }
+            criticas.add(critica);
+            ultimoId = id;
+        }
+        return new Pagina<>(criticas, siguiente);
+    }
+}
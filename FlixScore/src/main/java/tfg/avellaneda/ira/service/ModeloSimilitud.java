@@ -0,0 +1,550 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Modelo de filtrado colaborativo película-película construido a partir de las
+ * puntuaciones de las críticas.
+ *
+ * La similitud entre dos películas es el coseno ajustado: el coseno entre sus
+ * columnas de la matriz usuario x película, con cada puntuación centrada en la
+ * media de su usuario, multiplicado por comun / (comun + encogimiento) para no
+ * fiarse de parejas con pocos usuarios en común. De cada película se guardan
+ * solo sus vecinos más parecidos.
+ *
+ * Todo son arrays de primitivos en formato CSR (un array de inicios y otro de
+ * valores): las películas se numeran de 0 a numPeliculas - 1 y los usuarios
+ * llegan ya numerados. Es inmutable una vez construido; para actualizarlo se
+ * construye otro.
+ */
+public final class ModeloSimilitud {
+
+    /**
+     * @param vecinos       Vecinos que se guardan por película.
+     * @param minimoComun   Usuarios en común necesarios para tener en cuenta
+     *                      una pareja.
+     * @param encogimiento  Cuánto se penalizan las parejas con pocos usuarios
+     *                      en común.
+     * @param maxPorUsuario Películas de un mismo usuario que se cruzan como
+     *                      mucho al calcular similitudes (los usuarios con
+     *                      miles de críticas se muestrean).
+     */
+    public record Parametros(int vecinos, int minimoComun, float encogimiento, int maxPorUsuario) {
+    }
+
+    public record Recomendacion(int peliculaId, float puntuacion) {
+    }
+
+    /**
+     * Puntuaciones tal como se leen (usuario ya numerado, ID de película de
+     * TMDb y puntuación), en arrays que crecen según se añaden.
+     */
+    public static final class Puntuaciones {
+
+        private int[] usuarios = new int[1024];
+        private int[] peliculas = new int[1024];
+        private float[] valores = new float[1024];
+        private int tam;
+
+        public void anadir(int usuario, int peliculaId, float valor) {
+            if (tam == usuarios.length) {
+                int nuevo = tam * 2;
+                usuarios = Arrays.copyOf(usuarios, nuevo);
+                peliculas = Arrays.copyOf(peliculas, nuevo);
+                valores = Arrays.copyOf(valores, nuevo);
+            }
+            usuarios[tam] = usuario;
+            peliculas[tam] = peliculaId;
+            valores[tam] = valor;
+            tam++;
+        }
+
+        public int tam() {
+            return tam;
+        }
+    }
+
+    // Tareas del pool más pequeñas que esto no se dividen
+    private static final int TRAMO_USUARIOS = 512;
+    private static final int TRAMO_PELICULAS = 32;
+
+    // Índice denso -> ID de TMDb, ordenado (el índice de un ID es su posición)
+    private final int[] peliculas;
+
+    // Películas de cada usuario y su puntuación centrada en la media del usuario
+    private final int[] inicioUsuario;
+    private final int[] peliculasUsuario;
+    private final float[] valoresUsuario;
+
+    // Vecinos de cada película y su similitud
+    private final int[] inicioVecinos;
+    private final int[] vecinos;
+    private final float[] similitudes;
+
+    private ModeloSimilitud(int[] peliculas, int[] inicioUsuario, int[] peliculasUsuario, float[] valoresUsuario,
+            int[] inicioVecinos, int[] vecinos, float[] similitudes) {
+        this.peliculas = peliculas;
+        this.inicioUsuario = inicioUsuario;
+        this.peliculasUsuario = peliculasUsuario;
+        this.valoresUsuario = valoresUsuario;
+        this.inicioVecinos = inicioVecinos;
+        this.vecinos = vecinos;
+        this.similitudes = similitudes;
+    }
+
+    public int numPeliculas() {
+        return peliculas.length;
+    }
+
+    public int numUsuarios() {
+        return inicioUsuario.length - 1;
+    }
+
+    public int numPuntuaciones() {
+        return peliculasUsuario.length;
+    }
+
+    public int numVecinos() {
+        return vecinos.length;
+    }
+
+    /**
+     * IDs de TMDb de las películas que ha puntuado el usuario, en orden.
+     */
+    int[] peliculasDe(int usuario) {
+        int[] resultado = new int[inicioUsuario[usuario + 1] - inicioUsuario[usuario]];
+        for (int t = 0; t < resultado.length; t++) {
+            resultado[t] = peliculas[peliculasUsuario[inicioUsuario[usuario] + t]];
+        }
+        return resultado;
+    }
+
+    /**
+     * Puntuaciones centradas del usuario, en el orden de peliculasDe.
+     */
+    float[] valoresDe(int usuario) {
+        return Arrays.copyOfRange(valoresUsuario, inicioUsuario[usuario], inicioUsuario[usuario + 1]);
+    }
+
+    /**
+     * Vecinos guardados de la película, de más a menos parecido.
+     */
+    List<Recomendacion> vecinosDe(int peliculaId) {
+        int i = Arrays.binarySearch(peliculas, peliculaId);
+        if (i < 0) {
+            return List.of();
+        }
+        List<Recomendacion> resultado = new ArrayList<>();
+        for (int v = inicioVecinos[i]; v < inicioVecinos[i + 1]; v++) {
+            resultado.add(new Recomendacion(peliculas[vecinos[v]], similitudes[v]));
+        }
+        resultado.sort((x, y) -> Float.compare(y.puntuacion(), x.puntuacion()));
+        return resultado;
+    }
+
+    /**
+     * Memoria que ocupan los arrays del modelo, en bytes.
+     */
+    public long tamanoBytes() {
+        return 4L * (peliculas.length + inicioUsuario.length + peliculasUsuario.length + valoresUsuario.length
+                + inicioVecinos.length + vecinos.length + similitudes.length);
+    }
+
+    /**
+     * Construye el modelo repartiendo el trabajo en el pool.
+     *
+     * @param numUsuarios Los usuarios de las puntuaciones van de 0 a
+     *                    numUsuarios - 1.
+     */
+    public static ModeloSimilitud construir(Puntuaciones entrada, int numUsuarios, Parametros parametros,
+            ForkJoinPool pool) {
+        int n = entrada.tam;
+
+        // IDs de TMDb distintos, ordenados
+        int[] peliculas = Arrays.copyOf(entrada.peliculas, n);
+        Arrays.parallelSort(peliculas);
+        int distintas = 0;
+        for (int k = 0; k < n; k++) {
+            if (distintas == 0 || peliculas[distintas - 1] != peliculas[k]) {
+                peliculas[distintas++] = peliculas[k];
+            }
+        }
+        peliculas = Arrays.copyOf(peliculas, distintas);
+        int numPeliculas = distintas;
+
+        // Puntuaciones agrupadas por usuario. Cada una se empaqueta en un long
+        // (película en la parte alta, bits de la puntuación en la baja) para
+        // ordenarlas por película sin objetos intermedios.
+        int[] inicio = new int[numUsuarios + 1];
+        for (int k = 0; k < n; k++) {
+            inicio[entrada.usuarios[k] + 1]++;
+        }
+        for (int u = 0; u < numUsuarios; u++) {
+            inicio[u + 1] += inicio[u];
+        }
+        int[] posicion = Arrays.copyOf(inicio, numUsuarios);
+        long[] pares = new long[n];
+        for (int k = 0; k < n; k++) {
+            int pelicula = Arrays.binarySearch(peliculas, entrada.peliculas[k]);
+            pares[posicion[entrada.usuarios[k]]++] = empaquetar(pelicula, entrada.valores[k]);
+        }
+
+        // Por usuario: ordenar, juntar las críticas repetidas de una película
+        // (media) y centrar en la media del usuario
+        int[] grado = new int[numUsuarios];
+        enParalelo(pool, numUsuarios, TRAMO_USUARIOS, (desde, hasta) -> {
+            for (int u = desde; u < hasta; u++) {
+                grado[u] = normalizarUsuario(pares, inicio[u], inicio[u + 1]);
+            }
+        });
+
+        int[] inicioUsuario = new int[numUsuarios + 1];
+        for (int u = 0; u < numUsuarios; u++) {
+            inicioUsuario[u + 1] = inicioUsuario[u] + grado[u];
+        }
+        int[] peliculasUsuario = new int[inicioUsuario[numUsuarios]];
+        float[] valoresUsuario = new float[inicioUsuario[numUsuarios]];
+        enParalelo(pool, numUsuarios, TRAMO_USUARIOS, (desde, hasta) -> {
+            for (int u = desde; u < hasta; u++) {
+                for (int t = 0; t < grado[u]; t++) {
+                    long par = pares[inicio[u] + t];
+                    peliculasUsuario[inicioUsuario[u] + t] = (int) (par >>> 32);
+                    valoresUsuario[inicioUsuario[u] + t] = Float.intBitsToFloat((int) par);
+                }
+            }
+        });
+
+        // Traspuesta: usuarios de cada película (en orden de usuario) y norma de
+        // cada columna
+        int[] inicioPelicula = new int[numPeliculas + 1];
+        for (int pelicula : peliculasUsuario) {
+            inicioPelicula[pelicula + 1]++;
+        }
+        for (int i = 0; i < numPeliculas; i++) {
+            inicioPelicula[i + 1] += inicioPelicula[i];
+        }
+        int[] usuariosPelicula = new int[peliculasUsuario.length];
+        float[] valoresPelicula = new float[peliculasUsuario.length];
+        int[] siguiente = Arrays.copyOf(inicioPelicula, numPeliculas);
+        for (int u = 0; u < numUsuarios; u++) {
+            for (int b = inicioUsuario[u]; b < inicioUsuario[u + 1]; b++) {
+                int destino = siguiente[peliculasUsuario[b]]++;
+                usuariosPelicula[destino] = u;
+                valoresPelicula[destino] = valoresUsuario[b];
+            }
+        }
+        float[] norma = new float[numPeliculas];
+        for (int i = 0; i < numPeliculas; i++) {
+            double suma = 0;
+            for (int a = inicioPelicula[i]; a < inicioPelicula[i + 1]; a++) {
+                suma += (double) valoresPelicula[a] * valoresPelicula[a];
+            }
+            norma[i] = (float) Math.sqrt(suma);
+        }
+
+        // Similitudes: cada tarea recorre sus películas con un acumulador denso y
+        // se queda con los mejores vecinos de cada una. Los acumuladores se
+        // reutilizan entre tareas (como mucho uno por hilo del pool a la vez).
+        int k = parametros.vecinos();
+        int[] vecinosTmp = new int[numPeliculas * k];
+        float[] similitudesTmp = new float[numPeliculas * k];
+        int[] numVecinos = new int[numPeliculas];
+        ConcurrentLinkedQueue<Acumulador> acumuladores = new ConcurrentLinkedQueue<>();
+        Columnas columnas = new Columnas(inicioPelicula, usuariosPelicula, valoresPelicula, norma);
+        Filas filas = new Filas(inicioUsuario, peliculasUsuario, valoresUsuario);
+        enParalelo(pool, numPeliculas, TRAMO_PELICULAS, (desde, hasta) -> {
+            Acumulador acumulador = acumuladores.poll();
+            if (acumulador == null) {
+                acumulador = new Acumulador(numPeliculas, k);
+            }
+            for (int i = desde; i < hasta; i++) {
+                numVecinos[i] = acumulador.vecinosDe(i, columnas, filas, parametros, vecinosTmp, similitudesTmp,
+                        i * k);
+            }
+            acumuladores.offer(acumulador);
+        });
+
+        int[] inicioVecinos = new int[numPeliculas + 1];
+        for (int i = 0; i < numPeliculas; i++) {
+            inicioVecinos[i + 1] = inicioVecinos[i] + numVecinos[i];
+        }
+        int[] vecinos = new int[inicioVecinos[numPeliculas]];
+        float[] similitudes = new float[inicioVecinos[numPeliculas]];
+        for (int i = 0; i < numPeliculas; i++) {
+            System.arraycopy(vecinosTmp, i * k, vecinos, inicioVecinos[i], numVecinos[i]);
+            System.arraycopy(similitudesTmp, i * k, similitudes, inicioVecinos[i], numVecinos[i]);
+        }
+
+        return new ModeloSimilitud(peliculas, inicioUsuario, peliculasUsuario, valoresUsuario, inicioVecinos,
+                vecinos, similitudes);
+    }
+
+    /**
+     * Películas recomendadas para el usuario: la suma, sobre lo que ha
+     * puntuado, de la similitud de cada vecino por su puntuación centrada. Un
+     * usuario que lo ha puntuado todo igual cuenta cada película con peso 1.
+     *
+     * @param usuario   Usuario numerado como en la construcción.
+     * @param excluidas IDs de TMDb que no se deben recomendar (ej. vistas).
+     * @return Las mejores de mayor a menor puntuación, vacía si el usuario no
+     *         tiene críticas en el modelo.
+     */
+    public List<Recomendacion> recomendar(int usuario, int[] excluidas, int limite) {
+        if (usuario < 0 || usuario >= numUsuarios() || limite <= 0) {
+            return List.of();
+        }
+        int ini = inicioUsuario[usuario];
+        int fin = inicioUsuario[usuario + 1];
+
+        BitSet fuera = new BitSet(peliculas.length);
+        boolean todasIguales = true;
+        for (int b = ini; b < fin; b++) {
+            fuera.set(peliculasUsuario[b]);
+            todasIguales &= valoresUsuario[b] == 0;
+        }
+        for (int peliculaId : excluidas) {
+            int pelicula = Arrays.binarySearch(peliculas, peliculaId);
+            if (pelicula >= 0) {
+                fuera.set(pelicula);
+            }
+        }
+
+        float[] puntuacion = new float[peliculas.length];
+        BitSet tocadas = new BitSet(peliculas.length);
+        for (int b = ini; b < fin; b++) {
+            float peso = todasIguales ? 1f : valoresUsuario[b];
+            if (peso == 0) {
+                continue;
+            }
+            int i = peliculasUsuario[b];
+            for (int v = inicioVecinos[i]; v < inicioVecinos[i + 1]; v++) {
+                int j = vecinos[v];
+                if (!fuera.get(j)) {
+                    puntuacion[j] += peso * similitudes[v];
+                    tocadas.set(j);
+                }
+            }
+        }
+
+        MonticuloMinimo mejores = new MonticuloMinimo(limite);
+        for (int j = tocadas.nextSetBit(0); j >= 0; j = tocadas.nextSetBit(j + 1)) {
+            if (puntuacion[j] > 0) {
+                mejores.ofrecer(j, puntuacion[j]);
+            }
+        }
+        List<Recomendacion> resultado = new ArrayList<>(mejores.tam);
+        for (int t = 0; t < mejores.tam; t++) {
+            resultado.add(new Recomendacion(peliculas[mejores.ids[t]], mejores.valores[t]));
+        }
+        resultado.sort((a, b) -> Float.compare(b.puntuacion(), a.puntuacion()));
+        return resultado;
+    }
+
+    private static long empaquetar(int pelicula, float valor) {
+        return ((long) pelicula << 32) | (Float.floatToRawIntBits(valor) & 0xFFFFFFFFL);
+    }
+
+    // Ordena las puntuaciones del usuario, junta las repetidas y las centra.
+    // Deja el resultado al principio del tramo y devuelve cuántas quedan.
+    private static int normalizarUsuario(long[] pares, int ini, int fin) {
+        Arrays.sort(pares, ini, fin);
+        int escritas = 0;
+        double sumaUsuario = 0;
+        int a = ini;
+        while (a < fin) {
+            int pelicula = (int) (pares[a] >>> 32);
+            double suma = 0;
+            int repetidas = 0;
+            while (a < fin && (int) (pares[a] >>> 32) == pelicula) {
+                suma += Float.intBitsToFloat((int) pares[a]);
+                repetidas++;
+                a++;
+            }
+            float media = (float) (suma / repetidas);
+            pares[ini + escritas++] = empaquetar(pelicula, media);
+            sumaUsuario += media;
+        }
+        float mediaUsuario = escritas == 0 ? 0 : (float) (sumaUsuario / escritas);
+        for (int t = ini; t < ini + escritas; t++) {
+            pares[t] = empaquetar((int) (pares[t] >>> 32), Float.intBitsToFloat((int) pares[t]) - mediaUsuario);
+        }
+        return escritas;
+    }
+
+    private record Columnas(int[] inicio, int[] usuarios, float[] valores, float[] norma) {
+    }
+
+    private record Filas(int[] inicio, int[] peliculas, float[] valores) {
+    }
+
+    /**
+     * Memoria de trabajo de un hilo al calcular similitudes: productos y
+     * usuarios en común por película (densos, se limpian al terminar cada una),
+     * las películas tocadas y los mejores vecinos.
+     */
+    private static final class Acumulador {
+
+        private final float[] producto;
+        private final int[] comun;
+        private final int[] tocadas;
+        private final MonticuloMinimo mejores;
+
+        Acumulador(int numPeliculas, int vecinos) {
+            this.producto = new float[numPeliculas];
+            this.comun = new int[numPeliculas];
+            this.tocadas = new int[numPeliculas];
+            this.mejores = new MonticuloMinimo(vecinos);
+        }
+
+        int vecinosDe(int i, Columnas columnas, Filas filas, Parametros parametros, int[] vecinos,
+                float[] similitudes, int destino) {
+            if (columnas.norma()[i] == 0) {
+                return 0;
+            }
+            int maximo = parametros.maxPorUsuario();
+            int numTocadas = 0;
+            for (int a = columnas.inicio()[i]; a < columnas.inicio()[i + 1]; a++) {
+                float valor = columnas.valores()[a];
+                if (valor == 0) {
+                    continue;
+                }
+                int u = columnas.usuarios()[a];
+                int ini = filas.inicio()[u];
+                int grado = filas.inicio()[u + 1] - ini;
+                int pasos = Math.min(grado, maximo);
+                for (int t = 0; t < pasos; t++) {
+                    int b = ini + (grado <= maximo ? t : (int) ((long) t * grado / maximo));
+                    int j = filas.peliculas()[b];
+                    if (j == i) {
+                        continue;
+                    }
+                    if (comun[j]++ == 0) {
+                        tocadas[numTocadas++] = j;
+                    }
+                    producto[j] += valor * filas.valores()[b];
+                }
+            }
+
+            mejores.vaciar();
+            for (int t = 0; t < numTocadas; t++) {
+                int j = tocadas[t];
+                if (comun[j] >= parametros.minimoComun() && columnas.norma()[j] > 0 && producto[j] > 0) {
+                    float similitud = producto[j] / (columnas.norma()[i] * columnas.norma()[j])
+                            * comun[j] / (comun[j] + parametros.encogimiento());
+                    mejores.ofrecer(j, similitud);
+                }
+                producto[j] = 0;
+                comun[j] = 0;
+            }
+            System.arraycopy(mejores.ids, 0, vecinos, destino, mejores.tam);
+            System.arraycopy(mejores.valores, 0, similitudes, destino, mejores.tam);
+            return mejores.tam;
+        }
+    }
+
+    /**
+     * Los pares (id, valor) de mayor valor vistos, como mucho capacidad, en un
+     * montículo de mínimos sobre arrays: la raíz es el peor y es el que sale.
+     */
+    private static final class MonticuloMinimo {
+
+        private final int[] ids;
+        private final float[] valores;
+        private int tam;
+
+        MonticuloMinimo(int capacidad) {
+            this.ids = new int[capacidad];
+            this.valores = new float[capacidad];
+        }
+
+        void vaciar() {
+            tam = 0;
+        }
+
+        void ofrecer(int id, float valor) {
+            if (tam < ids.length) {
+                int t = tam++;
+                while (t > 0) {
+                    int padre = (t - 1) / 2;
+                    if (valores[padre] <= valor) {
+                        break;
+                    }
+                    ids[t] = ids[padre];
+                    valores[t] = valores[padre];
+                    t = padre;
+                }
+                ids[t] = id;
+                valores[t] = valor;
+            } else if (tam > 0 && valor > valores[0]) {
+                int t = 0;
+                while (true) {
+                    int hijo = 2 * t + 1;
+                    if (hijo >= tam) {
+                        break;
+                    }
+                    if (hijo + 1 < tam && valores[hijo + 1] < valores[hijo]) {
+                        hijo++;
+                    }
+                    if (valores[hijo] >= valor) {
+                        break;
+                    }
+                    ids[t] = ids[hijo];
+                    valores[t] = valores[hijo];
+                    t = hijo;
+                }
+                ids[t] = id;
+                valores[t] = valor;
+            }
+        }
+    }
+
+    /**
+     * Trabajo sobre un rango de índices [desde, hasta).
+     */
+    @FunctionalInterface
+    private interface Tramo {
+        void procesar(int desde, int hasta);
+    }
+
+    private static void enParalelo(ForkJoinPool pool, int n, int minimo, Tramo tramo) {
+        pool.invoke(new Particion(0, n, minimo, tramo));
+    }
+
+    /**
+     * Divide el rango por la mitad hasta que queda por debajo de minimo. Con
+     * tramos pequeños el robo de tareas reparte bien aunque unas películas
+     * cuesten mucho más que otras.
+     */
+    private static final class Particion extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int desde;
+        private final int hasta;
+        private final int minimo;
+        private final Tramo tramo;
+
+        Particion(int desde, int hasta, int minimo, Tramo tramo) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.minimo = minimo;
+            this.tramo = tramo;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde <= minimo) {
+                tramo.procesar(desde, hasta);
+                return;
+            }
+            int mitad = (desde + hasta) >>> 1;
+            invokeAll(new Particion(desde, mitad, minimo, tramo), new Particion(mitad, hasta, minimo, tramo));
+        }
+    }
+}
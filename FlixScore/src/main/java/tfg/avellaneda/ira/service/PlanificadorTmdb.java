@@ -0,0 +1,351 @@
+package tfg.avellaneda.ira.service;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.ContextView;
+import tfg.avellaneda.ira.config.TmdbProperties;
+
+/**
+ * Planificador global de las peticiones salientes a TMDb.
+ * Se engancha como filtro del WebClient de TmdbService, así que cualquier
+ * petición hecha a partir de getBaseRequest() pasa por aquí:
+ *
+ * - Limita las peticiones por segundo (cubo de fichas) y las que están en
+ * vuelo a la vez, para todo el proceso y no por búsqueda. Una petición está
+ * en vuelo hasta que se ha leído (o descartado) el cuerpo de su respuesta.
+ * - Si TMDb responde 429, respeta la cabecera Retry-After: pausa todas las
+ * salidas y vuelve a encolar la petición al principio de su carril.
+ * - Tiene dos carriles: las búsquedas de los usuarios (INTERACTIVO) siempre
+ * salen antes que el trabajo en segundo plano (refrescos de caché, etc.).
+ *
+ * El carril se elige con el contexto de Reactor (ver enSegundoPlano). Publica
+ * como métricas el tamaño de cada cola y el tiempo de espera.
+ */
+@Component
+public class PlanificadorTmdb {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanificadorTmdb.class);
+
+    /**
+     * Clave del contexto de Reactor con el carril de la petición.
+     */
+    public static final String CLAVE_CARRIL = PlanificadorTmdb.class.getName() + ".carril";
+
+    // Si TMDb no manda Retry-After esperamos esto antes de reintentar
+    private static final Duration ESPERA_POR_DEFECTO = Duration.ofSeconds(1);
+
+    public enum Carril {
+        INTERACTIVO, SEGUNDO_PLANO
+    }
+
+    /**
+     * Marca las peticiones a TMDb que haga el Mono como trabajo en segundo plano.
+     */
+    public static <T> Mono<T> enSegundoPlano(Mono<T> mono) {
+        return mono.contextWrite(ctx -> ctx.put(CLAVE_CARRIL, Carril.SEGUNDO_PLANO));
+    }
+
+    /**
+     * Petición en espera de salir hacia TMDb.
+     */
+    private static final class Pendiente {
+        final ClientRequest peticion;
+        final ExchangeFunction siguiente;
+        final MonoSink<ClientResponse> sink;
+        final ContextView contexto;
+        final Carril carril;
+        final long encoladaEn = System.nanoTime();
+        int intentos;
+        volatile boolean cancelada;
+        volatile Disposable enCurso;
+
+        Pendiente(ClientRequest peticion, ExchangeFunction siguiente, MonoSink<ClientResponse> sink,
+                ContextView contexto, Carril carril) {
+            this.peticion = peticion;
+            this.siguiente = siguiente;
+            this.sink = sink;
+            this.contexto = contexto;
+            this.carril = carril;
+        }
+    }
+
+    private final double peticionesPorSegundo;
+    private final int maxConcurrentes;
+    private final int maxCola;
+    private final int maxReintentos;
+
+    // Estado compartido, siempre protegido por el monitor de this
+    private final Map<Carril, Deque<Pendiente>> colas = new EnumMap<>(Carril.class);
+    private int enVuelo;
+    private double fichas;
+    private long ultimaRecarga = System.nanoTime();
+    private long pausadoHasta = ultimaRecarga;
+    private boolean drenadoProgramado;
+
+    private final Map<Carril, Timer> esperas = new EnumMap<>(Carril.class);
+    private final Counter limitadas;
+    private final Counter rechazadas;
+
+    public PlanificadorTmdb(TmdbProperties propiedades, MeterRegistry registry) {
+        TmdbProperties.Planificador conf = propiedades.getPlanificador();
+        this.peticionesPorSegundo = conf.getPeticionesPorSegundo();
+        this.maxConcurrentes = conf.getMaxConcurrentes();
+        this.maxCola = conf.getMaxCola();
+        this.maxReintentos = conf.getMaxReintentos();
+        this.fichas = capacidad();
+
+        for (Carril carril : Carril.values()) {
+            String nombre = carril.name().toLowerCase(Locale.ROOT);
+            colas.put(carril, new ArrayDeque<>());
+            esperas.put(carril, Timer.builder("tmdb.planificador.espera")
+                    .description("Tiempo que una petición a TMDb espera en la cola")
+                    .tag("carril", nombre)
+                    .register(registry));
+            Gauge.builder("tmdb.planificador.cola", this, p -> p.tamCola(carril))
+                    .description("Peticiones a TMDb esperando para salir")
+                    .tag("carril", nombre)
+                    .register(registry);
+        }
+        Gauge.builder("tmdb.planificador.en.vuelo", this, PlanificadorTmdb::peticionesEnVuelo)
+                .description("Peticiones a TMDb en curso")
+                .register(registry);
+        this.limitadas = Counter.builder("tmdb.planificador.limitadas")
+                .description("Respuestas 429 (Too Many Requests) de TMDb")
+                .register(registry);
+        this.rechazadas = Counter.builder("tmdb.planificador.rechazadas")
+                .description("Peticiones rechazadas por tener la cola llena")
+                .register(registry);
+    }
+
+    /**
+     * Filtro para el WebClient de TMDb: cada petición espera su turno aquí.
+     */
+    public ExchangeFilterFunction filtro() {
+        return (peticion, siguiente) -> Mono.deferContextual(contexto -> Mono.create(sink -> {
+            Carril carril = contexto.getOrDefault(CLAVE_CARRIL, Carril.INTERACTIVO);
+            Pendiente pendiente = new Pendiente(peticion, siguiente, sink, contexto, carril);
+            sink.onCancel(() -> {
+                pendiente.cancelada = true;
+                // Si aún esperaba, deja su sitio en la cola (cuenta para maxCola)
+                synchronized (this) {
+                    colas.get(carril).remove(pendiente);
+                }
+                Disposable enCurso = pendiente.enCurso;
+                if (enCurso != null) {
+                    enCurso.dispose();
+                }
+            });
+            encolar(pendiente);
+        }));
+    }
+
+    private void encolar(Pendiente pendiente) {
+        synchronized (this) {
+            if (tamColas() >= maxCola) {
+                rechazadas.increment();
+                pendiente.sink.error(new IllegalStateException(
+                        "Demasiadas peticiones a TMDb en espera, inténtalo más tarde."));
+                return;
+            }
+            colas.get(pendiente.carril).addLast(pendiente);
+        }
+        drenar();
+    }
+
+    /**
+     * Lanza todas las peticiones que permitan los límites. Si alguna tiene que
+     * esperar a que haya fichas o acabe una pausa por 429, se programa otro
+     * drenado para entonces.
+     */
+    private void drenar() {
+        List<Pendiente> aLanzar = new ArrayList<>();
+        synchronized (this) {
+            long ahora = System.nanoTime();
+            recargarFichas(ahora);
+
+            long retraso = 0;
+            while (enVuelo < maxConcurrentes) {
+                Pendiente pendiente = siguiente();
+                if (pendiente == null) {
+                    break;
+                }
+                if (ahora < pausadoHasta) {
+                    retraso = pausadoHasta - ahora;
+                    break;
+                }
+                if (fichas < 1) {
+                    retraso = (long) Math.ceil((1 - fichas) / peticionesPorSegundo * 1_000_000_000L);
+                    break;
+                }
+                colas.get(pendiente.carril).pollFirst();
+                fichas -= 1;
+                enVuelo++;
+                aLanzar.add(pendiente);
+            }
+
+            if (retraso > 0 && !drenadoProgramado) {
+                drenadoProgramado = true;
+                Schedulers.parallel().schedule(() -> {
+                    synchronized (this) {
+                        drenadoProgramado = false;
+                    }
+                    drenar();
+                }, retraso, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        // Las peticiones se lanzan fuera del monitor
+        aLanzar.forEach(this::lanzar);
+    }
+
+    // Primera petición no cancelada, dando prioridad al carril interactivo
+    private Pendiente siguiente() {
+        for (Carril carril : Carril.values()) {
+            Deque<Pendiente> cola = colas.get(carril);
+            while (!cola.isEmpty()) {
+                if (!cola.peekFirst().cancelada) {
+                    return cola.peekFirst();
+                }
+                cola.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    private void lanzar(Pendiente pendiente) {
+        if (pendiente.cancelada) {
+            liberar();
+            return;
+        }
+        if (pendiente.intentos == 0) {
+            esperas.get(pendiente.carril).record(System.nanoTime() - pendiente.encoladaEn, TimeUnit.NANOSECONDS);
+        }
+        pendiente.intentos++;
+
+        // El hueco se libera una sola vez: al acabar el cuerpo de la respuesta
+        // o, si no llega respuesta, al fallar o cancelarse la petición
+        AtomicBoolean liberada = new AtomicBoolean();
+        Runnable liberarUnaVez = () -> {
+            if (liberada.compareAndSet(false, true)) {
+                liberar();
+            }
+        };
+        pendiente.enCurso = pendiente.siguiente.exchange(pendiente.peticion)
+                .contextWrite(pendiente.contexto)
+                .doOnError(e -> liberarUnaVez.run())
+                .doOnCancel(liberarUnaVez)
+                .subscribe(recibida -> {
+                    // exchange() emite al llegar las cabeceras; el cuerpo aún se está recibiendo
+                    ClientResponse respuesta = recibida.mutate()
+                            .body(cuerpo -> cuerpo.doFinally(senal -> liberarUnaVez.run()))
+                            .build();
+                    if (pendiente.cancelada) {
+                        respuesta.releaseBody().subscribe();
+                    } else if (respuesta.statusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()
+                            && pendiente.intentos <= maxReintentos) {
+                        reintentar(pendiente, respuesta);
+                    } else {
+                        pendiente.sink.success(respuesta);
+                    }
+                }, pendiente.sink::error);
+    }
+
+    // TMDb nos ha limitado: pausamos todas las salidas y la petición vuelve a la cola
+    private void reintentar(Pendiente pendiente, ClientResponse respuesta) {
+        Duration espera = leerRetryAfter(respuesta.headers().asHttpHeaders());
+        limitadas.increment();
+        logger.warn("TMDb ha respondido 429, pausando las peticiones {} ms (intento {} de {})",
+                espera.toMillis(), pendiente.intentos, maxReintentos);
+
+        respuesta.releaseBody().subscribe();
+        synchronized (this) {
+            pausadoHasta = Math.max(pausadoHasta, System.nanoTime() + espera.toNanos());
+            colas.get(pendiente.carril).addFirst(pendiente);
+        }
+    }
+
+    private void liberar() {
+        synchronized (this) {
+            enVuelo--;
+        }
+        drenar();
+    }
+
+    private void recargarFichas(long ahora) {
+        double generadas = (ahora - ultimaRecarga) / 1_000_000_000d * peticionesPorSegundo;
+        fichas = Math.min(capacidad(), fichas + generadas);
+        ultimaRecarga = ahora;
+    }
+
+    // Permitimos ráfagas de como mucho un segundo de presupuesto
+    private double capacidad() {
+        return Math.max(1, peticionesPorSegundo);
+    }
+
+    /**
+     * Retry-After puede venir en segundos o como fecha HTTP.
+     */
+    static Duration leerRetryAfter(HttpHeaders cabeceras) {
+        String valor = cabeceras.getFirst(HttpHeaders.RETRY_AFTER);
+        if (valor == null || valor.isBlank()) {
+            return ESPERA_POR_DEFECTO;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(valor.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration hastaFecha = Duration.between(ZonedDateTime.now(),
+                        ZonedDateTime.parse(valor.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return hastaFecha.isNegative() ? Duration.ZERO : hastaFecha;
+            } catch (DateTimeParseException ex) {
+                return ESPERA_POR_DEFECTO;
+            }
+        }
+    }
+
+    private synchronized int tamCola(Carril carril) {
+        return colas.get(carril).size();
+    }
+
+    private synchronized int tamColas() {
+        int total = 0;
+        for (Deque<Pendiente> cola : colas.values()) {
+            total += cola.size();
+        }
+        return total;
+    }
+
+    private synchronized int peticionesEnVuelo() {
+        return enVuelo;
+    }
+}
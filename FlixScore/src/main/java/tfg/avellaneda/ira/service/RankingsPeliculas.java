@@ -0,0 +1,248 @@
+package tfg.avellaneda.ira.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloClasificacion;
+import tfg.avellaneda.ira.model.ModeloEstadisticasPelicula;
+import tfg.avellaneda.ira.model.ModeloPuntuacionRanking;
+import tfg.avellaneda.ira.model.TmdbGenero;
+import tfg.avellaneda.ira.repositories.CriticaRepository;
+import tfg.avellaneda.ira.util.Ficheros;
+
+/**
+ * Rankings de películas mejor valoradas, general y por género.
+ *
+ * Se recalculan periódicamente a partir de estadisticas_peliculas (un
+ * documento por película, sin recorrer las críticas) con una media ponderada
+ * bayesiana: cada película suma minimoCriticas críticas ficticias con la media
+ * global, así que una sola crítica de 10 no la pone la primera. Los géneros
+ * salen del detalle de TMDb, pedido por el carril de segundo plano y solo para
+ * las películas que no estaban en el cálculo anterior.
+ *
+ * Cada cálculo produce una instantánea inmutable que sustituye a la anterior
+ * de golpe, así que una consulta nunca ve un ranking a medias. La instantánea
+ * se guarda en disco y se carga al arrancar.
+ */
+@Component
+public class RankingsPeliculas {
+
+    private static final Logger logger = LoggerFactory.getLogger(RankingsPeliculas.class);
+
+    private static final String IDIOMA = "es-ES";
+
+    private static final Comparator<ModeloPuntuacionRanking> ORDEN = Comparator
+            .comparingDouble(ModeloPuntuacionRanking::getPuntuacion).reversed()
+            .thenComparing(Comparator.comparingLong(ModeloPuntuacionRanking::getRecuento).reversed())
+            .thenComparingInt(ModeloPuntuacionRanking::getPeliculaID);
+
+    /**
+     * Cálculo servido ahora mismo, con los rankings ya recortados a tamMaximo.
+     */
+    private record Instantanea(ModeloClasificacion clasificacion, List<ModeloPuntuacionRanking> general,
+            Map<Integer, List<ModeloPuntuacionRanking>> porGenero) {
+    }
+
+    private final CriticaRepository criticaRepository;
+    private final CacheDetallesPeliculas cacheDetalles;
+    private final ObjectMapper objectMapper;
+    private final FlixScoreProperties propiedades;
+    private final FlixScoreProperties.Rankings conf;
+
+    private volatile Instantanea actual;
+    private final AtomicBoolean calculando = new AtomicBoolean();
+
+    public RankingsPeliculas(CriticaRepository criticaRepository, CacheDetallesPeliculas cacheDetalles,
+            ObjectMapper objectMapper, FlixScoreProperties propiedades) {
+        this.criticaRepository = criticaRepository;
+        this.cacheDetalles = cacheDetalles;
+        this.objectMapper = objectMapper;
+        this.propiedades = propiedades;
+        this.conf = propiedades.getRankings();
+    }
+
+    /**
+     * Las mejor valoradas, del género indicado o de todos si es null.
+     *
+     * @return Optional vacío si aún no hay ningún ranking calculado.
+     */
+    public Optional<List<ModeloPuntuacionRanking>> top(Integer genero, int limite) {
+        Instantanea instantanea = actual;
+        if (instantanea == null) {
+            return Optional.empty();
+        }
+        List<ModeloPuntuacionRanking> ranking = genero == null
+                ? instantanea.general()
+                : instantanea.porGenero().getOrDefault(genero, List.of());
+        return Optional.of(ranking.subList(0, Math.min(limite, ranking.size())));
+    }
+
+    /**
+     * Géneros con ranking propio (ID -> nombre).
+     */
+    public Optional<Map<Integer, String>> generos() {
+        Instantanea instantanea = actual;
+        return instantanea == null ? Optional.empty() : Optional.of(instantanea.clasificacion().getGeneros());
+    }
+
+    @PostConstruct
+    public void cargar() {
+        Path fichero = Path.of(conf.getFichero());
+        if (!Files.exists(fichero)) {
+            return;
+        }
+        try {
+            ModeloClasificacion clasificacion = objectMapper.readValue(fichero.toFile(), ModeloClasificacion.class);
+            actual = instantanea(clasificacion);
+            logger.info("Rankings cargados de {} ({} películas)", fichero, clasificacion.getPeliculas().size());
+        } catch (IOException e) {
+            logger.warn("No se han podido leer los rankings de {}: {}", fichero, e.getMessage());
+        }
+    }
+
+    /**
+     * Recalcula los rankings (también al arrancar). Si el cálculo anterior no
+     * ha terminado no se lanza otro.
+     */
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.rankings.recalculo.toMillis()}")
+    public void recalcular() {
+        if (!calculando.compareAndSet(false, true)) {
+            return;
+        }
+        long inicio = System.currentTimeMillis();
+        calcular(inicio)
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(clasificacion -> {
+                    actual = instantanea(clasificacion);
+                    guardarEnDisco(clasificacion);
+                })
+                .doFinally(senal -> calculando.set(false))
+                .subscribe(clasificacion -> logger.info("Rankings recalculados en {} ms ({} películas)",
+                        System.currentTimeMillis() - inicio, clasificacion.getPeliculas().size()),
+                        e -> logger.error("Error al recalcular los rankings: {}", e.getMessage()));
+    }
+
+    private Mono<ModeloClasificacion> calcular(long inicio) {
+        Instantanea anterior = actual;
+        return criticaRepository.streamEstadisticas(propiedades.getExportacion().getTamPagina())
+                .map(document -> {
+                    ModeloEstadisticasPelicula estadisticas = document.toObject(ModeloEstadisticasPelicula.class);
+                    estadisticas.setPeliculaID(Integer.parseInt(document.getId()));
+                    return estadisticas;
+                })
+                .filter(estadisticas -> estadisticas.getRecuento() > 0)
+                .collectList()
+                .flatMap(estadisticas -> {
+                    long criticas = 0;
+                    long suma = 0;
+                    for (ModeloEstadisticasPelicula pelicula : estadisticas) {
+                        criticas += pelicula.getRecuento();
+                        suma += pelicula.getSuma();
+                    }
+                    double mediaGlobal = criticas == 0 ? 0 : (double) suma / criticas;
+                    int m = conf.getMinimoCriticas();
+
+                    List<ModeloPuntuacionRanking> puntuadas = estadisticas.stream()
+                            .map(pelicula -> new ModeloPuntuacionRanking(pelicula.getPeliculaID(), null,
+                                    (pelicula.getSuma() + m * mediaGlobal) / (pelicula.getRecuento() + m),
+                                    pelicula.getMedia(), pelicula.getRecuento(), null))
+                            .sorted(ORDEN)
+                            .limit(conf.getMaxPeliculas())
+                            .toList();
+
+                    // Títulos y géneros del cálculo anterior; solo se pide TMDb para las nuevas
+                    Map<Integer, ModeloPuntuacionRanking> conocidas = anterior == null
+                            ? Map.of()
+                            : anterior.clasificacion().getPeliculas().stream()
+                                    .filter(pelicula -> pelicula.getGenerosIds() != null)
+                                    .collect(Collectors.toMap(ModeloPuntuacionRanking::getPeliculaID,
+                                            Function.identity()));
+                    Map<Integer, String> generos = new ConcurrentHashMap<>(
+                            anterior == null ? Map.of() : anterior.clasificacion().getGeneros());
+
+                    return Flux.fromIterable(puntuadas)
+                            .flatMapSequential(pelicula -> completar(pelicula, conocidas.get(pelicula.getPeliculaID()),
+                                    generos), conf.getConcurrenciaTmdb())
+                            .collectList()
+                            .map(peliculas -> new ModeloClasificacion(inicio, mediaGlobal, m, Map.copyOf(generos),
+                                    List.copyOf(peliculas)));
+                });
+    }
+
+    private Mono<ModeloPuntuacionRanking> completar(ModeloPuntuacionRanking pelicula,
+            ModeloPuntuacionRanking conocida, Map<Integer, String> generos) {
+        if (conocida != null) {
+            pelicula.setTitulo(conocida.getTitulo());
+            pelicula.setGenerosIds(conocida.getGenerosIds());
+            return Mono.just(pelicula);
+        }
+        return PlanificadorTmdb.enSegundoPlano(cacheDetalles.obtener(pelicula.getPeliculaID(), IDIOMA))
+                .map(movie -> {
+                    List<TmdbGenero> suyos = movie.getGenres() != null ? movie.getGenres() : List.of();
+                    suyos.forEach(genero -> generos.put(genero.getId(), genero.getName()));
+                    pelicula.setTitulo(movie.getTitle());
+                    pelicula.setGenerosIds(suyos.stream().map(TmdbGenero::getId).toList());
+                    return pelicula;
+                })
+                // Sin TMDb la película sigue en el ranking general; se reintenta en el siguiente cálculo
+                .onErrorResume(e -> {
+                    logger.debug("No se han podido obtener los géneros de la película {}: {}",
+                            pelicula.getPeliculaID(), e.getMessage());
+                    return Mono.empty();
+                })
+                .defaultIfEmpty(pelicula);
+    }
+
+    private Instantanea instantanea(ModeloClasificacion clasificacion) {
+        int tam = conf.getTamMaximo();
+        List<ModeloPuntuacionRanking> peliculas = clasificacion.getPeliculas();
+        Map<Integer, List<ModeloPuntuacionRanking>> porGenero = new HashMap<>();
+        for (ModeloPuntuacionRanking pelicula : peliculas) {
+            if (pelicula.getGenerosIds() == null) {
+                continue;
+            }
+            for (int genero : pelicula.getGenerosIds()) {
+                List<ModeloPuntuacionRanking> ranking = porGenero.computeIfAbsent(genero, g -> new ArrayList<>());
+                if (ranking.size() < tam) {
+                    ranking.add(pelicula);
+                }
+            }
+        }
+        porGenero.replaceAll((genero, ranking) -> Collections.unmodifiableList(ranking));
+        return new Instantanea(clasificacion, List.copyOf(peliculas.subList(0, Math.min(tam, peliculas.size()))),
+                Map.copyOf(porGenero));
+    }
+
+    private void guardarEnDisco(ModeloClasificacion clasificacion) {
+        Path fichero = Path.of(conf.getFichero());
+        try {
+            Ficheros.escribirAtomicamente(fichero, out -> objectMapper.writeValue(out, clasificacion));
+        } catch (IOException e) {
+            logger.warn("No se han podido guardar los rankings en {}: {}", fichero, e.getMessage());
+        }
+    }
+}
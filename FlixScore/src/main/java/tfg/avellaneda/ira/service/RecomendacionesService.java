@@ -0,0 +1,150 @@
+package tfg.avellaneda.ira.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ListaUsuario;
+import tfg.avellaneda.ira.model.ModeloRecomendacion;
+import tfg.avellaneda.ira.model.ModeloSugerenciaPelicula;
+import tfg.avellaneda.ira.repositories.CriticaRepository;
+
+/**
+ * Recomendaciones de películas a partir de las puntuaciones de las críticas
+ * (ver ModeloSimilitud).
+ *
+ * El modelo se reconstruye en segundo plano cada flixscore.recomendaciones.
+ * recalculo: se leen solo usuarioUID, peliculaID y puntuacion de todas las
+ * críticas y se calcula en un ForkJoinPool propio, sin ocupar los hilos de
+ * WebFlux. Mientras tanto se sigue sirviendo el modelo anterior. Recomendar
+ * es un cálculo en memoria; la única lectura a Firestore es la lista de
+ * películas vistas del usuario, que se excluyen.
+ */
+@Service
+public class RecomendacionesService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecomendacionesService.class);
+
+    /**
+     * Modelo servido ahora mismo y la numeración de usuarios con la que se
+     * construyó.
+     */
+    private record Modelo(ModeloSimilitud similitud, Map<String, Integer> usuarios) {
+    }
+
+    /**
+     * Críticas leídas para una reconstrucción.
+     */
+    private static final class Carga {
+        final Map<String, Integer> usuarios = new HashMap<>();
+        final ModeloSimilitud.Puntuaciones puntuaciones = new ModeloSimilitud.Puntuaciones();
+
+        void anadir(String usuarioUID, int peliculaId, int puntuacion) {
+            int usuario = usuarios.computeIfAbsent(usuarioUID, uid -> usuarios.size());
+            puntuaciones.anadir(usuario, peliculaId, puntuacion);
+        }
+    }
+
+    private final CriticaRepository criticaRepository;
+    private final UsuarioService usuarioService;
+    private final IndiceTitulos indiceTitulos;
+    private final FlixScoreProperties propiedades;
+    private final FlixScoreProperties.Recomendaciones conf;
+    private final ForkJoinPool pool;
+
+    private volatile Modelo actual;
+    private final AtomicBoolean calculando = new AtomicBoolean();
+
+    public RecomendacionesService(CriticaRepository criticaRepository, UsuarioService usuarioService,
+            IndiceTitulos indiceTitulos, FlixScoreProperties propiedades) {
+        this.criticaRepository = criticaRepository;
+        this.usuarioService = usuarioService;
+        this.indiceTitulos = indiceTitulos;
+        this.propiedades = propiedades;
+        this.conf = propiedades.getRecomendaciones();
+        this.pool = new ForkJoinPool(conf.getParalelismo() > 0
+                ? conf.getParalelismo()
+                : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Recomendaciones para el usuario, sin las películas que ya ha visto ni las
+     * que ha criticado.
+     *
+     * @return Mono con la lista vacía si el usuario no tiene críticas; con
+     *         IllegalStateException si el modelo aún no está construido.
+     */
+    public Mono<List<ModeloRecomendacion>> recomendar(String usuarioId, int limite) {
+        Modelo modelo = actual;
+        if (modelo == null) {
+            return Mono.error(new IllegalStateException("El modelo de recomendaciones aún no está construido"));
+        }
+        Integer usuario = modelo.usuarios().get(usuarioId);
+        if (usuario == null) {
+            return Mono.just(List.of());
+        }
+        return usuarioService.getValoresLista(usuarioId, ListaUsuario.VISTAS)
+                .map(vistas -> vistas.stream()
+                        .filter(Number.class::isInstance)
+                        .mapToInt(valor -> ((Number) valor).intValue())
+                        .toArray())
+                .map(excluidas -> modelo.similitud().recomendar(usuario, excluidas, limite).stream()
+                        .map(this::aModelo)
+                        .toList());
+    }
+
+    /**
+     * Reconstruye el modelo (también al arrancar). Si la reconstrucción anterior
+     * no ha terminado no se lanza otra.
+     */
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.recomendaciones.recalculo.toMillis()}")
+    public void reconstruir() {
+        if (!calculando.compareAndSet(false, true)) {
+            return;
+        }
+        long inicio = System.currentTimeMillis();
+        criticaRepository.streamPuntuaciones(propiedades.getExportacion().getTamPagina())
+                .filter(document -> document.getString("usuarioUID") != null
+                        && document.getLong("peliculaID") != null && document.getLong("puntuacion") != null)
+                .collect(Carga::new, (carga, document) -> carga.anadir(document.getString("usuarioUID"),
+                        document.getLong("peliculaID").intValue(), document.getLong("puntuacion").intValue()))
+                // El cálculo bloquea hasta que termina el pool
+                .publishOn(Schedulers.boundedElastic())
+                .map(carga -> new Modelo(ModeloSimilitud.construir(carga.puntuaciones, carga.usuarios.size(),
+                        new ModeloSimilitud.Parametros(conf.getVecinos(), conf.getMinimoComun(),
+                                conf.getEncogimiento(), conf.getMaxPorUsuario()),
+                        pool), Map.copyOf(carga.usuarios)))
+                .doFinally(senal -> calculando.set(false))
+                .subscribe(modelo -> {
+                    actual = modelo;
+                    ModeloSimilitud similitud = modelo.similitud();
+                    logger.info("Modelo de recomendaciones construido en {} ms: {} críticas, {} películas, "
+                            + "{} usuarios, {} vecinos, {} KB", System.currentTimeMillis() - inicio,
+                            similitud.numPuntuaciones(), similitud.numPeliculas(), similitud.numUsuarios(),
+                            similitud.numVecinos(), similitud.tamanoBytes() / 1024);
+                }, e -> logger.error("Error al construir el modelo de recomendaciones: {}", e.getMessage()));
+    }
+
+    private ModeloRecomendacion aModelo(ModeloSimilitud.Recomendacion recomendacion) {
+        ModeloSugerenciaPelicula pelicula = indiceTitulos.get(recomendacion.peliculaId()).orElse(null);
+        return new ModeloRecomendacion(recomendacion.peliculaId(), recomendacion.puntuacion(),
+                pelicula != null ? pelicula.getTitulo() : null,
+                pelicula != null ? pelicula.getRutaPoster() : null);
+    }
+}
@@ -0,0 +1,382 @@
+package tfg.avellaneda.ira.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloSugerenciaPelicula;
+import tfg.avellaneda.ira.model.ModeloTendencia;
+import tfg.avellaneda.ira.repositories.CriticaRepository;
+import tfg.avellaneda.ira.util.Ficheros;
+
+/**
+ * Películas en tendencia: las que más críticas y vistas han tenido en la
+ * última ventana (una semana por defecto), contadas en memoria.
+ *
+ * La ventana se divide en cubos de tiempo (una hora por defecto) y cada cubo
+ * es un Count-Min sketch: profundidad filas de anchura contadores, una función
+ * hash por fila. Además se mantiene la suma de los cubos vivos, así que la
+ * estimación de una película es el mínimo de sus profundidad contadores
+ * (puede pasarse por arriba, nunca por abajo). Al avanzar el reloj, los cubos
+ * que salen de la ventana se restan de la suma y se vacían.
+ *
+ * Para el ranking se siguen las flixscore.tendencias.candidatos películas con
+ * más eventos en un conjunto ordenado por estimación (un top-k): una película
+ * nueva entra si supera a la última, que sale.
+ *
+ * Los contadores se guardan en disco periódicamente y al parar. Al arrancar se
+ * cargan y se vuelven a contar las críticas creadas desde que se guardaron
+ * (las vistas de ese intervalo se pierden). Cada instancia cuenta los eventos
+ * que pasan por ella.
+ */
+@Component
+public class TendenciasPeliculas {
+
+    private static final Logger logger = LoggerFactory.getLogger(TendenciasPeliculas.class);
+
+    // Versión del formato del fichero de contadores
+    private static final int FORMATO = 1;
+
+    private record Candidato(int peliculaId, long estimacion) {
+    }
+
+    private static final Comparator<Candidato> ORDEN = Comparator.comparingLong(Candidato::estimacion)
+            .thenComparingInt(Candidato::peliculaId);
+
+    private final CriticaRepository criticaRepository;
+    private final IndiceTitulos indiceTitulos;
+    private final FlixScoreProperties propiedades;
+    private final FlixScoreProperties.Tendencias conf;
+    private final Clock reloj;
+
+    private final long cuboMs;
+    private final int numCubos;
+    private final int profundidad;
+    private final int anchura;
+
+    // Protegido todo por el monitor de this. Un cubo vacío es null.
+    private final long[] epocas;
+    private final int[][][] cubos;
+    private final long[][] total;
+    private final Map<Integer, Candidato> candidatos = new HashMap<>();
+    private final TreeSet<Candidato> ranking = new TreeSet<>(ORDEN);
+    private long epocaActual = Long.MIN_VALUE;
+    private boolean cambiado;
+
+    // Momento desde el que hay que volver a contar críticas al arrancar
+    private volatile long recontarDesde;
+
+    public TendenciasPeliculas(CriticaRepository criticaRepository, IndiceTitulos indiceTitulos,
+            FlixScoreProperties propiedades, Clock reloj) {
+        this.criticaRepository = criticaRepository;
+        this.indiceTitulos = indiceTitulos;
+        this.propiedades = propiedades;
+        this.conf = propiedades.getTendencias();
+        this.reloj = reloj;
+        this.cuboMs = conf.getCubo().toMillis();
+        this.numCubos = (int) Math.max(1, conf.getVentana().toMillis() / cuboMs);
+        this.profundidad = conf.getProfundidad();
+        this.anchura = conf.getAnchura();
+        this.epocas = new long[numCubos];
+        this.cubos = new int[numCubos][][];
+        this.total = new long[profundidad][anchura];
+    }
+
+    public void registrarCritica(int peliculaId, long instante) {
+        registrar(peliculaId, instante, conf.getPesoCritica());
+    }
+
+    public void registrarVista(int peliculaId) {
+        registrar(peliculaId, reloj.millis(), conf.getPesoVista());
+    }
+
+    /**
+     * Las películas con más actividad en la ventana, de más a menos.
+     */
+    public List<ModeloTendencia> top(int limite) {
+        List<Candidato> mejores = new ArrayList<>(limite);
+        synchronized (this) {
+            avanzar(epoca(reloj.millis()));
+            Iterator<Candidato> it = ranking.descendingIterator();
+            while (it.hasNext() && mejores.size() < limite) {
+                mejores.add(it.next());
+            }
+        }
+        return mejores.stream()
+                .map(candidato -> {
+                    ModeloSugerenciaPelicula pelicula = indiceTitulos.get(candidato.peliculaId()).orElse(null);
+                    return new ModeloTendencia(candidato.peliculaId(), candidato.estimacion(),
+                            pelicula != null ? pelicula.getTitulo() : null,
+                            pelicula != null ? pelicula.getRutaPoster() : null);
+                })
+                .toList();
+    }
+
+    private synchronized void registrar(int peliculaId, long instante, int peso) {
+        avanzar(epoca(reloj.millis()));
+        // Un evento con la hora adelantada cuenta en el cubo actual
+        long epoca = Math.min(epoca(instante), epocaActual);
+        if (epoca <= epocaActual - numCubos) {
+            return;
+        }
+        int cubo = (int) Math.floorMod(epoca, (long) numCubos);
+        if (cubos[cubo] == null) {
+            cubos[cubo] = new int[profundidad][anchura];
+            epocas[cubo] = epoca;
+        }
+        long estimacion = Long.MAX_VALUE;
+        for (int fila = 0; fila < profundidad; fila++) {
+            int columna = columna(peliculaId, fila);
+            cubos[cubo][fila][columna] += peso;
+            total[fila][columna] += peso;
+            estimacion = Math.min(estimacion, total[fila][columna]);
+        }
+        actualizarCandidato(peliculaId, estimacion);
+        cambiado = true;
+    }
+
+    // Vacía los cubos que han salido de la ventana y, si alguno tenía eventos,
+    // recalcula las estimaciones de los candidatos
+    private void avanzar(long epoca) {
+        if (epoca <= epocaActual) {
+            return;
+        }
+        epocaActual = epoca;
+        boolean caducado = false;
+        for (int cubo = 0; cubo < numCubos; cubo++) {
+            if (cubos[cubo] != null && epocas[cubo] <= epoca - numCubos) {
+                for (int fila = 0; fila < profundidad; fila++) {
+                    for (int columna = 0; columna < anchura; columna++) {
+                        total[fila][columna] -= cubos[cubo][fila][columna];
+                    }
+                }
+                cubos[cubo] = null;
+                caducado = true;
+            }
+        }
+        if (caducado) {
+            List<Integer> ids = List.copyOf(candidatos.keySet());
+            candidatos.clear();
+            ranking.clear();
+            for (int peliculaId : ids) {
+                long estimacion = estimar(peliculaId);
+                if (estimacion > 0) {
+                    actualizarCandidato(peliculaId, estimacion);
+                }
+            }
+            cambiado = true;
+        }
+    }
+
+    private void actualizarCandidato(int peliculaId, long estimacion) {
+        Candidato anterior = candidatos.get(peliculaId);
+        if (anterior != null) {
+            ranking.remove(anterior);
+        } else if (candidatos.size() >= conf.getCandidatos()) {
+            Candidato ultimo = ranking.first();
+            if (ultimo.estimacion() >= estimacion) {
+                return;
+            }
+            ranking.pollFirst();
+            candidatos.remove(ultimo.peliculaId());
+        }
+        Candidato nuevo = new Candidato(peliculaId, estimacion);
+        candidatos.put(peliculaId, nuevo);
+        ranking.add(nuevo);
+    }
+
+    private long estimar(int peliculaId) {
+        long estimacion = Long.MAX_VALUE;
+        for (int fila = 0; fila < profundidad; fila++) {
+            estimacion = Math.min(estimacion, total[fila][columna(peliculaId, fila)]);
+        }
+        return estimacion;
+    }
+
+    // Hash distinto por fila (SplitMix64 sobre el ID y la fila). Es fijo para
+    // que los contadores guardados sigan valiendo tras reiniciar.
+    private int columna(int peliculaId, int fila) {
+        long h = peliculaId + (fila + 1) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h = h ^ (h >>> 31);
+        return (int) Long.remainderUnsigned(h, anchura);
+    }
+
+    private long epoca(long instante) {
+        return Math.floorDiv(instante, cuboMs);
+    }
+
+    @PostConstruct
+    public void cargar() {
+        recontarDesde = reloj.millis() - conf.getVentana().toMillis();
+        cargarDeDisco();
+    }
+
+    /**
+     * Vuelve a contar las críticas que no estaban en los contadores guardados.
+     * Las creadas a partir de ahora ya llegan por registrarCritica.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recontar() {
+        long desde = recontarDesde;
+        long hasta = reloj.millis();
+        criticaRepository.streamCriticasDesde(desde, propiedades.getExportacion().getTamPagina())
+                .doOnNext(document -> {
+                    Long peliculaId = document.getLong("peliculaID");
+                    Long creadaEn = document.getLong("creadaEn");
+                    if (peliculaId != null && creadaEn != null && creadaEn < hasta) {
+                        registrarCritica(peliculaId.intValue(), creadaEn);
+                    }
+                })
+                .count()
+                .subscribe(contadas -> logger.info("Tendencias: {} críticas recontadas desde {}", contadas, desde),
+                        e -> logger.warn("No se han podido recontar las críticas para las tendencias: {}",
+                                e.getMessage()));
+    }
+
+    @Scheduled(fixedDelayString = "#{@flixScoreProperties.tendencias.guardado.toMillis()}",
+            initialDelayString = "#{@flixScoreProperties.tendencias.guardado.toMillis()}")
+    public void guardarPeriodicamente() {
+        guardarEnDisco(false);
+    }
+
+    @PreDestroy
+    public void guardarAlParar() {
+        guardarEnDisco(true);
+    }
+
+    private void cargarDeDisco() {
+        Path fichero = Path.of(conf.getFichero());
+        if (!Files.exists(fichero)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(fichero))))) {
+            int formato = in.readInt();
+            long guardadoEn = in.readLong();
+            if (formato != FORMATO || in.readLong() != cuboMs || in.readInt() != numCubos
+                    || in.readInt() != profundidad || in.readInt() != anchura) {
+                logger.warn("Los contadores de tendencias de {} son de otra configuración, se descartan", fichero);
+                return;
+            }
+            synchronized (this) {
+                int llenos = in.readInt();
+                for (int i = 0; i < llenos; i++) {
+                    long epoca = in.readLong();
+                    int cubo = (int) Math.floorMod(epoca, (long) numCubos);
+                    int[][] contadores = new int[profundidad][anchura];
+                    for (int fila = 0; fila < profundidad; fila++) {
+                        for (int columna = 0; columna < anchura; columna++) {
+                            contadores[fila][columna] = in.readInt();
+                            total[fila][columna] += contadores[fila][columna];
+                        }
+                    }
+                    cubos[cubo] = contadores;
+                    epocas[cubo] = epoca;
+                }
+                int numCandidatos = in.readInt();
+                for (int i = 0; i < numCandidatos; i++) {
+                    int peliculaId = in.readInt();
+                    actualizarCandidato(peliculaId, estimar(peliculaId));
+                }
+                avanzar(epoca(reloj.millis()));
+            }
+            recontarDesde = Math.max(recontarDesde, guardadoEn);
+            logger.info("Contadores de tendencias cargados de {}", fichero);
+        } catch (IOException e) {
+            logger.warn("No se han podido leer los contadores de tendencias de {}: {}", fichero, e.getMessage());
+        }
+    }
+
+    // Se copian los contadores con el monitor y se escriben fuera, para no parar
+    // los eventos mientras se comprime el fichero
+    private void guardarEnDisco(boolean siempre) {
+        long guardadoEn;
+        long[] epocasCopia;
+        int[][][] cubosCopia = new int[numCubos][][];
+        List<Integer> ids;
+        synchronized (this) {
+            if (!cambiado && !siempre) {
+                return;
+            }
+            cambiado = false;
+            guardadoEn = reloj.millis();
+            epocasCopia = epocas.clone();
+            for (int cubo = 0; cubo < numCubos; cubo++) {
+                if (cubos[cubo] != null) {
+                    cubosCopia[cubo] = new int[profundidad][];
+                    for (int fila = 0; fila < profundidad; fila++) {
+                        cubosCopia[cubo][fila] = cubos[cubo][fila].clone();
+                    }
+                }
+            }
+            ids = List.copyOf(candidatos.keySet());
+        }
+
+        Path fichero = Path.of(conf.getFichero());
+        try {
+            Ficheros.escribirAtomicamente(fichero, destino -> {
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new GZIPOutputStream(destino)))) {
+                    out.writeInt(FORMATO);
+                    out.writeLong(guardadoEn);
+                    out.writeLong(cuboMs);
+                    out.writeInt(numCubos);
+                    out.writeInt(profundidad);
+                    out.writeInt(anchura);
+                    int llenos = 0;
+                    for (int[][] cubo : cubosCopia) {
+                        llenos += cubo != null ? 1 : 0;
+                    }
+                    out.writeInt(llenos);
+                    for (int cubo = 0; cubo < numCubos; cubo++) {
+                        if (cubosCopia[cubo] == null) {
+                            continue;
+                        }
+                        out.writeLong(epocasCopia[cubo]);
+                        for (int[] fila : cubosCopia[cubo]) {
+                            for (int contador : fila) {
+                                out.writeInt(contador);
+                            }
+                        }
+                    }
+                    out.writeInt(ids.size());
+                    for (int peliculaId : ids) {
+                        out.writeInt(peliculaId);
+                    }
+                }
+            });
+            logger.debug("Contadores de tendencias guardados en {}", fichero);
+        } catch (IOException e) {
+            synchronized (this) {
+                cambiado = true;
+            }
+            logger.warn("No se han podido guardar los contadores de tendencias en {}: {}", fichero, e.getMessage());
+        }
+    }
+}
@@ -1,11 +1,24 @@
 package tfg.avellaneda.ira.service;
 
 import io.github.cdimascio.dotenv.Dotenv;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import tfg.avellaneda.ira.config.TmdbProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+
 @Service
 public class TmdbService {
 
@@ -13,11 +26,13 @@ public class TmdbService {
     private static final Logger logger = LoggerFactory.getLogger(TmdbService.class);
 
     private final WebClient webClient;
+    private final ConnectionProvider conexiones;
+    private final int conexionesPrecalentar;
     private final String apiKey; // Puede ser null o vacío si no se encuentra
-    private static final String BASE_URL = "https://api.themoviedb.org/3";
 
     // Spring inyectará WebClient.Builder automáticamente
-    public TmdbService(WebClient.Builder webClientBuilder) {
+    public TmdbService(WebClient.Builder webClientBuilder, PlanificadorTmdb planificador,
+            MetricasTmdb metricas, TmdbProperties propiedades) {
 
         // Cargar el .env
         Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
@@ -33,12 +48,74 @@ public class TmdbService {
             this.apiKey = key;
         }
 
-        // El WebClient puede inicializarse de todas formas
-        this.webClient = webClientBuilder.baseUrl(BASE_URL).build();
+        // Pool de conexiones propio para TMDb en lugar del compartido por defecto.
+        // metrics(true) publica las conexiones activas, inactivas y pendientes
+        // (reactor.netty.connection.provider.*).
+        TmdbProperties.Conexiones conf = propiedades.getConexiones();
+        this.conexionesPrecalentar = conf.getPrecalentar();
+        this.conexiones = ConnectionProvider.builder("tmdb")
+                .maxConnections(conf.getMaxConexiones())
+                .pendingAcquireMaxCount(conf.getMaxPendientes())
+                .pendingAcquireTimeout(conf.getTiempoMaxAdquisicion())
+                .maxIdleTime(conf.getMaxInactividad())
+                .maxLifeTime(conf.getMaxVida())
+                .evictInBackground(conf.getDesalojo())
+                .metrics(true)
+                .build();
+
+        HttpClient httpClient = HttpClient.create(conexiones)
+                .protocol(conf.isHttp2()
+                        ? new HttpProtocol[] { HttpProtocol.H2, HttpProtocol.HTTP11 }
+                        : new HttpProtocol[] { HttpProtocol.HTTP11 })
+                .compress(conf.isCompresion())
+                .keepAlive(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) conf.getTimeoutConexion().toMillis())
+                .responseTimeout(conf.getTimeoutRespuesta());
+
+        // Carga por adelantado los event loops, el resolvedor DNS y el proveedor SSL
+        if (conexionesPrecalentar > 0) {
+            httpClient.warmup().block(Duration.ofSeconds(10));
+        }
+
+        // El WebClient puede inicializarse de todas formas. Todas las peticiones pasan
+        // por el planificador global (límite de peticiones/s, 429, prioridades).
+        // Las métricas van después, para medir cada intento y no la espera en cola.
+        this.webClient = webClientBuilder
+                .baseUrl(propiedades.getUrlBase())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(planificador.filtro())
+                .filter(metricas.filtro())
+                .build();
+    }
+
+    /**
+     * Abre unas cuantas conexiones con TMDb al arrancar, para que la primera
+     * búsqueda no pague el handshake TCP + TLS. Los errores se ignoran.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void precalentarConexiones() {
+        if (conexionesPrecalentar <= 0) {
+            return;
+        }
+        Flux.range(0, conexionesPrecalentar)
+                .flatMap(i -> PlanificadorTmdb.enSegundoPlano(webClient.head()
+                        .uri("/configuration")
+                        .exchangeToMono(respuesta -> respuesta.releaseBody())
+                        .onErrorResume(e -> Mono.empty())))
+                .then()
+                .subscribe(null,
+                        e -> logger.warn("No se han podido precalentar las conexiones con TMDb: {}", e.getMessage()),
+                        () -> logger.info("Conexiones con TMDb precalentadas"));
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        conexiones.disposeLater().block(Duration.ofSeconds(5));
     }
 
     /**
-     * Proporciona un RequestHeadersUriSpec para iniciar una petición GET
+     * Proporciona un RequestHeadersUriSpec para iniciar una petición GET.
+     * La petición espera su turno en PlanificadorTmdb antes de salir.
      */
     public WebClient.RequestHeadersUriSpec<?> getBaseRequest() {
         return webClient.get();
@@ -50,4 +127,4 @@ public class TmdbService {
     public String getApiKey() {
         return apiKey;
     }
-}
\ No newline at end of file
+}
@@ -1,20 +1,39 @@
 package tfg.avellaneda.ira.service;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FirestoreException;
 
+import io.grpc.Status;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.config.FlixScoreProperties.ListasUsuario.Modo;
+import tfg.avellaneda.ira.model.ListaUsuario;
+import tfg.avellaneda.ira.model.ModeloSugerenciaAmigo;
+import tfg.avellaneda.ira.model.ModeloSugerenciaUsuario;
 import tfg.avellaneda.ira.model.ModeloUsuario;
+import tfg.avellaneda.ira.model.Pagina;
+import tfg.avellaneda.ira.repositories.Paginacion;
 import tfg.avellaneda.ira.repositories.UsuarioRepository;
 
 /**
  * Service REST para gestionar los usuarios.
+ * Es reactivo de principio a fin: devuelve Mono/Flux y nunca bloquea
+ * esperando a Firestore.
  * * @author Israel
  */
 @Service
@@ -23,100 +42,122 @@ public class UsuarioService {
     private static final Logger logger = LoggerFactory.getLogger(UsuarioService.class);
 
     private final UsuarioRepository repo;
+    private final FlixScoreProperties propiedades;
+    private final IndiceNicks indiceNicks;
+    private final TendenciasPeliculas tendencias;
+    private final GrafoAmigos grafoAmigos;
+    private final FeedService feedService;
 
     // Inyección de dependencias por constructor
-    public UsuarioService(UsuarioRepository repo) {
+    public UsuarioService(UsuarioRepository repo, FlixScoreProperties propiedades, IndiceNicks indiceNicks,
+            TendenciasPeliculas tendencias, GrafoAmigos grafoAmigos, FeedService feedService) {
         this.repo = repo;
+        this.propiedades = propiedades;
+        this.indiceNicks = indiceNicks;
+        this.tendencias = tendencias;
+        this.grafoAmigos = grafoAmigos;
+        this.feedService = feedService;
     }
 
     /**
      * Obtiene todos los usuarios.
      * 
-     * @return Lista de todos los ModeloUsuario.
-     * @throws RuntimeException si la operación falla.
+     * @return Flux con todos los ModeloUsuario.
      */
-    public List<ModeloUsuario> getAll() {
-        try {
-            return repo.getAll()
-                    .get() // Espera la finalización del Future/Task
-                    .toObjects(ModeloUsuario.class);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt(); // Restaurar el estado de interrupción
-            logger.error("Error (Interrupción) al obtener los usuarios: {}", e.getMessage());
-            // Usamos RuntimeException, que no necesita ser declarada
-            throw new RuntimeException("Operación de base de datos interrumpida.", e);
-        } catch (ExecutionException e) {
-            logger.error("Error (Ejecución) al obtener los usuarios: {}", e.getMessage());
-            throw new RuntimeException("Fallo en la comunicación con la base de datos.", e.getCause());
-        }
+    public Flux<ModeloUsuario> getAll() {
+        return repo.getAll()
+                .flatMapIterable(query -> query.toObjects(ModeloUsuario.class))
+                .map(this::sinListas)
+                .onErrorMap(e -> errorBaseDatos("Error al obtener los usuarios", e,
+                        "Fallo en la comunicación con la base de datos."));
     }
 
     /**
      * Obtiene un usuario por ID.
      * 
      * @param usuarioId El ID del usuario.
-     * @return Un Optional que contiene ModeloUsuario si existe.
-     * @throws RuntimeException si la operación falla.
+     * @return Un Mono con el ModeloUsuario, vacío si no existe.
      */
-    public Optional<ModeloUsuario> getUsuarioById(String usuarioId) {
-        try {
-            DocumentSnapshot document = repo.getUsuarioById(usuarioId).get();
-
-            if (document.exists()) {
-                return Optional.ofNullable(document.toObject(ModeloUsuario.class));
-            } else {
-                return Optional.empty(); // Usuario no encontrado
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Error (Interrupción) al obtener el usuario {}: {}", usuarioId, e.getMessage());
-            throw new RuntimeException("Operación de base de datos interrumpida.", e);
-        } catch (ExecutionException e) {
-            logger.error("Error (Ejecución) al obtener el usuario {}: {}", usuarioId, e.getMessage());
-            throw new RuntimeException("Fallo en la comunicación con la base de datos.", e.getCause());
-        }
+    public Mono<ModeloUsuario> getUsuarioById(String usuarioId) {
+        return repo.getUsuarioById(usuarioId)
+                .filter(document -> document.exists()) // Usuario no encontrado -> vacío
+                .map(document -> sinListas(document.toObject(ModeloUsuario.class)))
+                .onErrorMap(e -> errorBaseDatos("Error al obtener el usuario " + usuarioId, e,
+                        "Fallo en la comunicación con la base de datos."));
     }
 
     /**
      * Obtiene usuarios por nick.
      * 
      * @param nick El nick del usuario a buscar.
-     * @return Lista de ModeloUsuario que coinciden con el nick.
-     * @throws RuntimeException si la operación falla.
+     * @return Flux de ModeloUsuario que coinciden con el nick.
      */
-    public List<ModeloUsuario> getUsuarioByNick(String nick) {
-        try {
-            return repo.getUsuarioByNick(nick)
-                    .get()
-                    .toObjects(ModeloUsuario.class);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Error (Interrupción) al obtener el usuario por nick {}: {}", nick, e.getMessage());
-            throw new RuntimeException("Operación de base de datos interrumpida.", e);
-        } catch (ExecutionException e) {
-            logger.error("Error (Ejecución) al obtener el usuario por nick {}: {}", nick, e.getMessage());
-            throw new RuntimeException("Fallo en la comunicación con la base de datos.", e.getCause());
-        }
+    public Flux<ModeloUsuario> getUsuarioByNick(String nick) {
+        return repo.getUsuarioByNick(nick)
+                .flatMapIterable(query -> query.toObjects(ModeloUsuario.class))
+                .map(this::sinListas)
+                .onErrorMap(e -> errorBaseDatos("Error al obtener el usuario por nick " + nick, e,
+                        "Fallo en la comunicación con la base de datos."));
+    }
+
+    /**
+     * Sugerencias para el buscador de amigos: usuarios cuyo nick empieza por el
+     * prefijo, sin distinguir mayúsculas ni tildes. Se resuelve en memoria
+     * (IndiceNicks), sin consultar Firestore.
+     *
+     * @param limite Número máximo de sugerencias (ya validado por el controller).
+     */
+    public List<ModeloSugerenciaUsuario> buscarPorPrefijoNick(String prefijo, int limite) {
+        return indiceNicks.buscar(prefijo, limite);
+    }
+
+    /**
+     * Sugerencias de amistad: amigos de sus amigos que aún no tiene, con más
+     * amigos en común primero. Se resuelve en memoria (GrafoAmigos), sin
+     * consultar Firestore.
+     *
+     * @param limite       Número máximo de sugerencias (ya validado por el controller).
+     * @param conFavoritas Si también cuentan las películas favoritas en común.
+     */
+    public List<ModeloSugerenciaAmigo> sugerirAmigos(String usuarioId, int limite, boolean conFavoritas) {
+        return grafoAmigos.sugerir(usuarioId, limite, conFavoritas);
+    }
+
+    /**
+     * Versiones paginadas de getAll y getUsuarioByNick.
+     * 
+     * @param limite Tamaño de página (ya validado por el controller).
+     * @param cursor Cursor devuelto en la página anterior, null para la primera.
+     */
+    public Mono<Pagina<ModeloUsuario>> getAll(int limite, String cursor) {
+        return repo.getAll(limite, cursor)
+                .map(query -> sinListas(Paginacion.construir(query, limite, ModeloUsuario.class)))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al obtener los usuarios", e,
+                                "Fallo en la comunicación con la base de datos."));
+    }
+
+    public Mono<Pagina<ModeloUsuario>> getUsuarioByNick(String nick, int limite, String cursor) {
+        return repo.getUsuarioByNick(nick, limite, cursor)
+                .map(query -> sinListas(Paginacion.construir(query, limite, ModeloUsuario.class)))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al obtener el usuario por nick " + nick, e,
+                                "Fallo en la comunicación con la base de datos."));
     }
 
     /**
      * Elimina un usuario por ID.
      * 
      * @param usuarioId El ID del usuario a eliminar.
-     * @throws RuntimeException si la operación falla.
      */
-    public void deleteUsuario(String usuarioId) {
-        try {
-            repo.deleteUsuario(usuarioId).get();
-            logger.info("Usuario eliminado correctamente: {}", usuarioId);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Error (Interrupción) al eliminar el usuario {}: {}", usuarioId, e.getMessage());
-            throw new RuntimeException("Operación de base de datos interrumpida.", e);
-        } catch (ExecutionException e) {
-            logger.error("Error (Ejecución) al eliminar el usuario {}: {}", usuarioId, e.getMessage());
-            throw new RuntimeException("Fallo al eliminar el usuario.", e.getCause());
-        }
+    public Mono<Void> deleteUsuario(String usuarioId) {
+        return repo.deleteUsuario(usuarioId)
+                .doOnNext(resultado -> logger.info("Usuario eliminado correctamente: {}", usuarioId))
+                .doOnNext(resultado -> indiceNicks.borrar(usuarioId))
+                .doOnNext(resultado -> grafoAmigos.borrar(usuarioId))
+                .onErrorMap(e -> errorBaseDatos("Error al eliminar el usuario " + usuarioId, e,
+                        "Fallo al eliminar el usuario."))
+                .then();
     }
 
     /**
@@ -124,33 +165,32 @@ public class UsuarioService {
      * 
      * @param entity El ModeloUsuario a añadir.
      * @return El ModeloUsuario creado (incluyendo el ID generado por la DB).
-     * @throws RuntimeException si la operación falla.
      */
-    public ModeloUsuario addUsuario(ModeloUsuario entity) {
-        try {
-            // 1. Obtiene la referencia al documento recién creado
-            var docRef = repo.addUsuario(entity).get();
-
-            // 2. Lee el documento de vuelta para obtener el objeto completo, incluyendo el
-            // ID
-            var document = docRef.get().get();
-
-            if (document.exists()) {
-                ModeloUsuario creado = document.toObject(ModeloUsuario.class);
-                logger.info("Usuario añadido correctamente con ID: {}", creado.getDocumentID());
-                return creado;
-            } else {
-                logger.error("Usuario añadido pero no se pudo recuperar el documento: {}", entity);
-                throw new RuntimeException("El usuario fue añadido, pero el documento no se pudo recuperar.");
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Error (Interrupción) al añadir el usuario: {}", e.getMessage());
-            throw new RuntimeException("Operación de base de datos interrumpida.", e);
-        } catch (ExecutionException e) {
-            logger.error("Error (Ejecución) al añadir el usuario: {}", e.getMessage());
-            throw new RuntimeException("Fallo al añadir el usuario.", e.getCause());
-        }
+    public Mono<ModeloUsuario> addUsuario(ModeloUsuario entity) {
+        // 1. Obtiene la referencia al documento recién creado
+        // 2. Lee el documento de vuelta para obtener el objeto completo, incluyendo el ID
+        // Con listas en subcolecciones, las listas que traiga el usuario nuevo se
+        // pasan a sus subcolecciones antes de devolverlo
+        return repo.addUsuario(entity)
+                .flatMap(referencia -> subcolecciones()
+                        ? migrarUsuario(referencia.getId()).thenReturn(referencia)
+                        : Mono.just(referencia))
+                .flatMap(repo::getUsuario)
+                .onErrorMap(e -> errorBaseDatos("Error al añadir el usuario", e, "Fallo al añadir el usuario."))
+                .flatMap(document -> {
+                    if (document.exists()) {
+                        ModeloUsuario creado = document.toObject(ModeloUsuario.class);
+                        logger.info("Usuario añadido correctamente con ID: {}", creado.getDocumentID());
+                        indiceNicks.guardar(creado.getDocumentID(), creado.getNick(), creado.getImagen_perfil());
+                        // Las listas del usuario enviado: con subcolecciones ya no están en el documento
+                        grafoAmigos.guardar(creado.getDocumentID(), entity.getAmigos_id(),
+                                entity.getPeliculas_favoritas());
+                        return Mono.just(sinListas(creado));
+                    }
+                    logger.error("Usuario añadido pero no se pudo recuperar el documento: {}", entity);
+                    return Mono.error(new RuntimeException(
+                            "El usuario fue añadido, pero el documento no se pudo recuperar."));
+                });
     }
 
     /**
@@ -158,19 +198,274 @@ public class UsuarioService {
      * 
      * @param usuarioId El ID del usuario a actualizar.
      * @param usuario   El ModeloUsuario con los datos a actualizar.
-     * @throws RuntimeException si la operación falla.
      */
-    public void updateUsuario(String usuarioId, ModeloUsuario usuario) {
-        try {
-            repo.updateUsuario(usuarioId, usuario).get();
-            logger.info("Usuario actualizado correctamente: {}", usuarioId);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Error (Interrupción) al actualizar el usuario {}: {}", usuarioId, e.getMessage());
-            throw new RuntimeException("Operación de base de datos interrumpida.", e);
-        } catch (ExecutionException e) {
-            logger.error("Error (Ejecución) al actualizar el usuario {}: {}", usuarioId, e.getMessage());
-            throw new RuntimeException("Fallo al actualizar el usuario.", e.getCause());
+    public Mono<Void> updateUsuario(String usuarioId, ModeloUsuario usuario) {
+        // Con listas en subcolecciones solo se actualiza el perfil: las listas
+        // se modifican con anadirALista / quitarDeLista
+        return (subcolecciones() ? repo.updatePerfil(usuarioId, usuario) : repo.updateUsuario(usuarioId, usuario))
+                .doOnNext(resultado -> logger.info("Usuario actualizado correctamente: {}", usuarioId))
+                .doOnNext(resultado -> indiceNicks.guardar(usuarioId, usuario.getNick(), usuario.getImagen_perfil()))
+                .doOnNext(resultado -> {
+                    if (!subcolecciones()) {
+                        grafoAmigos.guardar(usuarioId, usuario.getAmigos_id(), usuario.getPeliculas_favoritas());
+                    }
+                })
+                .onErrorMap(e -> errorBaseDatos("Error al actualizar el usuario " + usuarioId, e,
+                        "Fallo al actualizar el usuario."))
+                .then();
+    }
+
+    /**
+     * Añade un elemento a una lista del usuario (películas vistas, favoritas,
+     * criticadas o amigos). Solo se escribe ese campo, y Firestore lo añade de
+     * forma atómica, así que dos cambios simultáneos no se pisan. Una película
+     * solo cuenta como vista para las tendencias si de verdad se ha añadido:
+     * repetir la petición no suma más vistas.
+     *
+     * @return Mono con false si el usuario no existe.
+     * @throws IllegalArgumentException (en el Mono) si el valor no es válido.
+     */
+    public Mono<Boolean> anadirALista(String usuarioId, ListaUsuario lista, String valor) {
+        return Mono.fromCallable(() -> lista.convertir(valor))
+                .flatMap(convertido -> (subcolecciones()
+                        // Si ya estaba en la lista no hay nada que hacer
+                        ? repo.anadirASubcoleccion(usuarioId, lista.getCampo(), convertido)
+                                .thenReturn(true)
+                                .onErrorResume(UsuarioService::yaExiste, e -> Mono.just(false))
+                        : repo.anadirALista(usuarioId, lista.getCampo(), convertido))
+                        // Las películas marcadas como vistas cuentan para las tendencias
+                        .doOnNext(anadido -> {
+                            if (anadido && lista == ListaUsuario.VISTAS) {
+                                tendencias.registrarVista(((Long) convertido).intValue());
+                            }
+                        })
+                        .doOnNext(anadido -> grafoAmigos.anadir(usuarioId, lista, convertido)))
+                .doOnSuccess(resultado -> logger.info("Añadido {} a la lista {} del usuario {}", valor,
+                        lista.nombre(), usuarioId))
+                .thenReturn(true)
+                .onErrorResume(UsuarioService::noExiste, e -> Mono.just(false))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al modificar la lista " + lista.nombre() + " del usuario "
+                                + usuarioId, e, "Fallo al actualizar el usuario."));
+    }
+
+    /**
+     * Quita un elemento de una lista del usuario, ver anadirALista.
+     *
+     * @return Mono con false si el usuario no existe.
+     */
+    public Mono<Boolean> quitarDeLista(String usuarioId, ListaUsuario lista, String valor) {
+        return Mono.fromCallable(() -> lista.convertir(valor))
+                .flatMap(convertido -> (subcolecciones()
+                        ? repo.quitarDeSubcoleccion(usuarioId, lista.getCampo(), convertido)
+                        : repo.quitarDeLista(usuarioId, lista.getCampo(), convertido).thenReturn(true))
+                        .doOnNext(existe -> {
+                            if (existe) {
+                                grafoAmigos.quitar(usuarioId, lista, convertido);
+                            }
+                            // Las críticas del antiguo amigo dejan de salir en su feed
+                            if (existe && lista == ListaUsuario.AMIGOS) {
+                                feedService.dejarDeSeguir(usuarioId, (String) convertido);
+                            }
+                        }))
+                .doOnNext(existe -> {
+                    if (existe) {
+                        logger.info("Quitado {} de la lista {} del usuario {}", valor, lista.nombre(), usuarioId);
+                    }
+                })
+                // Con listas embebidas el update falla con NOT_FOUND si no existe el usuario
+                .onErrorResume(UsuarioService::noExiste, e -> Mono.just(false))
+                .onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                        e -> errorBaseDatos("Error al modificar la lista " + lista.nombre() + " del usuario "
+                                + usuarioId, e, "Fallo al actualizar el usuario."));
+    }
+
+    /**
+     * Página de una lista del usuario. Los elementos se ordenan por su valor
+     * como texto (el mismo orden que los IDs de documento de la subcolección),
+     * así que los cursores valen en los dos modos.
+     *
+     * @return Mono vacío si el usuario no existe.
+     * @throws IllegalArgumentException (en el Mono) si el cursor no es válido.
+     */
+    public Mono<Pagina<Object>> getLista(String usuarioId, ListaUsuario lista, int limite, String cursor) {
+        Mono<Pagina<Object>> pagina;
+        if (subcolecciones()) {
+            // El perfil ya es pequeño en este modo; se lee a la vez para distinguir
+            // un usuario sin elementos de uno que no existe
+            pagina = Mono.zip(repo.getUsuarioById(usuarioId),
+                    repo.getSubcoleccion(usuarioId, lista.getCampo(), limite, cursor))
+                    .filter(resultado -> resultado.getT1().exists())
+                    .map(Tuple2::getT2)
+                    .map(query -> Paginacion.construir(query, limite, documento -> documento.get("valor")));
+        } else {
+            pagina = repo.getUsuarioById(usuarioId)
+                    .filter(document -> document.exists())
+                    .map(document -> paginaEmbebida(document.get(lista.getCampo()), limite, cursor));
+        }
+        return pagina.onErrorMap(e -> !(e instanceof IllegalArgumentException),
+                e -> errorBaseDatos("Error al obtener la lista " + lista.nombre() + " del usuario " + usuarioId, e,
+                        "Fallo en la comunicación con la base de datos."));
+    }
+
+    /**
+     * Todos los elementos de una lista del usuario, sin paginar, para usarlos
+     * en el servidor (ej. quitar las películas vistas de las recomendaciones).
+     * Con subcolecciones se junta también lo que quede en el array embebido de
+     * un usuario aún no migrado.
+     *
+     * @return Mono con la lista vacía si el usuario no existe.
+     */
+    public Mono<List<Object>> getValoresLista(String usuarioId, ListaUsuario lista) {
+        Mono<List<Object>> embebidos = repo.getUsuarioById(usuarioId)
+                .map(document -> document.get(lista.getCampo()) instanceof List<?> valores
+                        ? List.<Object>copyOf(valores)
+                        : List.<Object>of());
+        Mono<List<Object>> valores = !subcolecciones()
+                ? embebidos
+                : Mono.zip(embebidos, repo.getValoresSubcoleccion(usuarioId, lista.getCampo()))
+                        .map(resultado -> {
+                            List<Object> todos = new ArrayList<>(resultado.getT1());
+                            resultado.getT2().getDocuments().forEach(document -> todos.add(document.get("valor")));
+                            return todos;
+                        });
+        return valores.onErrorMap(e -> errorBaseDatos("Error al obtener la lista " + lista.nombre()
+                + " del usuario " + usuarioId, e, "Fallo en la comunicación con la base de datos."));
+    }
+
+    private static Pagina<Object> paginaEmbebida(Object array, int limite, String cursor) {
+        String desde = cursor != null && !cursor.isBlank() ? Paginacion.leerCursor(cursor) : null;
+        List<?> valores = array instanceof List<?> lista ? lista : List.of();
+        List<Object> ordenados = valores.stream()
+                .filter(valor -> desde == null || String.valueOf(valor).compareTo(desde) > 0)
+                .sorted(Comparator.comparing(String::valueOf))
+                .limit(limite + 1L)
+                .map(valor -> (Object) valor)
+                .toList();
+        if (ordenados.size() <= limite) {
+            return new Pagina<>(ordenados, null);
+        }
+        List<Object> elementos = ordenados.subList(0, limite);
+        return new Pagina<>(elementos, Paginacion.crearCursor(String.valueOf(elementos.get(limite - 1))));
+    }
+
+    /**
+     * Migración en caliente al modo SUBCOLECCIONES: recorre los usuarios por
+     * páginas y pasa a subcolecciones los arrays que todavía tengan. Se puede
+     * repetir o interrumpir sin perder ni duplicar elementos, y la aplicación
+     * sigue atendiendo mientras tanto.
+     *
+     * @return Mono con el número de usuarios migrados y de elementos movidos.
+     */
+    public Mono<Map<String, Long>> migrarListas() {
+        FlixScoreProperties.ListasUsuario conf = propiedades.getListasUsuario();
+        if (conf.getModo() != Modo.SUBCOLECCIONES) {
+            return Mono.error(new IllegalStateException(
+                    "La migración de listas solo tiene sentido con flixscore.listas-usuario.modo=subcolecciones"));
+        }
+        return repo.streamAll(propiedades.getExportacion().getTamPagina())
+                .filter(UsuarioService::tieneListasEmbebidas)
+                .flatMap(document -> migrarUsuario(document.getId()), conf.getConcurrenciaMigracion())
+                .reduce(new long[2], (totales, elementos) -> {
+                    totales[0]++;
+                    totales[1] += elementos;
+                    return totales;
+                })
+                .map(totales -> Map.of("usuariosMigrados", totales[0], "elementos", totales[1]))
+                .doOnNext(resumen -> logger.info("Migración de listas de usuario terminada: {}", resumen))
+                .onErrorMap(e -> !(e instanceof IllegalStateException),
+                        e -> errorBaseDatos("Error al migrar las listas de usuario", e,
+                                "Fallo en la migración de las listas de usuario."));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrarAlArrancar() {
+        if (subcolecciones() && propiedades.getListasUsuario().isMigrarAlArrancar()) {
+            migrarListas().subscribe(null,
+                    e -> logger.error("La migración de listas al arrancar ha fallado: {}", e.getMessage()));
+        }
+    }
+
+    // Mueve las listas embebidas de un usuario; devuelve el número de elementos
+    private Mono<Long> migrarUsuario(String usuarioId) {
+        return repo.getUsuarioById(usuarioId)
+                .filter(document -> document.exists())
+                .flatMapMany(document -> Flux.fromArray(ListaUsuario.values())
+                        .filter(lista -> document.contains(lista.getCampo()))
+                        .concatMap(lista -> {
+                            List<?> valores = document.get(lista.getCampo()) instanceof List<?> array
+                                    ? array
+                                    : List.of();
+                            return repo.migrarLista(usuarioId, lista.getCampo(), valores)
+                                    .thenReturn((long) valores.size());
+                        }))
+                .reduce(0L, Long::sum);
+    }
+
+    private static boolean tieneListasEmbebidas(DocumentSnapshot document) {
+        for (ListaUsuario lista : ListaUsuario.values()) {
+            if (document.contains(lista.getCampo())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean subcolecciones() {
+        return propiedades.getListasUsuario().getModo() == Modo.SUBCOLECCIONES;
+    }
+
+    // update() sobre un documento que no existe falla con NOT_FOUND
+    private static boolean noExiste(Throwable e) {
+        return tieneCodigo(e, StatusCode.Code.NOT_FOUND, Status.Code.NOT_FOUND);
+    }
+
+    // create() sobre un documento que ya existe falla con ALREADY_EXISTS
+    private static boolean yaExiste(Throwable e) {
+        return tieneCodigo(e, StatusCode.Code.ALREADY_EXISTS, Status.Code.ALREADY_EXISTS);
+    }
+
+    private static boolean tieneCodigo(Throwable e, StatusCode.Code codigoApi, Status.Code codigoGrpc) {
+        if (e instanceof ApiException api) {
+            return api.getStatusCode().getCode() == codigoApi;
+        }
+        if (e instanceof FirestoreException firestore && firestore.getStatus() != null) {
+            return firestore.getStatus().getCode() == codigoGrpc;
+        }
+        return false;
+    }
+
+    /**
+     * Exporta todos los usuarios leyéndolos de Firestore por páginas, a medida
+     * que el cliente los va consumiendo (memoria constante).
+     */
+    public Flux<ModeloUsuario> exportar() {
+        return repo.streamAll(propiedades.getExportacion().getTamPagina())
+                .map(document -> sinListas(document.toObject(ModeloUsuario.class)))
+                .onErrorMap(e -> errorBaseDatos("Error al exportar los usuarios", e,
+                        "Fallo en la comunicación con la base de datos."));
+    }
+
+    // Con listas en subcolecciones el documento no trae las listas (o solo restos
+    // de antes de migrar): se quitan de la respuesta para que no parezca que están
+    // vacías. Se leen con GET /{id}/{lista}.
+    private ModeloUsuario sinListas(ModeloUsuario usuario) {
+        if (subcolecciones()) {
+            usuario.setAmigos_id(null);
+            usuario.setPeliculas_criticadas(null);
+            usuario.setPeliculas_favoritas(null);
+            usuario.setPeliculas_vistas(null);
         }
+        return usuario;
+    }
+
+    private Pagina<ModeloUsuario> sinListas(Pagina<ModeloUsuario> pagina) {
+        pagina.getElementos().forEach(this::sinListas);
+        return pagina;
+    }
+
+    private RuntimeException errorBaseDatos(String contexto, Throwable e, String mensaje) {
+        logger.error("{}: {}", contexto, e.getMessage());
+        return new RuntimeException(mensaje, e);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,50 @@
+package tfg.avellaneda.ira.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Utilidades para las instantáneas que los servicios guardan en disco (índice
+ * de títulos, tendencias, rankings).
+ */
+public final class Ficheros {
+
+    /**
+     * Lo que se escribe en el fichero.
+     */
+    @FunctionalInterface
+    public interface Escritura {
+        void escribir(OutputStream out) throws IOException;
+    }
+
+    private Ficheros() {
+    }
+
+    /**
+     * Sustituye el fichero de golpe: se escribe entero en un temporal al lado y
+     * se renombra encima, así quien lo lea (o un reinicio a mitad) ve el
+     * anterior o el nuevo, nunca uno a medias. Crea el directorio si no existe.
+     */
+    public static void escribirAtomicamente(Path fichero, Escritura escritura) throws IOException {
+        if (fichero.getParent() != null) {
+            Files.createDirectories(fichero.getParent());
+        }
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporal)) {
+                escritura.escribir(out);
+            }
+            Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporal);
+            } catch (IOException borrado) {
+                e.addSuppressed(borrado);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package tfg.avellaneda.ira.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Utilidades para comparar textos introducidos por el usuario (búsquedas,
+ * nicks...) sin tener en cuenta mayúsculas, tildes ni espacios de más.
+ */
+public final class Textos {
+
+    private static final Pattern MARCAS_DIACRITICAS = Pattern.compile("\\p{M}+");
+    private static final Pattern ESPACIOS = Pattern.compile("\\s+");
+
+    private Textos() {
+    }
+
+    /**
+     * Normaliza un texto: minúsculas, sin tildes ni diéresis y con los espacios
+     * colapsados. Ej. "  El SEÑOR   de los Anillos " -> "el senor de los anillos".
+     *
+     * @return El texto normalizado, o cadena vacía si es null.
+     */
+    public static String normalizar(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        String sinTildes = MARCAS_DIACRITICAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD))
+                .replaceAll("");
+        return ESPACIOS.matcher(sinTildes.trim()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,121 @@
+package tfg.avellaneda.ira.util;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import reactor.util.context.ContextView;
+
+/**
+ * Tiempos de una petición HTTP: llamadas a TMDb y Firestore (número, tiempo
+ * total y la más lenta), aciertos y fallos de caché y tiempo de serialización.
+ *
+ * Viaja en el contexto de Reactor (lo pone FiltroServerTiming), así que lo
+ * reciben todas las llamadas que haga la petición aunque cambien de hilo. Sin
+ * contexto (tareas en segundo plano) las anotaciones no hacen nada.
+ */
+public final class TiemposPeticion {
+
+    /**
+     * Clave del contexto de Reactor.
+     */
+    public static final String CLAVE = TiemposPeticion.class.getName();
+
+    public enum Origen {
+        TMDB, FIRESTORE
+    }
+
+    private static final class Llamadas {
+        final AtomicInteger numero = new AtomicInteger();
+        final AtomicLong total = new AtomicLong();
+        final AtomicLong maximo = new AtomicLong();
+    }
+
+    private final long inicio = System.nanoTime();
+    private final Map<Origen, Llamadas> llamadas = new EnumMap<>(Origen.class);
+    private final AtomicInteger aciertosCache = new AtomicInteger();
+    private final AtomicInteger fallosCache = new AtomicInteger();
+    private final AtomicLong serializacion = new AtomicLong();
+
+    public TiemposPeticion() {
+        for (Origen origen : Origen.values()) {
+            llamadas.put(origen, new Llamadas());
+        }
+    }
+
+    public static TiemposPeticion de(ContextView contexto) {
+        return contexto.getOrDefault(CLAVE, null);
+    }
+
+    // Atajos que no hacen nada si la petición no lleva tiempos
+
+    public static void anotarLlamada(ContextView contexto, Origen origen, long nanos) {
+        TiemposPeticion tiempos = de(contexto);
+        if (tiempos != null) {
+            tiempos.llamada(origen, nanos);
+        }
+    }
+
+    public static void anotarCache(ContextView contexto, boolean acierto) {
+        TiemposPeticion tiempos = de(contexto);
+        if (tiempos != null) {
+            tiempos.cache(acierto);
+        }
+    }
+
+    public void llamada(Origen origen, long nanos) {
+        Llamadas deOrigen = llamadas.get(origen);
+        deOrigen.numero.incrementAndGet();
+        deOrigen.total.addAndGet(nanos);
+        deOrigen.maximo.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void cache(boolean acierto) {
+        (acierto ? aciertosCache : fallosCache).incrementAndGet();
+    }
+
+    public void serializacion(long nanos) {
+        serializacion.addAndGet(nanos);
+    }
+
+    public long transcurrido() {
+        return System.nanoTime() - inicio;
+    }
+
+    /**
+     * Valor de la cabecera Server-Timing, ej.
+     * tmdb;dur=250.1;desc="3 llamadas", tmdb-max;dur=120.5,
+     * cache;desc="aciertos=5 fallos=1", serializacion;dur=1.2, total;dur=260.3
+     *
+     * Las llamadas en paralelo suman su tiempo completo, así que el total de un
+     * origen puede superar al de la petición.
+     */
+    public String cabecera() {
+        StringBuilder cabecera = new StringBuilder(160);
+        llamadas.forEach((origen, deOrigen) -> {
+            int numero = deOrigen.numero.get();
+            if (numero > 0) {
+                String nombre = origen.name().toLowerCase(Locale.ROOT);
+                cabecera.append(nombre).append(";dur=").append(ms(deOrigen.total.get()))
+                        .append(";desc=\"").append(numero).append(numero == 1 ? " llamada\"" : " llamadas\"")
+                        .append(", ").append(nombre).append("-max;dur=").append(ms(deOrigen.maximo.get()))
+                        .append(", ");
+            }
+        });
+        if (aciertosCache.get() + fallosCache.get() > 0) {
+            cabecera.append("cache;desc=\"aciertos=").append(aciertosCache.get())
+                    .append(" fallos=").append(fallosCache.get()).append("\", ");
+        }
+        cabecera.append("serializacion;dur=").append(ms(serializacion.get()))
+                .append(", total;dur=").append(ms(transcurrido()));
+        return cabecera.toString();
+    }
+
+    // Milisegundos con un decimal
+    private static String ms(long nanos) {
+        long decimas = Math.round(nanos / 100_000.0);
+        return (decimas / 10) + "." + (decimas % 10);
+    }
+}
@@ -0,0 +1,84 @@
+package tfg.avellaneda.ira.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class GrafoSocialTest {
+
+    @Test
+    void ordenaLosAmigosDeAmigosPorAmigosEnComun() {
+        GrafoSocial grafo = new GrafoSocial();
+        grafo.guardar("yo", List.of("a", "b", "c"), List.of());
+        grafo.guardar("a", List.of("x", "y"), List.of());
+        grafo.guardar("b", List.of("x", "y"), List.of());
+        grafo.guardar("c", List.of("x", "z"), List.of());
+        for (String candidato : List.of("x", "y", "z")) {
+            grafo.guardar(candidato, List.of(), List.of());
+        }
+
+        List<GrafoSocial.Sugerencia> sugerencias = grafo.sugerir("yo", 10, 0, 0);
+
+        assertEquals(List.of("x", "y", "z"), usuarios(sugerencias));
+        assertEquals(List.of(3, 2, 1), sugerencias.stream().map(GrafoSocial.Sugerencia::amigosEnComun).toList());
+        assertEquals(List.of("x", "y"), usuarios(grafo.sugerir("yo", 2, 0, 0)));
+    }
+
+    @Test
+    void noSugiereAlPropioUsuarioNiASusAmigos() {
+        GrafoSocial grafo = new GrafoSocial();
+        grafo.guardar("yo", List.of("a", "b"), List.of());
+        // a es amigo de yo y de b, b lo es de yo y de a: solo x está a dos saltos
+        grafo.guardar("a", List.of("yo", "b", "x"), List.of());
+        grafo.guardar("b", List.of("yo", "a"), List.of());
+        grafo.guardar("x", List.of(), List.of());
+
+        assertEquals(List.of("x"), usuarios(grafo.sugerir("yo", 10, 0, 0)));
+
+        grafo.anadirAmigo("yo", "x");
+        assertTrue(grafo.sugerir("yo", 10, 0, 0).isEmpty());
+    }
+
+    @Test
+    void noSugiereUsuariosBorradosNiSinDatos() {
+        GrafoSocial grafo = new GrafoSocial();
+        grafo.guardar("yo", List.of("a"), List.of());
+        // fantasma solo aparece en la lista de a: no se han guardado sus datos
+        grafo.guardar("a", List.of("x", "y", "fantasma"), List.of());
+        grafo.guardar("x", List.of(), List.of());
+        grafo.guardar("y", List.of(), List.of());
+
+        grafo.borrar("x");
+
+        assertEquals(List.of("y"), usuarios(grafo.sugerir("yo", 10, 0, 0)));
+        assertTrue(grafo.sugerir("x", 10, 0, 0).isEmpty());
+    }
+
+    @Test
+    void lasFavoritasEnComunDesempatan() {
+        GrafoSocial grafo = new GrafoSocial();
+        grafo.guardar("yo", List.of("a"), List.of(10, 20, 30));
+        grafo.guardar("a", List.of("x", "y"), List.of());
+        grafo.guardar("x", List.of(), List.of(40));
+        grafo.guardar("y", List.of(), List.of(20, 30, 50));
+
+        // Sin favoritas empatan a un amigo en común y va primero el ID menor
+        List<GrafoSocial.Sugerencia> sinFavoritas = grafo.sugerir("yo", 10, 0, 0);
+        assertEquals(List.of("x", "y"), usuarios(sinFavoritas));
+        assertNull(sinFavoritas.get(0).favoritasEnComun());
+
+        List<GrafoSocial.Sugerencia> conFavoritas = grafo.sugerir("yo", 10, 0.5, 10);
+        assertEquals(List.of("y", "x"), usuarios(conFavoritas));
+        assertEquals(2, conFavoritas.get(0).favoritasEnComun());
+        assertEquals(0, conFavoritas.get(1).favoritasEnComun());
+        assertEquals(1 + 0.5 * 2, conFavoritas.get(0).puntuacion(), 1e-9);
+    }
+
+    private static List<String> usuarios(List<GrafoSocial.Sugerencia> sugerencias) {
+        return sugerencias.stream().map(GrafoSocial.Sugerencia::usuarioId).toList();
+    }
+}
@@ -0,0 +1,140 @@
+package tfg.avellaneda.ira.service;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class ModeloSimilitudTest {
+
+    // Sin mínimo de usuarios en común, sin encogimiento y sin muestreo, para
+    // que las similitudes sean el coseno ajustado tal cual
+    private static final ModeloSimilitud.Parametros SIN_AJUSTES = new ModeloSimilitud.Parametros(10, 1, 0f, 1000);
+
+    private static final int A = 100;
+    private static final int B = 200;
+    private static final int C = 300;
+    private static final int D = 400;
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void crearPool() {
+        pool = new ForkJoinPool(2);
+    }
+
+    @AfterAll
+    static void cerrarPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void construyeLasFilasPorUsuarioConLasPeliculasOrdenadas() {
+        ModeloSimilitud.Puntuaciones puntuaciones = new ModeloSimilitud.Puntuaciones();
+        puntuaciones.anadir(1, C, 5);
+        puntuaciones.anadir(0, B, 5);
+        puntuaciones.anadir(1, A, 5);
+        puntuaciones.anadir(0, C, 5);
+
+        // El usuario 2 no tiene críticas: fila vacía
+        ModeloSimilitud modelo = ModeloSimilitud.construir(puntuaciones, 3, SIN_AJUSTES, pool);
+
+        assertEquals(3, modelo.numPeliculas());
+        assertEquals(3, modelo.numUsuarios());
+        assertEquals(4, modelo.numPuntuaciones());
+        assertArrayEquals(new int[] { B, C }, modelo.peliculasDe(0));
+        assertArrayEquals(new int[] { A, C }, modelo.peliculasDe(1));
+        assertArrayEquals(new int[0], modelo.peliculasDe(2));
+    }
+
+    @Test
+    void centraLasPuntuacionesEnLaMediaDelUsuario() {
+        ModeloSimilitud.Puntuaciones puntuaciones = new ModeloSimilitud.Puntuaciones();
+        puntuaciones.anadir(0, A, 9);
+        puntuaciones.anadir(0, B, 6);
+        puntuaciones.anadir(0, C, 3);
+
+        ModeloSimilitud modelo = ModeloSimilitud.construir(puntuaciones, 1, SIN_AJUSTES, pool);
+
+        assertArrayEquals(new float[] { 3, 0, -3 }, modelo.valoresDe(0), 1e-6f);
+    }
+
+    @Test
+    void juntaLasCriticasRepetidasDeUnaPeliculaEnSuMedia() {
+        ModeloSimilitud.Puntuaciones puntuaciones = new ModeloSimilitud.Puntuaciones();
+        puntuaciones.anadir(0, A, 4);
+        puntuaciones.anadir(0, B, 2);
+        puntuaciones.anadir(0, A, 8);
+
+        ModeloSimilitud modelo = ModeloSimilitud.construir(puntuaciones, 1, SIN_AJUSTES, pool);
+
+        // A queda en 6 y la media del usuario es (6 + 2) / 2, no (4 + 2 + 8) / 3
+        assertEquals(2, modelo.numPuntuaciones());
+        assertArrayEquals(new int[] { A, B }, modelo.peliculasDe(0));
+        assertArrayEquals(new float[] { 2, -2 }, modelo.valoresDe(0), 1e-6f);
+    }
+
+    @Test
+    void guardaSoloLosVecinosMasParecidos() {
+        // Centradas: A = (2, -2, 2), B = (2, -2, 1), C = (0, 0, 2), D = (-4, 4, -5)
+        // cos(A, B) = 10 / (3.46 * 3) = 0.96, cos(A, C) = 4 / (3.46 * 2) = 0.58,
+        // cos(A, D) < 0
+        ModeloSimilitud.Puntuaciones puntuaciones = tresUsuarios();
+
+        ModeloSimilitud todos = ModeloSimilitud.construir(puntuaciones, 3, SIN_AJUSTES, pool);
+        ModeloSimilitud uno = ModeloSimilitud.construir(puntuaciones, 3, new ModeloSimilitud.Parametros(1, 1, 0f, 1000),
+                pool);
+
+        List<ModeloSimilitud.Recomendacion> vecinos = todos.vecinosDe(A);
+        assertEquals(List.of(B, C), ids(vecinos));
+        assertEquals(10 / (Math.sqrt(12) * 3), vecinos.get(0).puntuacion(), 1e-5);
+        assertEquals(4 / (Math.sqrt(12) * 2), vecinos.get(1).puntuacion(), 1e-5);
+        assertEquals(List.of(B), ids(uno.vecinosDe(A)));
+    }
+
+    @Test
+    void noRecomiendaLoQueElUsuarioHaPuntuadoNiLasExcluidas() {
+        ModeloSimilitud.Puntuaciones puntuaciones = tresUsuarios();
+        // Usuario 3: solo A y D, centradas en 3 y -3
+        puntuaciones.anadir(3, A, 9);
+        puntuaciones.anadir(3, D, 3);
+
+        ModeloSimilitud modelo = ModeloSimilitud.construir(puntuaciones, 4, SIN_AJUSTES, pool);
+
+        List<Integer> recomendadas = ids(modelo.recomendar(3, new int[0], 10));
+        assertEquals(List.of(B, C), recomendadas);
+
+        List<Integer> sinB = ids(modelo.recomendar(3, new int[] { B }, 10));
+        assertEquals(List.of(C), sinB);
+    }
+
+    @Test
+    void usuarioSinCriticasNoTieneRecomendaciones() {
+        ModeloSimilitud modelo = ModeloSimilitud.construir(tresUsuarios(), 4, SIN_AJUSTES, pool);
+
+        assertTrue(modelo.recomendar(3, new int[0], 10).isEmpty());
+        assertTrue(modelo.recomendar(99, new int[0], 10).isEmpty());
+    }
+
+    private static ModeloSimilitud.Puntuaciones tresUsuarios() {
+        ModeloSimilitud.Puntuaciones puntuaciones = new ModeloSimilitud.Puntuaciones();
+        int[][] filas = { { 9, 9, 7, 3 }, { 3, 3, 5, 9 }, { 8, 7, 8, 1 } };
+        int[] peliculas = { A, B, C, D };
+        for (int u = 0; u < filas.length; u++) {
+            for (int p = 0; p < peliculas.length; p++) {
+                puntuaciones.anadir(u, peliculas[p], filas[u][p]);
+            }
+        }
+        return puntuaciones;
+    }
+
+    private static List<Integer> ids(List<ModeloSimilitud.Recomendacion> recomendaciones) {
+        return recomendaciones.stream().map(ModeloSimilitud.Recomendacion::peliculaId).toList();
+    }
+}
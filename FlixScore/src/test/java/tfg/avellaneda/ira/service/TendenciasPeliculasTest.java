@@ -0,0 +1,172 @@
+package tfg.avellaneda.ira.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import tfg.avellaneda.ira.config.FlixScoreProperties;
+import tfg.avellaneda.ira.model.ModeloTendencia;
+
+class TendenciasPeliculasTest {
+
+    // Al principio de un cubo de una hora
+    private static final Instant INICIO = Instant.parse("2026-01-01T00:00:00Z");
+
+    @TempDir
+    Path directorio;
+
+    private FlixScoreProperties propiedades;
+    private RelojManual reloj;
+
+    @BeforeEach
+    void preparar() {
+        propiedades = new FlixScoreProperties();
+        propiedades.getTendencias().setVentana(Duration.ofHours(3));
+        propiedades.getTendencias().setCubo(Duration.ofHours(1));
+        propiedades.getTendencias().setFichero(directorio.resolve("tendencias.bin").toString());
+        reloj = new RelojManual(INICIO);
+    }
+
+    @Test
+    void sumaLosPesosDeCriticasYVistasEnLaVentana() {
+        TendenciasPeliculas tendencias = crear();
+
+        tendencias.registrarCritica(7, reloj.millis());
+        tendencias.registrarVista(8);
+        reloj.avanzar(Duration.ofMinutes(90));
+        tendencias.registrarCritica(7, reloj.millis());
+        tendencias.registrarVista(7);
+
+        assertEquals(List.of(7, 8), ids(tendencias.top(10)));
+        assertEquals(List.of(3L + 3 + 1, 1L), actividad(tendencias.top(10)));
+        assertEquals(List.of(7), ids(tendencias.top(1)));
+    }
+
+    @Test
+    void losCubosQueSalenDeLaVentanaDejanDeContar() {
+        TendenciasPeliculas tendencias = crear();
+
+        tendencias.registrarCritica(7, reloj.millis());
+        reloj.avanzar(Duration.ofHours(1));
+        tendencias.registrarCritica(7, reloj.millis());
+        // Ya fuera de la ventana al registrarse: no cuenta
+        tendencias.registrarCritica(8, INICIO.minus(Duration.ofHours(3)).toEpochMilli());
+
+        reloj.avanzar(Duration.ofMinutes(119));
+        assertEquals(List.of(6L), actividad(tendencias.top(10)));
+
+        // Sale el cubo de INICIO
+        reloj.avanzar(Duration.ofMinutes(1));
+        assertEquals(List.of(3L), actividad(tendencias.top(10)));
+
+        reloj.avanzar(Duration.ofHours(1));
+        assertTrue(tendencias.top(10).isEmpty());
+    }
+
+    @Test
+    void unaPeliculaNuevaSoloEntraEnElTopSiSuperaALaUltima() {
+        propiedades.getTendencias().setCandidatos(2);
+        TendenciasPeliculas tendencias = crear();
+
+        registrarVistas(tendencias, 1, 3);
+        registrarVistas(tendencias, 2, 2);
+        registrarVistas(tendencias, 3, 2);
+        assertEquals(List.of(1, 2), ids(tendencias.top(10)));
+
+        registrarVistas(tendencias, 3, 2);
+        assertEquals(List.of(3, 1), ids(tendencias.top(10)));
+        assertEquals(List.of(4L, 3L), actividad(tendencias.top(10)));
+    }
+
+    @Test
+    void recuperaLosContadoresGuardados() {
+        TendenciasPeliculas tendencias = crear();
+        tendencias.registrarCritica(7, reloj.millis());
+        reloj.avanzar(Duration.ofHours(1));
+        registrarVistas(tendencias, 8, 2);
+        tendencias.guardarAlParar();
+
+        TendenciasPeliculas recuperadas = crear();
+        recuperadas.cargar();
+        assertEquals(List.of(7, 8), ids(recuperadas.top(10)));
+        assertEquals(List.of(3L, 2L), actividad(recuperadas.top(10)));
+
+        // Los cubos conservan su hora: el de INICIO sale de la ventana a su tiempo
+        reloj.avanzar(Duration.ofHours(2));
+        assertEquals(List.of(8), ids(recuperadas.top(10)));
+    }
+
+    @Test
+    void descartaLosContadoresDeOtraConfiguracion() {
+        TendenciasPeliculas tendencias = crear();
+        tendencias.registrarCritica(7, reloj.millis());
+        tendencias.guardarAlParar();
+
+        propiedades.getTendencias().setAnchura(1_024);
+        TendenciasPeliculas recuperadas = crear();
+        recuperadas.cargar();
+        assertTrue(recuperadas.top(10).isEmpty());
+    }
+
+    // Sin repositorio: el recuento de críticas al arrancar (recontar) no se prueba aquí
+    private TendenciasPeliculas crear() {
+        IndiceTitulos indice = new IndiceTitulos(null, null, null, propiedades);
+        return new TendenciasPeliculas(null, indice, propiedades, reloj);
+    }
+
+    private static void registrarVistas(TendenciasPeliculas tendencias, int peliculaId, int veces) {
+        for (int i = 0; i < veces; i++) {
+            tendencias.registrarVista(peliculaId);
+        }
+    }
+
+    private static List<Integer> ids(List<ModeloTendencia> top) {
+        return top.stream().map(ModeloTendencia::getPeliculaID).toList();
+    }
+
+    private static List<Long> actividad(List<ModeloTendencia> top) {
+        return top.stream().map(ModeloTendencia::getActividad).toList();
+    }
+
+    /**
+     * Reloj que solo avanza cuando se le pide.
+     */
+    private static final class RelojManual extends Clock {
+
+        private Instant ahora;
+
+        RelojManual(Instant inicio) {
+            this.ahora = inicio;
+        }
+
+        void avanzar(Duration duracion) {
+            ahora = ahora.plus(duracion);
+        }
+
+        @Override
+        public Instant instant() {
+            return ahora;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zona) {
+            return this;
+        }
+    }
+}